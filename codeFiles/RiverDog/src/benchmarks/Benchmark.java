@@ -0,0 +1,43 @@
+package benchmarks;
+
+/**
+ * A piece of work to be timed by the benchmark suite.
+ * setUp() is called once for every input and is not
+ * timed; run() is called repeatedly and timed. What
+ * run() returns is kept, so that the work cannot be
+ * optimised away.
+ */
+public abstract class Benchmark {
+    private final String name;
+
+    protected Benchmark(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Prepares the benchmark for an input.
+     *
+     * @param input - image the benchmark runs on
+     * @throws Exception if the input cannot be prepared
+     */
+    public void setUp(BenchmarkInput input) throws Exception {
+    }
+
+    /**
+     * Runs the timed work once.
+     *
+     * @return result of the work
+     * @throws Exception if the work fails
+     */
+    public abstract Object run() throws Exception;
+
+    /**
+     * Frees what setUp() created.
+     */
+    public void tearDown() {
+    }
+}
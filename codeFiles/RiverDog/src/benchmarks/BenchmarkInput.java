@@ -0,0 +1,115 @@
+package benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+/**
+ * An image for the benchmarks to run on, either read from
+ * a file or made up at a given size with a given number
+ * of river segments. Made up images are always the same
+ * for the same size and segment count.
+ */
+public class BenchmarkInput {
+    private static final long SEED = 42;
+    private final String label;
+    private final BufferedImage image;
+    private final int blobs;
+    private File file;
+    private boolean temporary = false;
+
+    private BenchmarkInput(String label, BufferedImage image, File file, int blobs) {
+        this.label = label;
+        this.image = image;
+        this.file = file;
+        this.blobs = blobs;
+    }
+
+    /**
+     * Reads an input from an image file.
+     *
+     * @param file - image file
+     * @return input
+     * @throws IOException if the file cannot be read
+     */
+    public static BenchmarkInput fromFile(File file) throws IOException {
+        BufferedImage image = ImageIO.read(file);
+        if (image == null)
+            throw new IOException("Unsupported image format: " + file);
+        return new BenchmarkInput(file.getName(), image, file, -1);
+    }
+
+    /**
+     * Makes up a square river scene of about the given size,
+     * with the river cut into the given number of segments.
+     *
+     * @param megapixels - size of the image
+     * @param blobs - number of river segments
+     * @return input
+     * @see SyntheticRiverGenerator
+     */
+    public static BenchmarkInput synthetic(double megapixels, int blobs) {
+        int side = (int) Math.round(Math.sqrt(megapixels * 1e6));
+        SyntheticRiverGenerator generator = new SyntheticRiverGenerator(SEED);
+        generator.setRiverWidth(Math.max(4, side / 25));
+        generator.setSegments(blobs);
+        BufferedImage image = generator.generate(side, side);
+        String label = String.format("synthetic-%sMP-%dblobs", formatMegapixels(megapixels),
+                generator.getSegmentCount(side));
+        return new BenchmarkInput(label, image, null, generator.getSegmentCount(side));
+    }
+
+    private static String formatMegapixels(double megapixels) {
+        return megapixels == Math.rint(megapixels) ? Long.toString((long) megapixels) : Double.toString(megapixels);
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public double getMegapixels() {
+        return image.getWidth() * (double) image.getHeight() / 1e6;
+    }
+
+    /**
+     * Returns the number of blobs drawn on a made up image.
+     *
+     * @return blob count, or -1 for an image read from a file
+     */
+    public int getBlobs() {
+        return blobs;
+    }
+
+    /**
+     * Returns a file holding the image, writing made up
+     * images to a temporary PNG file the first time.
+     *
+     * @return image file
+     * @throws IOException if the file cannot be written
+     */
+    public synchronized File getFile() throws IOException {
+        if (file == null) {
+            file = File.createTempFile(label, ".png");
+            file.deleteOnExit();
+            temporary = true;
+            ImageIO.write(image, "png", file);
+        }
+        return file;
+    }
+
+    /**
+     * Deletes the temporary file of a made up image.
+     */
+    public synchronized void dispose() {
+        if (temporary && file != null) {
+            file.delete();
+            file = null;
+        }
+    }
+}
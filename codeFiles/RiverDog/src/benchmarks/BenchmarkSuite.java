@@ -0,0 +1,311 @@
+package benchmarks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import modules.Profiler;
+
+/**
+ * Times the benchmarks of the modules on made up images of
+ * several sizes and blob counts, and on given image files.
+ * Each benchmark is run a few times to warm up, then timed
+ * over a number of iterations. Results are printed as a
+ * table and can be written as CSV, so that two runs can be
+ * compared with --diff:
+ *
+ * [--sizes MP,...] [--blobs n,...] [--warmup n] [--iterations n]
+ * [--only name] [--csv file] [image...]
+ *
+ * --diff old.csv new.csv
+ *
+ * Large sizes need a large heap: a 400 MP image alone
+ * takes 1.6 GB.
+ */
+public class BenchmarkSuite {
+    public static final String CSV_HEADER = "benchmark,input,megapixels,blobs,iterations,mean_ms,stddev_ms,min_ms,mp_per_s";
+    private double[] sizes = { 1, 4 };
+    private int[] blobCounts = { 10, 1000 };
+    private List<File> files = new ArrayList<File>();
+    private int warmup = 3;
+    private int iterations = 5;
+    private String only;
+    private PrintStream out = System.out;
+    // Results of the work, so that it cannot be optimised away
+    private volatile Object sink;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        // Time the modules alone, without the profiler's bookkeeping
+        Profiler.getDefault().setEnabled(false);
+        if (args.length == 3 && args[0].equals("--diff")) {
+            diff(readCsv(new File(args[1])), readCsv(new File(args[2])), System.out);
+            return;
+        }
+
+        BenchmarkSuite suite = new BenchmarkSuite();
+        File csv = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].startsWith("--") && i + 1 == args.length) {
+                System.out.println("Missing value for " + args[i]);
+                System.exit(1);
+            }
+            if (args[i].equals("--sizes"))
+                suite.sizes = parseDoubles(args[++i]);
+            else if (args[i].equals("--blobs"))
+                suite.blobCounts = parseInts(args[++i]);
+            else if (args[i].equals("--warmup"))
+                suite.warmup = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--iterations"))
+                suite.iterations = Integer.parseInt(args[++i]);
+            else if (args[i].equals("--only"))
+                suite.only = args[++i];
+            else if (args[i].equals("--csv"))
+                csv = new File(args[++i]);
+            else
+                suite.files.add(new File(args[i]));
+        }
+
+        List<Result> results = suite.run();
+        if (csv != null) {
+            writeCsv(results, csv);
+            System.out.println("\nResults written to " + csv);
+        }
+    }
+
+    /**
+     * Runs every benchmark on every input.
+     *
+     * @return results, one for each benchmark and input
+     * @throws Exception if an input cannot be read or a benchmark fails
+     */
+    public List<Result> run() throws Exception {
+        List<Result> results = new ArrayList<Result>();
+        out.printf("%-40s %-30s %9s %10s %9s %9s\n", "Benchmark", "Input", "MP", "mean ms", "stddev", "MP/s");
+
+        List<BenchmarkInput> inputs = new ArrayList<BenchmarkInput>();
+        for (double size : sizes)
+            for (int blobs : blobCounts)
+                inputs.add(BenchmarkInput.synthetic(size, blobs));
+        for (File file : files)
+            inputs.add(BenchmarkInput.fromFile(file));
+
+        for (BenchmarkInput input : inputs) {
+            for (Benchmark benchmark : ModuleBenchmarks.getAll()) {
+                if (only != null && !benchmark.getName().contains(only))
+                    continue;
+                Result result = measure(benchmark, input);
+                results.add(result);
+                out.printf("%-40s %-30s %9.2f %10.2f %9.2f %9.1f\n", result.benchmark, result.input,
+                        result.megapixels, result.meanMillis, result.stddevMillis, result.getMegapixelsPerSecond());
+            }
+            input.dispose();
+        }
+        return results;
+    }
+
+    /**
+     * Times a benchmark on an input. The modules' progress
+     * messages are silenced while it runs.
+     */
+    private Result measure(Benchmark benchmark, BenchmarkInput input) throws Exception {
+        PrintStream stdout = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            public void write(int b) {
+            }
+        }));
+        double[] millis = new double[iterations];
+        try {
+            benchmark.setUp(input);
+            for (int i = 0; i < warmup; i++)
+                sink = benchmark.run();
+            for (int i = 0; i < iterations; i++) {
+                long start = System.nanoTime();
+                sink = benchmark.run();
+                millis[i] = (System.nanoTime() - start) / 1e6;
+            }
+            benchmark.tearDown();
+        }
+        finally {
+            System.setOut(stdout);
+        }
+        sink = null;
+
+        Result result = new Result(benchmark.getName(), input.getLabel());
+        result.megapixels = input.getMegapixels();
+        result.blobs = input.getBlobs();
+        result.iterations = iterations;
+        double total = 0;
+        result.minMillis = Double.MAX_VALUE;
+        for (double m : millis) {
+            total += m;
+            result.minMillis = Math.min(result.minMillis, m);
+        }
+        result.meanMillis = total / iterations;
+        double squares = 0;
+        for (double m : millis)
+            squares += (m - result.meanMillis) * (m - result.meanMillis);
+        result.stddevMillis = iterations > 1 ? Math.sqrt(squares / (iterations - 1)) : 0;
+        return result;
+    }
+
+    private static double[] parseDoubles(String list) {
+        String[] parts = list.split(",");
+        double[] values = new double[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Double.parseDouble(parts[i].trim());
+        return values;
+    }
+
+    private static int[] parseInts(String list) {
+        String[] parts = list.split(",");
+        int[] values = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            values[i] = Integer.parseInt(parts[i].trim());
+        return values;
+    }
+
+    /**
+     * Writes results as CSV, with a header line.
+     *
+     * @param results
+     * @param file
+     * @throws IOException if the file cannot be written
+     */
+    public static void writeCsv(List<Result> results, File file) throws IOException {
+        PrintStream csv = new PrintStream(file, "UTF-8");
+        try {
+            csv.println(CSV_HEADER);
+            for (Result result : results)
+                csv.println(result.toCsv());
+        }
+        finally {
+            csv.close();
+        }
+    }
+
+    /**
+     * Reads results written by writeCsv().
+     *
+     * @param file
+     * @return results by benchmark and input
+     * @throws IOException if the file cannot be read
+     */
+    public static Map<String, Result> readCsv(File file) throws IOException {
+        Map<String, Result> results = new LinkedHashMap<String, Result>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+        try {
+            String line = reader.readLine();
+            if (!CSV_HEADER.equals(line))
+                throw new IOException("Not a benchmark result file: " + file);
+            while ((line = reader.readLine()) != null) {
+                if (line.length() > 0) {
+                    Result result = Result.fromCsv(line);
+                    results.put(result.getKey(), result);
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+        return results;
+    }
+
+    /**
+     * Prints the change in mean time of every benchmark
+     * found in both runs.
+     *
+     * @param before - results of the old run
+     * @param after - results of the new run
+     * @param out
+     */
+    public static void diff(Map<String, Result> before, Map<String, Result> after, PrintStream out) {
+        out.printf("%-40s %-30s %10s %10s %9s\n", "Benchmark", "Input", "before ms", "after ms", "change");
+        for (Result b : before.values()) {
+            Result a = after.get(b.getKey());
+            if (a == null)
+                continue;
+            double change = (a.meanMillis - b.meanMillis) / b.meanMillis * 100;
+            // Only call it a change if it is larger than the noise of both runs
+            boolean significant = Math.abs(a.meanMillis - b.meanMillis) > 2 * Math.max(a.stddevMillis, b.stddevMillis);
+            out.printf("%-40s %-30s %10.2f %10.2f %+8.1f%%%s\n", b.benchmark, b.input, b.meanMillis, a.meanMillis,
+                    change, significant ? "" : " (noise)");
+        }
+    }
+
+    /**
+     * The timing of a benchmark on an input.
+     */
+    public static class Result {
+        private final String benchmark;
+        private final String input;
+        private double megapixels;
+        private int blobs;
+        private int iterations;
+        private double meanMillis;
+        private double stddevMillis;
+        private double minMillis;
+
+        Result(String benchmark, String input) {
+            this.benchmark = benchmark;
+            this.input = input;
+        }
+
+        String getKey() {
+            return benchmark + "," + input;
+        }
+
+        public String getBenchmark() {
+            return benchmark;
+        }
+
+        public String getInput() {
+            return input;
+        }
+
+        public double getMeanMillis() {
+            return meanMillis;
+        }
+
+        public double getStddevMillis() {
+            return stddevMillis;
+        }
+
+        public double getMegapixelsPerSecond() {
+            return meanMillis == 0 ? 0 : megapixels * 1000 / meanMillis;
+        }
+
+        String toCsv() {
+            return String.format(Locale.ROOT, "%s,%s,%.4f,%d,%d,%.4f,%.4f,%.4f,%.3f", benchmark, input.replace(',', '_'),
+                    megapixels, blobs, iterations, meanMillis, stddevMillis, minMillis, getMegapixelsPerSecond());
+        }
+
+        static Result fromCsv(String line) throws IOException {
+            List<String> fields = Arrays.asList(line.split(","));
+            if (fields.size() != 9)
+                throw new IOException("Bad benchmark result line: " + line);
+            try {
+                Result result = new Result(fields.get(0), fields.get(1));
+                result.megapixels = Double.parseDouble(fields.get(2));
+                result.blobs = Integer.parseInt(fields.get(3));
+                result.iterations = Integer.parseInt(fields.get(4));
+                result.meanMillis = Double.parseDouble(fields.get(5));
+                result.stddevMillis = Double.parseDouble(fields.get(6));
+                result.minMillis = Double.parseDouble(fields.get(7));
+                return result;
+            }
+            catch (NumberFormatException e) {
+                throw new IOException("Bad benchmark result line: " + line);
+            }
+        }
+    }
+}
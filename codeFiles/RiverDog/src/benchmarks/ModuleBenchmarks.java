@@ -0,0 +1,209 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import modules.BinaryMask;
+import modules.BlobDetection;
+import modules.BoundaryRenderer;
+import modules.BufferPool;
+import modules.ColorClassifier;
+import modules.ColorPaintover;
+import modules.ColorQuantization;
+import modules.ComponentLabeling;
+import modules.EdgeMajority;
+import modules.ImageView;
+import modules.RasterAccess;
+import pipeline.Pipeline;
+import riverObjects.ImageShape;
+
+/**
+ * The benchmarks of the modules package, one or more for
+ * each module, plus the whole pipeline on a single file.
+ */
+public class ModuleBenchmarks {
+
+    private ModuleBenchmarks() {
+    }
+
+    /**
+     * Creates all the benchmarks.
+     *
+     * @return benchmarks, cheapest modules first
+     */
+    public static List<Benchmark> getAll() {
+        List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+        benchmarks.add(new ImageBenchmark("RasterAccess.readPixels") {
+            public Object run() {
+                return RasterAccess.readPixels(image);
+            }
+        });
+
+        benchmarks.add(new ImageBenchmark("ImageView.copy") {
+            public Object run() {
+                return ImageView.copy(image);
+            }
+        });
+
+        benchmarks.add(new ImageBenchmark("ColorClassifier") {
+            public Object run() {
+                return new ColorClassifier(image).getMask();
+            }
+        });
+
+        benchmarks.add(new ImageBenchmark("ColorClassifier.lookupTable") {
+            public Object run() {
+                ColorClassifier cc = new ColorClassifier(image);
+                cc.setUseLookupTable(true);
+                return cc.getMask();
+            }
+        });
+
+        benchmarks.add(new ImageBenchmark("ColorQuantization") {
+            public Object run() {
+                return new ColorQuantization(image).getImage();
+            }
+        });
+
+        benchmarks.add(new ImageBenchmark("ColorPaintover") {
+            public Object run() {
+                ColorPaintover paint = new ColorPaintover(image);
+                paint.setNewColor(Color.WHITE);
+                paint.setOldColor(Arrays.asList(new Color(image.getRGB(0, 0))));
+                return paint.getImage();
+            }
+        });
+
+        benchmarks.add(new ImageBenchmark("EdgeMajority") {
+            public Object run() {
+                return new EdgeMajority(image).getImageView();
+            }
+        });
+
+        benchmarks.add(new MaskBenchmark("BinaryMask.toImage") {
+            public Object run() {
+                return mask.toImage();
+            }
+        });
+
+        benchmarks.add(new MaskBenchmark("ComponentLabeling") {
+            public Object run() {
+                return new ComponentLabeling(mask, ComponentLabeling.EIGHT_CONNECTED).label();
+            }
+        });
+
+        benchmarks.add(new MaskBenchmark("BlobDetection.findImageShapes") {
+            public Object run() {
+                BlobDetection blobs = new BlobDetection(mask, image);
+                blobs.setMinimumArea(Pipeline.SPECKLE_AREA);
+                return blobs.findImageShapes();
+            }
+        });
+
+        benchmarks.add(new MaskBenchmark("BlobDetection.findLargestRelatedShapes") {
+            public Object run() {
+                BlobDetection blobs = new BlobDetection(mask, image);
+                blobs.setMinimumArea(Pipeline.SPECKLE_AREA);
+                return blobs.findLargestRelatedShapes();
+            }
+        });
+
+        benchmarks.add(new MaskBenchmark("BlobDetection.pooled") {
+            private final BufferPool pool = new BufferPool(Long.MAX_VALUE);
+
+            public Object run() {
+                BlobDetection blobs = new BlobDetection(mask, image);
+                blobs.setMinimumArea(Pipeline.SPECKLE_AREA);
+                blobs.setBufferPool(pool);
+                return blobs.findLargestRelatedShapes();
+            }
+        });
+
+        benchmarks.add(new MaskBenchmark("BoundaryRenderer") {
+            private List<ImageShape> shapes;
+
+            @Override
+            public void setUp(BenchmarkInput input) throws Exception {
+                super.setUp(input);
+                BlobDetection blobs = new BlobDetection(mask, image);
+                blobs.setMinimumArea(Pipeline.SPECKLE_AREA);
+                shapes = blobs.findLargestRelatedShapes();
+            }
+
+            public Object run() {
+                BoundaryRenderer renderer = new BoundaryRenderer(image);
+                renderer.setOutlineColor(Pipeline.OUTLINE_COLOR);
+                renderer.setImageShapes(shapes);
+                return renderer.getImage();
+            }
+        });
+
+        benchmarks.add(new Benchmark("Pipeline.startPipeline") {
+            private final Pipeline pipeline = new Pipeline();
+            private BenchmarkInput input;
+
+            @Override
+            public void setUp(BenchmarkInput input) throws Exception {
+                this.input = input;
+                // Write the image out before timing, so that only reading it is timed
+                input.getFile();
+                pipeline.setVerbose(false);
+            }
+
+            public Object run() throws Exception {
+                return pipeline.startPipeline(input.getFile());
+            }
+        });
+        return benchmarks;
+    }
+
+    /**
+     * A benchmark on the input image.
+     */
+    private abstract static class ImageBenchmark extends Benchmark {
+        protected BufferedImage image;
+
+        ImageBenchmark(String name) {
+            super(name);
+        }
+
+        @Override
+        public void setUp(BenchmarkInput input) throws Exception {
+            image = input.getImage();
+        }
+
+        @Override
+        public void tearDown() {
+            image = null;
+        }
+    }
+
+    /**
+     * A benchmark on the classified mask of the input image.
+     */
+    private abstract static class MaskBenchmark extends ImageBenchmark {
+        protected BinaryMask mask;
+
+        MaskBenchmark(String name) {
+            super(name);
+        }
+
+        @Override
+        public void setUp(BenchmarkInput input) throws Exception {
+            super.setUp(input);
+            ColorClassifier cc = new ColorClassifier(image);
+            cc.setUseLookupTable(true);
+            mask = cc.getMask();
+        }
+
+        @Override
+        public void tearDown() {
+            super.tearDown();
+            mask = null;
+        }
+    }
+}
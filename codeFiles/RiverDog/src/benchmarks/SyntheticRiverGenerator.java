@@ -0,0 +1,162 @@
+package benchmarks;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import modules.RasterAccess;
+
+/**
+ * Makes up river-like scenes of any size: textured grass
+ * with a meandering river flowing from left to right. The
+ * river can be cut into disconnected segments, its colour
+ * can drift along its length, and speckles of river colour
+ * can be scattered over the land. The same settings and
+ * seed always give the same image, so that benchmarks can
+ * sweep the image size and the number of blobs and still
+ * be compared between runs.
+ */
+public class SyntheticRiverGenerator {
+    // River and land hues, well inside and outside the classifier's river range
+    private static final float RIVER_HUE = 0.6f;
+    private static final float LAND_HUE = 0.25f;
+    private final long seed;
+    private int riverWidth = 40;
+    private int segments = 1;
+    private double speckleDensity = 0.0005;
+    private float colorDrift = 0.05f;
+
+    /**
+     * @param seed - seed of the random choices
+     */
+    public SyntheticRiverGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Sets the average width of the river, in pixels.
+     *
+     * @param width
+     */
+    public void setRiverWidth(int width) {
+        riverWidth = Math.max(1, width);
+    }
+
+    /**
+     * Sets the number of pieces the river is cut into by
+     * strips of land. There are never more pieces than fit
+     * the width of the image, at least 2 columns each.
+     *
+     * @param segments
+     */
+    public void setSegments(int segments) {
+        this.segments = Math.max(1, segments);
+    }
+
+    /**
+     * Sets the fraction of land pixels that are speckles of
+     * river colour, each of which is a small blob of its own.
+     *
+     * @param density - 0 to 1
+     */
+    public void setSpeckleDensity(double density) {
+        speckleDensity = density;
+    }
+
+    /**
+     * Sets how far the hue of the river wanders along its
+     * length, up to 0.1 so that it stays a river colour.
+     *
+     * @param drift - largest change of hue, 0 to 0.1
+     */
+    public void setColorDrift(float drift) {
+        colorDrift = Math.max(0f, Math.min(0.1f, drift));
+    }
+
+    /**
+     * Returns the number of river segments an image of the
+     * given width is cut into.
+     *
+     * @param width - image width
+     * @return number of segments
+     */
+    public int getSegmentCount(int width) {
+        return Math.max(1, Math.min(segments, (width + getGap()) / (2 + getGap())));
+    }
+
+    private int getGap() {
+        return Math.max(2, riverWidth / 4);
+    }
+
+    /**
+     * Makes up an image.
+     *
+     * @param width
+     * @param height
+     * @return river scene
+     */
+    public BufferedImage generate(int width, int height) {
+        int[] pixels = new int[width * height];
+        Random random = new Random(seed);
+
+        // Texture the land with a hash of the position, so that it needs no random calls per pixel
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int h = hash(x, y);
+                float brightness = 0.35f + (h & 0xff) / 2550f;
+                pixels[y * width + x] = Color.HSBtoRGB(LAND_HUE + ((h >> 8) & 0xf) / 400f, 0.6f, brightness);
+            }
+        }
+
+        // Cut the river into segments with strips of land between them
+        int count = getSegmentCount(width);
+        int gap = count > 1 ? getGap() : 0;
+        double segmentLength = (width - gap * (count - 1)) / (double) count;
+
+        // The river meanders around the middle, as the sum of two waves
+        double amplitude = height / 4.0;
+        double phase1 = random.nextDouble() * Math.PI * 2;
+        double phase2 = random.nextDouble() * Math.PI * 2;
+        double wave1 = (1 + random.nextInt(3)) * Math.PI * 2 / width;
+        double wave2 = (3 + random.nextInt(5)) * Math.PI * 2 / width;
+        double driftPhase = random.nextDouble() * Math.PI * 2;
+
+        for (int x = 0; x < width; x++) {
+            // Skip the strips of land between segments
+            double position = x % (segmentLength + gap);
+            if (count > 1 && position >= segmentLength)
+                continue;
+            double center = height / 2.0 + amplitude * (0.7 * Math.sin(wave1 * x + phase1)
+                    + 0.3 * Math.sin(wave2 * x + phase2));
+            double halfWidth = riverWidth / 2.0 * (1 + 0.3 * Math.sin(wave2 * x + phase1));
+            float hue = RIVER_HUE + colorDrift * (float) Math.sin(Math.PI * 2 * x / width + driftPhase);
+            int top = Math.max(0, (int) Math.round(center - halfWidth));
+            int bottom = Math.min(height - 1, (int) Math.round(center + halfWidth));
+            for (int y = top; y <= bottom; y++) {
+                float brightness = 0.45f + (hash(x, y) & 0xff) / 5100f;
+                pixels[y * width + x] = Color.HSBtoRGB(hue, 0.7f, brightness);
+            }
+        }
+
+        // Scatter speckles of river colour over the land
+        long speckles = Math.round(speckleDensity * width * height);
+        int speckleColor = Color.HSBtoRGB(RIVER_HUE, 0.7f, 0.5f);
+        for (long i = 0; i < speckles; i++) {
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            pixels[y * width + x] = speckleColor;
+        }
+        return RasterAccess.createImage(pixels, width, height);
+    }
+
+    /**
+     * Mixes a position and the seed into pseudo-random bits.
+     */
+    private int hash(int x, int y) {
+        long h = seed * 0x9E3779B97F4A7C15L + x * 0xC2B2AE3D27D4EB4FL + y * 0x165667B19E3779F9L;
+        h ^= h >>> 29;
+        h *= 0xBF58476D1CE4E5B9L;
+        h ^= h >>> 32;
+        return (int) h;
+    }
+}
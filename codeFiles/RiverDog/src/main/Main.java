@@ -1,32 +1,189 @@
 package main;
 
-import pipeline.Pipeline;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import pipeline.BatchRunner;
+import pipeline.MemoryBudget;
+import pipeline.PipelineResult;
+import pipeline.ResultCache;
 import view.MainFrame;
 
 /**
  * This class contains the application's
- * entry point. 
+ * entry point.
  */
 public class Main {
-    
+
     //private final static String sep = System.getProperty("file.separator");
     private final static String[] def = {"./images", "./results"};
-    
+
 	/**
 	 * Starts the program running -- calls the pipeline class
-	 * and passes images to it
+	 * and passes images to it. With --batch, images are
+	 * processed without opening any window:
+	 *
+	 * --batch [--output dir] [--name pattern] [--threads n] [--io-threads n] [--memory MB] [--cache dir] [--pyramid n] [--min-area n] [--tiled MP] input...
+	 * --batch --watch [--output dir] [--name pattern] [--cache dir] [--pyramid n] [--min-area n] [--tiled MP] directory
+	 *
+	 * where inputs are directories, image files or glob patterns. With
+	 * --watch, images are processed as they arrive in the directory. With
+	 * --pyramid, river segments are looked for at 1/n resolution first. With
+	 * --min-area, blobs of fewer than n pixels are dropped as speckle. With
+	 * --tiled, images of at least MP megapixels are read in tiles and only
+	 * their river segments are reported, without writing a result image;
+	 * such images must be TIFF or tiled, as other formats fail.
 	 * @param directories -- directory of images and directory of results
 	 */
 	public static void main(String[] directories) {
+            if(directories.length > 0 && directories[0].equals("--batch")){
+                System.exit(runBatch(directories));
+            }
             if(directories.length == 0){
                 MainFrame mainframe = new MainFrame(def);
             }
             else{//TODO Add a check for folder permissions
                 MainFrame mainframe = new MainFrame(directories);
             }
-            
-            
-	    //new Pipeline(images).startPipeline();
+	}
+
+	/**
+	 * Runs the headless batch mode.
+	 *
+	 * @param args -- command line arguments, starting with --batch
+	 * @return exit status: 0 if all images were processed, 1 otherwise
+	 */
+	private static int runBatch(String[] args) {
+            System.setProperty("java.awt.headless", "true");
+            File output = null;
+            File cache = null;
+            boolean watch = false;
+            String pattern = BatchRunner.DEFAULT_OUTPUT_PATTERN;
+            int threads = Runtime.getRuntime().availableProcessors();
+            int ioThreads = 2;
+            long memory = 0;
+            int pyramid = 1;
+            int minimumArea = 1;
+            long tiled = 0;
+            List<String> inputs = new ArrayList<String>();
+
+            for(int i = 1; i < args.length; i++){
+                if(args[i].equals("--watch")){
+                    watch = true;
+                    continue;
+                }
+                if(args[i].startsWith("--") && i + 1 == args.length){
+                    System.out.println("Missing value for " + args[i]);
+                    return 1;
+                }
+                if(args[i].equals("--output")){
+                    output = new File(args[++i]);
+                }
+                else if(args[i].equals("--name")){
+                    pattern = args[++i];
+                }
+                else if(args[i].equals("--cache")){
+                    cache = new File(args[++i]);
+                }
+                else if(args[i].equals("--threads") || args[i].equals("--io-threads") || args[i].equals("--memory")
+                        || args[i].equals("--pyramid") || args[i].equals("--min-area")
+                        || args[i].equals("--tiled")){
+                    try{
+                        long value = Long.parseLong(args[i + 1]);
+                        if(args[i].equals("--threads")){
+                            threads = (int) value;
+                        }
+                        else if(args[i].equals("--io-threads")){
+                            ioThreads = (int) value;
+                        }
+                        else if(args[i].equals("--pyramid")){
+                            pyramid = (int) value;
+                        }
+                        else if(args[i].equals("--min-area")){
+                            minimumArea = (int) value;
+                        }
+                        else if(args[i].equals("--tiled")){
+                            tiled = value * 1000000;
+                        }
+                        else{
+                            memory = value * 1024 * 1024;
+                        }
+                        i++;
+                    }catch(NumberFormatException e){
+                        System.out.println("Not a number: " + args[i + 1]);
+                        return 1;
+                    }
+                }
+                else{
+                    inputs.add(args[i]);
+                }
+            }
+            if(inputs.isEmpty()){
+                System.out.println("Usage: --batch [--output dir] [--name pattern] [--threads n] [--io-threads n] [--memory MB] [--cache dir] [--pyramid n] [--min-area n] [--tiled MP] input...");
+                System.out.println("   or: --batch --watch [--output dir] [--name pattern] [--cache dir] [--pyramid n] [--min-area n] [--tiled MP] directory");
+                System.out.println("Inputs are directories, image files or glob patterns.");
+                System.out.println("The name pattern may use {name} and {ext}, default: " + BatchRunner.DEFAULT_OUTPUT_PATTERN);
+                return 1;
+            }
+
+            if(watch && (inputs.size() != 1 || !new File(inputs.get(0)).isDirectory())){
+                System.out.println("--watch needs a single directory to watch.");
+                return 1;
+            }
+
+            List<File> files = new ArrayList<File>();
+            if(!watch){
+                try{
+                    files = BatchRunner.findInputs(inputs.toArray(new String[inputs.size()]), output, pattern);
+                }catch(IOException e){
+                    System.out.println(e.getMessage());
+                    return 1;
+                }
+                if(files.isEmpty()){
+                    System.out.println("No images found.");
+                    return 1;
+                }
+            }
+
+            BatchRunner runner = new BatchRunner(files);
+            runner.setOutputDirectory(output);
+            runner.setOutputPattern(pattern);
+            runner.setThreads(threads);
+            runner.setIOThreads(ioThreads);
+            runner.setPyramidFactor(pyramid);
+            runner.setMinimumSegmentArea(minimumArea);
+            runner.setTiledThreshold(tiled);
+            if(memory > 0){
+                runner.setMemoryBudget(new MemoryBudget(memory));
+            }
+            if(cache != null){
+                try{
+                    runner.setResultCache(new ResultCache(cache, ResultCache.DEFAULT_MAX_BYTES));
+                }catch(IOException e){
+                    System.out.println(e.getMessage());
+                    return 1;
+                }
+            }
+            try{
+                if(watch){
+                    runner.watch(new File(inputs.get(0)));
+                    return 0;
+                }
+                for(PipelineResult result : runner.run()){
+                    if(!result.isSuccessful()){
+                        return 1;
+                    }
+                }
+            }catch(IOException e){
+                System.out.println(e.getMessage());
+                return 1;
+            }catch(InterruptedException e){
+                System.out.println("Interrupted.");
+                return 1;
+            }
+            return 0;
 	}
 
 }
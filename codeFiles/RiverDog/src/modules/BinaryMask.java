@@ -0,0 +1,265 @@
+package modules;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+/**
+ * A black and white image stored as one bit per pixel,
+ * packed into 64-bit words. Each row starts on a new
+ * word, so rows can be scanned and combined a word at a
+ * time. Set bits are foreground (black) pixels and clear
+ * bits are background (white) pixels. Padding bits at
+ * the end of each row are always clear.
+ */
+public class BinaryMask {
+    private static final int black = Color.BLACK.getRGB();
+    private static final int white = Color.WHITE.getRGB();
+    private final int width;
+    private final int height;
+    private final int wordsPerRow;
+    private final long[] words;
+
+    public BinaryMask(int width, int height) {
+        this(width, height, null);
+    }
+
+    private BinaryMask(int width, int height, BufferPool pool) {
+        this.width = width;
+        this.height = height;
+        wordsPerRow = (width + 63) >>> 6;
+        words = pool == null ? new long[wordsPerRow * height] : pool.borrowLongs(wordsPerRow * height);
+    }
+
+    /**
+     * Creates an empty mask whose words are borrowed from
+     * a pool. Give them back with release() once the mask
+     * is no longer used.
+     *
+     * @param width
+     * @param height
+     * @param pool - pool to borrow from, or null to allocate
+     * @return empty mask
+     */
+    public static BinaryMask borrow(int width, int height, BufferPool pool) {
+        return new BinaryMask(width, height, pool);
+    }
+
+    /**
+     * Returns the words of the mask to a pool. The mask
+     * must not be used afterwards.
+     *
+     * @param pool - pool to return to, or null to do nothing
+     */
+    public void release(BufferPool pool) {
+        if (pool != null)
+            pool.release( words );
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the number of words used by each row.
+     *
+     * @return words per row
+     */
+    public int getWordsPerRow() {
+        return wordsPerRow;
+    }
+
+    /**
+     * Returns the backing words of the mask, row by row,
+     * for word-at-a-time processing. Bit x % 64 of word
+     * y * wordsPerRow + x / 64 holds pixel (x, y).
+     *
+     * @return backing words
+     */
+    public long[] getWords() {
+        return words;
+    }
+
+    public boolean get(int x, int y) {
+        return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+    }
+
+    public void set(int x, int y) {
+        words[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+    }
+
+    public void clear(int x, int y) {
+        words[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+    }
+
+    /**
+     * Counts the set pixels in the mask.
+     *
+     * @return number of set pixels
+     */
+    public int cardinality() {
+        int count = 0;
+        for (long word : words)
+            count += Long.bitCount( word );
+        return count;
+    }
+
+    /**
+     * Keeps only the pixels also set in the other mask.
+     *
+     * @param other - mask of the same size
+     */
+    public void and(BinaryMask other) {
+        checkSize( other );
+        for (int i = 0; i < words.length; i++)
+            words[i] &= other.words[i];
+    }
+
+    /**
+     * Adds all the pixels set in the other mask.
+     *
+     * @param other - mask of the same size
+     */
+    public void or(BinaryMask other) {
+        checkSize( other );
+        for (int i = 0; i < words.length; i++)
+            words[i] |= other.words[i];
+    }
+
+    /**
+     * Flips all the pixels set in the other mask.
+     *
+     * @param other - mask of the same size
+     */
+    public void xor(BinaryMask other) {
+        checkSize( other );
+        for (int i = 0; i < words.length; i++)
+            words[i] ^= other.words[i];
+    }
+
+    /**
+     * Clears all the pixels set in the other mask.
+     *
+     * @param other - mask of the same size
+     */
+    public void andNot(BinaryMask other) {
+        checkSize( other );
+        for (int i = 0; i < words.length; i++)
+            words[i] &= ~other.words[i];
+    }
+
+    /**
+     * Finds the next set pixel in a row, starting at the
+     * given column (inclusive). Whole words of clear pixels
+     * are skipped at once.
+     *
+     * @param x - first column to check
+     * @param y - row to scan
+     * @return column of the next set pixel, or -1 if none
+     */
+    public int nextSetBit(int x, int y) {
+        if (x >= width)
+            return -1;
+        int rowStart = y * wordsPerRow;
+        int index = x >>> 6;
+        long word = words[rowStart + index] & (-1L << x);
+        while (word == 0) {
+            if (++index == wordsPerRow)
+                return -1;
+            word = words[rowStart + index];
+        }
+        return (index << 6) + Long.numberOfTrailingZeros( word );
+    }
+
+    /**
+     * Finds the next clear pixel in a row, starting at the
+     * given column (inclusive). Whole words of set pixels
+     * are skipped at once.
+     *
+     * @param x - first column to check
+     * @param y - row to scan
+     * @return column of the next clear pixel, or the width if none
+     */
+    public int nextClearBit(int x, int y) {
+        if (x >= width)
+            return width;
+        int rowStart = y * wordsPerRow;
+        int index = x >>> 6;
+        long word = ~words[rowStart + index] & (-1L << x);
+        while (word == 0) {
+            if (++index == wordsPerRow)
+                return width;
+            word = ~words[rowStart + index];
+        }
+        return Math.min( width, (index << 6) + Long.numberOfTrailingZeros( word ) );
+    }
+
+    /**
+     * Returns a copy of this mask.
+     *
+     * @return copy of the mask
+     */
+    public BinaryMask copy() {
+        return copy( null );
+    }
+
+    /**
+     * Returns a copy of this mask, with its words
+     * borrowed from a pool.
+     *
+     * @param pool - pool to borrow from, or null to allocate
+     * @return copy of the mask
+     */
+    public BinaryMask copy(BufferPool pool) {
+        BinaryMask result = new BinaryMask(width, height, pool);
+        System.arraycopy( words, 0, result.words, 0, words.length );
+        return result;
+    }
+
+    /**
+     * Creates a mask with the pixels of an image that
+     * have exactly the given color set.
+     *
+     * @param img - source image
+     * @param color - integer representation of the color
+     * @return mask of the pixels with that color
+     */
+    public static BinaryMask fromImage(BufferedImage img, int color) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int[] pixels = RasterAccess.readPixels( img );
+        BinaryMask result = new BinaryMask(width, height);
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                if (pixels[row + x] == color)
+                    result.set( x, y );
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Renders the mask as an image, with set pixels
+     * painted black and clear pixels painted white.
+     *
+     * @return black and white image of the mask
+     */
+    public BufferedImage toImage() {
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++)
+                pixels[row + x] = get( x, y ) ? black : white;
+        }
+        return RasterAccess.createImage( pixels, width, height );
+    }
+
+    private void checkSize(BinaryMask other) {
+        if (other.width != width || other.height != height)
+            throw new IllegalArgumentException("Masks must have the same size");
+    }
+}
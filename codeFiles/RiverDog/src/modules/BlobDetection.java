@@ -1,34 +1,242 @@
 package modules;
 
 import java.awt.Color;
-import java.awt.Point;
 import java.awt.Polygon;
 import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
 
-import pipeline.Pipeline;
+import riverObjects.ChainCode;
 import riverObjects.ImageShape;
 
 /**
  * This module detects and saves the ImageShapes
  * of all the non-white blobs in a picture. A 
  * shape is defined here as a group of pixels with
- * exactly the same RGB values.
+ * exactly the same RGB values. The picture may also
+ * be given as a binary mask, whose set pixels are
+ * treated as black and clear pixels as white.
  */
 public class BlobDetection implements Module {
     private int white = Color.white.getRGB(); // Int representation of white
     private BufferedImage classified;
+    private BinaryMask mask;
     private BufferedImage original;
     private List<ImageShape> imageShapes = new ArrayList<ImageShape>();
+    private boolean traced = false;
+    private boolean sorted = false;
+    private ComponentLabeling components;
+    private int minimumArea = 1;
+    private TileScheduler scheduler = TileScheduler.getDefault();
+    private BufferPool pool;
+    private CancellationToken cancellation;
+    private BoundarySampler sampler;
+    // Packed pixels (or mask edges) of the picture, available while detecting shapes
+    private int[] pixels;
+    private BinaryMask edges;
+    private int width;
+    private int height;
     public static final float COLOR_SIMILARITY_THRESHOLD = 0.23f;
+    
+    /**
+     * Gives the colors of the original picture along the
+     * boundary of a shape, for when the original is not
+     * held in memory as a whole.
+     */
+    public interface BoundarySampler {
+        /**
+         * Returns the color of every boundary point of a
+         * shape, in the order of its chain code (or polygon).
+         * 
+         * @param shape - traced shape
+         * @return integer representations of the colors
+         */
+        int[] getBoundaryRGB(ImageShape shape);
+    }
+    
+    /**
+     * Orders image shapes by decreasing perimeter. Shapes with
+     * the same perimeter are kept by a stable sort in the order
+     * in which they were found, which makes the order total.
+     */
+    public static final Comparator<ImageShape> SHAPE_ORDER = new Comparator<ImageShape>() {
+        public int compare( ImageShape o1, ImageShape o2 ) {
+            return Float.compare( o2.getPerimeter(), o1.getPerimeter() );
+        }
+    };
+    /**
+     * Orders image shapes as they are found when scanning the
+     * picture column by column from the left, going up each
+     * column, by the point at which their trace starts.
+     */
+    public static final Comparator<ImageShape> SCAN_ORDER = new Comparator<ImageShape>() {
+        public int compare( ImageShape o1, ImageShape o2 ) {
+            if (o1.getStartX() != o2.getStartX())
+                return o1.getStartX() < o2.getStartX() ? -1 : 1;
+            return o1.getStartY() == o2.getStartY() ? 0 : o1.getStartY() > o2.getStartY() ? -1 : 1;
+        }
+    };
+    // Number of shapes first selected when looking for related ones
+    private static final int RELATED_BATCH = 16;
     public BlobDetection(BufferedImage classified, BufferedImage original) {
         this.classified = classified;
         this.original = original;
     }
     
+    public BlobDetection(BinaryMask mask, BufferedImage original) {
+        this.mask = mask;
+        this.original = original;
+    }
+    
+    /**
+     * Creates a blob detection over shapes which are already
+     * traced, such as with traceComponent(), for finding the
+     * largest ones and those related to them.
+     * 
+     * @param shapes - traced shapes, in SCAN_ORDER
+     * @param original - original picture, or null with a boundary sampler
+     */
+    public BlobDetection(List<ImageShape> shapes, BufferedImage original) {
+        imageShapes.addAll(shapes);
+        this.original = original;
+        traced = true;
+    }
+    
+    /**
+     * Traces the shapes of a single component from its runs,
+     * giving the same shapes as tracing the whole picture would
+     * for the pixels of that component. Shapes are in the order
+     * in which they are found, which is SCAN_ORDER.
+     * 
+     * @param component - component to trace
+     * @return traced shapes
+     */
+    public static List<ImageShape> traceComponent(RunComponent component) {
+        List<ImageShape> shapes = new ArrayList<ImageShape>();
+        Profiler.Section section = Profiler.getDefault().start("BlobDetection.trace", component.getArea());
+        try {
+            MooreTracer tracer = new MooreTracer(component);
+            int[] edges = component.findEdges();
+            // Sort the edges by where they start, then go through the columns from the left
+            Integer[] order = new Integer[edges.length / 3];
+            for (int i = 0; i < order.length; i++)
+                order[i] = i;
+            final int[] starts = edges;
+            Arrays.sort(order, new Comparator<Integer>() {
+                public int compare( Integer i, Integer j ) {
+                    return starts[i * 3] - starts[j * 3];
+                }
+            });
+            // End of the edge of each row which covers the current column, from the bottom up
+            TreeMap<Integer, Integer> active = new TreeMap<Integer, Integer>(Collections.<Integer>reverseOrder());
+            int next = 0;
+            int x = order.length > 0 ? edges[order[0] * 3] : 0;
+            while (next < order.length || !active.isEmpty()) {
+                if (active.isEmpty())
+                    x = edges[order[next] * 3];
+                while (next < order.length && edges[order[next] * 3] == x) {
+                    active.put(edges[order[next] * 3 + 2], edges[order[next] * 3 + 1]);
+                    next++;
+                }
+                Iterator<Map.Entry<Integer, Integer>> rows = active.entrySet().iterator();
+                while (rows.hasNext()) {
+                    Map.Entry<Integer, Integer> row = rows.next();
+                    int y = row.getKey();
+                    if (!component.isVisited(x, y))
+                        // Enter from the previously visited point (below), as when scanning the picture
+                        shapes.add(tracer.trace(x, y, x, y + 1, null));
+                    if (row.getValue() == x + 1)
+                        rows.remove();
+                }
+                x++;
+            }
+        }
+        finally {
+            section.end();
+        }
+        return shapes;
+    }
+    
+    /**
+     * Sets the minimum area (in pixels) of the blobs to be
+     * traced. Smaller blobs, such as speckle, are found by
+     * connected component labeling and never traced. The
+     * default of 1 traces every blob.
+     * 
+     * @param area - minimum blob area
+     */
+    public void setMinimumArea(int area) {
+        minimumArea = area;
+    }
+    
+    /**
+     * Sets the scheduler used for labeling strips
+     * of the picture in parallel.
+     * 
+     * @param scheduler
+     */
+    public void setScheduler(TileScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Sets the pool the temporary pixel buffer and masks
+     * used while tracing are borrowed from.
+     * 
+     * @param pool
+     */
+    public void setBufferPool(BufferPool pool) {
+        this.pool = pool;
+    }
+    
+    /**
+     * Sets the token checked before each column is
+     * scanned and each shape is compared, so that a run
+     * can be stopped partway.
+     * 
+     * @param token - token, or null
+     */
+    public void setCancellationToken(CancellationToken token) {
+        cancellation = token;
+    }
+    
+    /**
+     * Sets where the colors along the boundaries of shapes
+     * are taken from when looking for related shapes. By
+     * default they are read from the original picture.
+     * 
+     * @param sampler - sampler, or null to read the original
+     */
+    public void setBoundarySampler(BoundarySampler sampler) {
+        this.sampler = sampler;
+    }
+    
+    /**
+     * Labels the 8-connected components of the picture,
+     * giving the area, bounding box and color of every
+     * blob in a single sweep.
+     * 
+     * @return component labeling of the picture
+     */
+    public ComponentLabeling findComponents() {
+        if (components == null) {
+            if (mask != null)
+                components = new ComponentLabeling(mask, ComponentLabeling.EIGHT_CONNECTED);
+            else
+                components = new ComponentLabeling(RasterAccess.readPixels(classified), classified.getWidth(),
+                                                   classified.getHeight(), white, ComponentLabeling.EIGHT_CONNECTED);
+            components.setScheduler(scheduler);
+        }
+        return components.label();
+    }
+    
     /**
      * Finds and returns a sorted list (by edge
      * size) of all non-white ImageShapes within the picture.
@@ -36,62 +244,141 @@ public class BlobDetection implements Module {
      * @return list of image shapes
      */
     public List<ImageShape> findImageShapes() {
-        // If image shapes have already been found, no need to re-detect
-        if (!imageShapes.isEmpty()) {
-            return imageShapes;
+        traceImageShapes();
+        if (!sorted) {
+            Profiler.Section section = Profiler.getDefault().start("BlobDetection.sort", (long) width * height);
+            try {
+                Collections.sort( imageShapes, SHAPE_ORDER );
+                sorted = true;
+            }
+            finally {
+                section.end();
+            }
         }
-        // Else, detect shapes
-        else {
-            int width = classified.getWidth();
-            int height = classified.getHeight();
+        return imageShapes;
+    }
+    
+    /**
+     * Traces all the non-white ImageShapes within the
+     * picture, in the order in which they are found.
+     */
+    private void traceImageShapes() {
+        // If image shapes have already been found, no need to re-detect
+        if (!traced) {
+            BinaryMask columns = null;
+            MooreTracer tracer;
+            long pixelCount = mask != null ? (long) mask.getWidth() * mask.getHeight()
+                                           : (long) classified.getWidth() * classified.getHeight();
+            Profiler.Section section = Profiler.getDefault().start("BlobDetection.scan", pixelCount);
+            int[] labels = null;
+            try {
+                if (mask != null) {
+                    width = mask.getWidth();
+                    height = mask.getHeight();
+                    // Find the edges a word at a time, and the columns that contain any
+                    edges = findMaskEdges(mask);
+                    columns = findOccupiedColumns(edges);
+                    tracer = new MooreTracer(mask);
+                }
+                else {
+                    width = classified.getWidth();
+                    height = classified.getHeight();
+                    // Read pixels once into a packed array
+                    pixels = RasterAccess.readPixels(classified, pool);
+                    tracer = new MooreTracer(pixels, width, height);
+                }
 
-            // Create a boolean 2D array for storing visited places
-            boolean[][] visited = new boolean[height][width];
-            Point current = new Point();
-           // Store the entry point for backtracking in Moore neighborhood algorithm
-            Point previous = new Point(0, height);
-            /* From bottom to top and left to right scan the pixels until a non-white,
-             * not previously visited pixel is found */
-            for (int x = 0; x < width; x++) {
-                for (int y = height - 1; y >= 0; y--) {
-                    if (!visited[y][x] && isEdge(x, y, classified)) {
-                        // Add image shape to list
-                        current.x = x;
-                        current.y = y;
-                        imageShapes.add(mooreNeighborhood(current, previous, visited, classified));
+                // Label blobs first if small ones are to be skipped
+                if (minimumArea > 1)
+                    labels = findComponents().getLabels();
+            }
+            finally {
+                section.end();
+            }
+
+            section = Profiler.getDefault().start("BlobDetection.trace", pixelCount);
+            try {
+                // Create a mask for storing visited places
+                BinaryMask visited = BinaryMask.borrow(width, height, pool);
+                /* From bottom to top and left to right scan the pixels until a non-white,
+                 * not previously visited pixel is found. The scan order determines where
+                 * each trace starts, so it stays column by column */
+                int x = nextColumn(0, columns);
+                while (x >= 0) {
+                    CancellationToken.check(cancellation);
+                    for (int y = height - 1; y >= 0; y--) {
+                        if (!visited.get(x, y) && isEdge(x, y) &&
+                                (labels == null || components.getArea(labels[y * width + x]) >= minimumArea)) {
+                            // Add image shape to list, entering from the previously visited point (below)
+                            imageShapes.add(tracer.trace(x, y, x, y + 1, visited));
+                        }
                     }
-                    
-                    // Remember previously visited point
-                    previous.x = x;
-                    previous.y = y;
+                    x = nextColumn(x + 1, columns);
+                }
+                // Return the temporary buffers
+                visited.release(pool);
+                if (mask != null) {
+                    edges.release(pool);
+                    columns.release(pool);
                 }
-                
-                // Adjust previous if we are going to a new column
-                previous.x++;
-                previous.y = height;
+                else
+                    RasterAccess.releasePixels(classified, pixels, pool);
+                pixels = null;
+                edges = null;
+                traced = true;
+            }
+            finally {
+                section.end();
             }
-            sortImageShapes(imageShapes);
-            return imageShapes;
         }
     }
     
     /**
-     * Sorts the image list in decreasing order,
-     * based on the size of image shape boundaries.
+     * Returns the k largest image shapes (by edge size)
+     * in decreasing order. Unless all shapes have already
+     * been sorted, only the k largest are kept in a bounded
+     * heap while going through the shapes.
      * 
-     * @param list - the list of image shapes to be sorted
+     * @param k - maximum number of shapes to return
+     * @return list of at most k image shapes
      */
-    private void sortImageShapes(List<ImageShape> list) {
+    public List<ImageShape> findLargestShapes(int k) {
+        traceImageShapes();
+        // Once half of the shapes are wanted, sorting them all is no slower
+        if (!sorted && 2L * k >= imageShapes.size())
+            findImageShapes();
+        if (sorted)
+            return new ArrayList<ImageShape>(imageShapes.subList( 0, Math.min( k, imageShapes.size() ) ));
         
-        // Create comparator for sorting, based on the perimeter of image shapes
-        Comparator<ImageShape> comp = new Comparator<ImageShape>() {
-            public int compare( ImageShape o1, ImageShape o2 ) {
-                return Math.round( o2.getPerimeter() - o1.getPerimeter());
+        Profiler.Section section = Profiler.getDefault().start("BlobDetection.sort", (long) width * height);
+        try {
+            // Shapes of the same perimeter are ordered as they were found, as the stable sort does
+            Comparator<Integer> order = new Comparator<Integer>() {
+                public int compare( Integer i, Integer j ) {
+                    int result = SHAPE_ORDER.compare( imageShapes.get( i ), imageShapes.get( j ) );
+                    return result != 0 ? result : i - j;
+                }
+            };
+            // Keep the indices of the k largest shapes, with the smallest of them at the head
+            PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.max( 1, k ), Collections.reverseOrder( order ));
+            for (int i = 0; i < imageShapes.size(); i++) {
+                if (heap.size() < k)
+                    heap.add( i );
+                else if (k > 0 && order.compare( i, heap.peek() ) < 0) {
+                    heap.poll();
+                    heap.add( i );
+                }
             }
-        };
         
-        // Use comparator to sort list
-        Collections.sort( list, comp );
+            // Take the largest shapes off the heap, smallest first
+            ImageShape[] largest = new ImageShape[heap.size()];
+            for (int i = largest.length - 1; i >= 0; i--)
+                largest[i] = imageShapes.get( heap.poll() );
+            return Arrays.asList( largest );
+        }
+        finally {
+            section.end();
+        }
     }
     
     /**
@@ -101,48 +388,65 @@ public class BlobDetection implements Module {
      * @return list with largest image shape
      */
     public List<ImageShape> findLargestShape() {
-        List<ImageShape> result = new ArrayList<ImageShape>();
-        
-        // If image shapes have not been found, detect them first
-        if (imageShapes.isEmpty())
-            findImageShapes();
-        
-        if (imageShapes != null && imageShapes.size() >= 1) {
-        	result.add( imageShapes.get( 0 ) );
-        }
-        return result;
-        
+        return findLargestShapes( 1 );
     }
     
+    /**
+     * Returns the largest image shape, followed by the next
+     * largest shapes as long as their boundary color is similar
+     * to that of the largest one. The shapes are selected in
+     * batches, twice as many each time all of a batch turn out
+     * to be related, so that only as many are sorted as needed.
+     * 
+     * @return list of related image shapes
+     */
     public List<ImageShape> findLargestRelatedShapes(){
-        // If image shapes have not been found, detect them first
-        if (imageShapes.isEmpty())
-            findImageShapes();
-        
+    	List<ImageShape> result = selectRelatedShapes();
+    	reportSegments(result.size());
+    	return result;
+    }
+    
+    /**
+     * Selects the shapes of findLargestRelatedShapes()
+     * without reporting how many were found.
+     * 
+     * @return list of related image shapes
+     */
+    List<ImageShape> selectRelatedShapes(){
     	// Create result list
     	ArrayList<ImageShape> result = new ArrayList<ImageShape>();
     	
-    	if (imageShapes != null && imageShapes.size() >= 1) {
+    	int k = RELATED_BATCH;
+    	List<ImageShape> largest = findLargestShapes(k);
+    	if (!largest.isEmpty()) {
     		// Average the HSB of the largest polygon
-    		float[] colorBase = averageBoundaryHSB(imageShapes.get(0), original);
+    		float[] colorBase = averageBoundaryHSB(largest.get(0), original);
     		// Add first image in the list to results
-    		result.add(imageShapes.get(0));
-	    	// Go through each polygon getting the average of edge HSB
-	    	for (int i = 1; i < imageShapes.size(); i++) {
-	    		ImageShape shape = imageShapes.get(i);
-	    		float[] curColor = averageBoundaryHSB(shape, original);
-	    		// Average must match to a certain threshold, if not rest of polygons are discarded
-	    		if (checkColorSimilarity(colorBase, curColor))
-	    			// If matches, add to list
-	    			result.add(shape);
-	    		else
-	    			break;
-	    	}
+    		result.add(largest.get(0));
+    		// Go through each polygon getting the average of edge HSB
+    		for (int i = 1; i < largest.size(); i++) {
+    			CancellationToken.check(cancellation);
+    			ImageShape shape = largest.get(i);
+    			float[] curColor = averageBoundaryHSB(shape, original);
+    			// Average must match to a certain threshold, if not rest of polygons are discarded
+    			if (checkColorSimilarity(colorBase, curColor))
+    				// If matches, add to list
+    				result.add(shape);
+    			else
+    				break;
+    			// All of the batch are related, so select the next larger one
+    			if (i == largest.size() - 1 && largest.size() == k) {
+    				k *= 2;
+    				largest = findLargestShapes(k);
+    			}
+    		}
     	}
-    	int size = result.size();
+    	return result;
+    }
+    
+    static void reportSegments(int size) {
     	String suffix = size == 1 ? "" : "s";
     	System.out.printf( "\t%d river segment%s found\n", size, suffix );
-    	return result;
     }
     
     private float[] averageBoundaryHSB(ImageShape shape, BufferedImage img) {
@@ -150,28 +454,47 @@ public class BlobDetection implements Module {
     	float satTotal = 0f;
     	float briTotal = 0f;
     	
-    	// Go through all the points in the shape boundaries
-    	int[] xpoints = shape.getPolygon().xpoints;
-    	int[] ypoints = shape.getPolygon().ypoints;
-    	int npoints = shape.getPolygon().npoints;
+    	// Go through all the points in the shape boundaries, following the chain code
+    	// if there is one, or the polygon otherwise
+    	ChainCode chain = shape.getChainCode();
+    	Polygon polygon = chain == null ? shape.getPolygon() : null;
+    	int npoints = chain == null ? polygon.npoints : chain.getPointCount();
+    	Profiler.Section section = Profiler.getDefault().start("BlobDetection.hsb", npoints);
+    	try {
+    		int[] colors = sampler == null ? null : sampler.getBoundaryRGB(shape);
+    		int x = chain == null ? 0 : chain.getStartX();
+    		int y = chain == null ? 0 : chain.getStartY();
     	
-    	for (int i = 0; i < npoints; i++) {    		
-    		// Retrieve color from image and separate R, G, and B components
-    		int[] rgb = ColorClassifier.getRGBComponents(img.getRGB(xpoints[i], ypoints[i]));
-    		// Convert RGB to HSB
-    		float[] hsb = Color.RGBtoHSB(rgb[0], rgb[1], rgb[2], null);
-    		// Add it to running average
-    		hueTotal += hsb[0];
-    		satTotal += hsb[1];
-    		briTotal += hsb[2];
+    		for (int i = 0; i < npoints; i++) {
+    			if (chain == null) {
+    				x = polygon.xpoints[i];
+    				y = polygon.ypoints[i];
+    			}
+    			else if (i > 0) {
+    				int direction = chain.getDirection(i - 1);
+    				x += ChainCode.DX[direction];
+    				y += ChainCode.DY[direction];
+    			}
+    			// Retrieve color from image and separate R, G, and B components
+    			int[] rgb = ColorClassifier.getRGBComponents(colors != null ? colors[i] : img.getRGB(x, y));
+    			// Convert RGB to HSB
+    			float[] hsb = Color.RGBtoHSB(rgb[0], rgb[1], rgb[2], null);
+    			// Add it to running average
+    			hueTotal += hsb[0];
+    			satTotal += hsb[1];
+    			briTotal += hsb[2];
+    		}
+    		// Calculate and return average HSB color
+    		float[] result = new float[3];
+    		result[0] = hueTotal/npoints;
+    		result[1] = satTotal/npoints;
+    		result[2] = briTotal/npoints;
+    		//System.out.printf("Hue avg: %.2f, Sat avg: %.2f, Bright avg: %.2f\n", result[0], result[1], result[2]);
+    		return result;
+    	}
+    	finally {
+    		section.end();
     	}
-    	// Calculate and return average HSB color
-    	float[] result = new float[3];
-    	result[0] = hueTotal/npoints;
-    	result[1] = satTotal/npoints;
-    	result[2] = briTotal/npoints;
-    	//System.out.printf("Hue avg: %.2f, Sat avg: %.2f, Bright avg: %.2f\n", result[0], result[1], result[2]);
-    	return result;
     }
     
     private boolean checkColorSimilarity(float[] colorBase, float[] otherColor) {
@@ -187,226 +510,100 @@ public class BlobDetection implements Module {
     }
     
     /**
-     * Checks whether a pixel is in an edge of a
-     * group of in a picture.
+     * Finds the pixels of a mask which are edges, that is,
+     * which are set and have no set pixel below them.
      * 
-     * @param x - pixel's x coordinate
-     * @param y - pixel's y coordinate
-     * @param img - source image
-     * @return true if pixel is in edge, false otherwise
+     * @param mask - source mask
+     * @return mask of edge pixels
      */
-    private boolean isEdge(int x, int y, BufferedImage img) {
-        int pixel = img.getRGB(x, y);
-        
-        // Pixel is only edge if it is not white
-        if (pixel != white) {
-            // if current 
-            if (y + 1 == img.getHeight())
-                return true;
-            
-            int previous = img.getRGB( x, y + 1 );
-            // If pixel is a different color than the previous, it is an edge
-            if (pixel != previous)
-                return true;
-        }
-        return false;
+    private BinaryMask findMaskEdges(BinaryMask mask) {
+        BinaryMask result = mask.copy(pool);
+        long[] words = result.getWords();
+        int wordsPerRow = result.getWordsPerRow();
+        // The bottom row is always kept, other rows lose the pixels set below them
+        for (int i = 0; i < (mask.getHeight() - 1) * wordsPerRow; i++)
+            words[i] &= ~words[i + wordsPerRow];
+        return result;
     }
     
     /**
-     * This method uses the Moore neighborhood contour-finding algorithm 
-     * to determine the boundaries of a group of pixels. It returns an
-     * ImageShape which contains the group's color and boundaries. Note
-     * that this algorithm may fail to find the complete contour of an
-     * 8-connected group of pixels which is not 4-connected (i.e. a group
-     * of pixels only connected by diagonals).
+     * Returns a single row mask in which the columns
+     * holding any set pixel are set.
      * 
-     * @param start - A starting point on the edge of the pixel group
-     * @param entry - The point through which the starting point was found
-     * @param visited - Array of visited pixels
-     * @param img - Image being examined
-     * @return an ImageShape containing group color and boundaries
+     * @param mask - source mask
+     * @return mask of occupied columns
      */
-    public ImageShape mooreNeighborhood(final Point start, Point entry, boolean[][] visited, BufferedImage img) {
-        int width = img.getWidth();
-        int height = img.getHeight();
-        
-        // Pixel color
-        int color = img.getRGB( start.x, start.y );
-        // Create resulting image shape
-        Polygon p = new Polygon();
-        ImageShape result = new ImageShape(p, new Color(color));
-        
-        // Set the current boundary point to be the starting point
-        Point current = new Point(start.x, start.y);
-        
-        // Add first pixel to polygon
-        p.addPoint( start.x, start.y );
-        visited[start.y][start.x] = true;
-        
-        // If the shape is a single isolated pixel, quit now
-        if (isIsolatedPixel(start, img))
-            return result;
-        
-        // Remember which pixel to backtrack to
-        Point backtrack = new Point(entry.x, entry.y);
-        
-        // Set clockwise to be the next clockwise pixel (from backtrack, with current as the center)
-        Point clockwise = findNextClockwisePixel(backtrack, current);
-        // While c not equal to s do
-        while (!start.equals( clockwise )) {
-            // If clockwise pixel is within bounds and is of the right color
-            if (clockwise.x >= 0 && clockwise.x < width && clockwise.y >= 0 && clockwise.y < height &&
-                    img.getRGB( clockwise.x, clockwise.y ) == color) {
-                // Add it to polygon
-                p.addPoint( clockwise.x, clockwise.y );
-                visited[clockwise.y][clockwise.x] = true;
-                // Step to new boundary point
-                current.x = clockwise.x;
-                current.y = clockwise.y;
-                // Set clockwise to be the next clockwise pixel (from backtrack, with current as the center)
-                clockwise = findNextClockwisePixel(backtrack, current);
-            }
-            else {
-                // Not in bounds or not the right color, so move on to the next pixel
-                backtrack.x = clockwise.x;
-                backtrack.y = clockwise.y;
-                // Set clockwise to be the next clockwise pixel (from backtrack, with current as the center)
-                clockwise = findNextClockwisePixel(backtrack, current);
-            }
-        }
+    private BinaryMask findOccupiedColumns(BinaryMask mask) {
+        BinaryMask result = BinaryMask.borrow(mask.getWidth(), 1, pool);
+        long[] columns = result.getWords();
+        long[] words = mask.getWords();
+        int wordsPerRow = mask.getWordsPerRow();
+        for (int i = 0; i < words.length; i++)
+            columns[i % wordsPerRow] |= words[i];
         return result;
     }
     
     /**
-     * Finds the next clockwise pixel in the image, going around the
-     * center point, starting after the from point. Note that this method
-     * will skip pixels which are out of the image boundaries.
+     * Returns the next column to be scanned, skipping
+     * columns known to be empty.
      * 
-     * @param from - point from which to start the clockwise search
-     * @param center - reference point which will be looked around
-     * @param img - the source image
-     * @return the next clockwise point within the boundaries of the image
+     * @param x - first candidate column
+     * @param columns - occupied columns, or null if unknown
+     * @return next column, or -1 if there are no more
      */
-    private Point findNextClockwisePixel(Point from, Point center) {
-        Point current = new Point(from.x, from.y);
-        
-        // Determine where start is in relation to center
-        Point offset = new Point (current.x - center.x, current.y - center.y);
-        
-        // If in same column
-        if (offset.x == 0) {
-            // If one row above
-            if (offset.y == -1)
-                // We are above center, so move to upper right corner
-                current.x++;
-            // Else it will be one row below
-            else
-                // We are below center, so move to lower left corner
-                current.x--;
-        }
-        // Else, if one column to the left
-        else if (offset.x == -1) {
-            // If one row above
-            if (offset.y == -1)
-                // We are in upper left corner, so move above center
-                current.x++;
-            // Else, if in same row
-            else if (offset.y == 0)
-                // We are to the left of center, so move to upper left corner
-                current.y--;
-            // Else it will be one row below
-            else
-                // We are in lower left corner, so move to the left of center
-                current.y--;
-        }
-        // Else it will be one column to the right
-        else {
-            // If one row above
-            if (offset.y == -1)
-                // We are in upper right corner, so move to the right of center
-                current.y++;
-            // Else, if in same row
-            else if (offset.y == 0)
-                // We are to the right of center, so move to lower right corner
-                current.y++;
-            // Else it will be one row below
-            else
-                // We are in lower right corner, so move below center
-                current.x--;
-        }
-        return current;
+    private int nextColumn(int x, BinaryMask columns) {
+        if (columns != null)
+            return columns.nextSetBit(x, 0);
+        return x < width ? x : -1;
     }
     
     /**
-     * Checks if a pixel in the image is isolated (that is, does
-     * not have any neighbor pixels of the same color).
+     * Checks whether a pixel is in an edge of a
+     * group of in a picture.
      * 
-     * @param p - pixel to be checked
-     * @param img - source image
-     * @return true if isolated, false otherwise
+     * @param x - pixel's x coordinate
+     * @param y - pixel's y coordinate
+     * @return true if pixel is in edge, false otherwise
      */
-    private boolean isIsolatedPixel(Point p, BufferedImage img) {
-        int pixel = img.getRGB( p.x, p.y );
-        int width = img.getWidth();
-        int height = img.getHeight();
-        
-        // Check right
-        if (p.x + 1 < width) {
-            if (pixel == img.getRGB( p.x + 1, p.y ))
-                return false;
-        }
-            
-        // Check left
-        if (p.x - 1 >= 0) {
-            if (pixel == img.getRGB( p.x - 1, p.y ))
-                return false;
-        }
+    private boolean isEdge(int x, int y) {
+        // Mask edges have already been found
+        if (edges != null)
+            return edges.get(x, y);
         
-        // Check top
-        if (p.y - 1 >= 0) {
-            if (pixel == img.getRGB( p.x, p.y - 1 ))
-                return false;
-        }
-        
-        // Check bottom
-        if (p.y + 1 < height) {
-            if (pixel == img.getRGB( p.x, p.y + 1 ))
-                return false;
-        }
-        
-        // Check top right diagonal
-        if (p.x + 1 < width && p.y - 1 >= 0) {
-            if (pixel == img.getRGB( p.x + 1, p.y - 1 ))
-                return false;
-        }
+        int pixel = pixels[y * width + x];
         
-        // Check bottom right diagonal
-        if (p.x + 1 < width && p.y + 1 < height) {
-            if (pixel == img.getRGB( p.x + 1, p.y + 1 ))
-                return false;
-        }
-        
-        // Check top left diagonal
-        if (p.x - 1 >= 0 && p.y - 1 >= 0) {
-            if (pixel == img.getRGB( p.x - 1, p.y - 1 ))
-                return false;
-        }
-        
-        // Check bottom left diagonal
-        if (p.x - 1 >= 0 && p.y + 1 < height) {
-            if (pixel == img.getRGB( p.x - 1, p.y + 1 ))
-                return false;
+        // Pixel is only edge if it is not white
+        if (pixel != white) {
+            // if current 
+            if (y + 1 == height)
+                return true;
+            
+            int previous = pixels[(y + 1) * width + x];
+            // If pixel is a different color than the previous, it is an edge
+            if (pixel != previous)
+                return true;
         }
-        
-        return true;
+        return false;
     }
-
+    
     /**
      * Returns a copy of the original image
      * provided to the module.
      */
     public BufferedImage getImage() {
-        return Pipeline.deepCopy( classified );
+        return getImageView().getWritableImage();
+    }
+    
+    /**
+     * Returns a view of the original image provided
+     * to the module, which is only copied if written to.
+     * 
+     * @return view of the classified image
+     */
+    public ImageView getImageView() {
+        if (mask != null)
+            return ImageView.writable( mask.toImage() );
+        return ImageView.readOnly( classified );
     }
 
 }
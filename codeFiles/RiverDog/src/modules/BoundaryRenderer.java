@@ -10,14 +10,21 @@ import riverObjects.ImageShape;
 
 /**
  * Module that performs boundary rendering of
- * shapes within an image.
+ * shapes within an image. The image given is
+ * never drawn on; the boundaries are drawn on
+ * a copy, unless the image is handed over as a
+ * writable view.
  */
 public class BoundaryRenderer implements Module {
-	private BufferedImage img;
+	private ImageView img;
 	private List<ImageShape> shapes;
 	private Color outlineColor;
 	
 	public BoundaryRenderer(BufferedImage img) {
+		this(ImageView.readOnly(img));
+	}
+	
+	public BoundaryRenderer(ImageView img) {
 		this.img = img;
 	}
 	
@@ -40,16 +47,18 @@ public class BoundaryRenderer implements Module {
 
 	@Override
 	/**
-	 * Returns the original image with the
-	 * user-defined boundaries drawn on.
+	 * Returns the image with the user-defined
+	 * boundaries drawn on.
 	 */
 	public BufferedImage getImage() {
 		// Return null if user hasn't specified outlined color/shapes
 		if (outlineColor == null || shapes == null)
 			return null;
 		
+		Profiler.Section section = Profiler.getDefault().start("BoundaryRenderer", (long) img.getWidth() * img.getHeight());
 		// Retrieve the image's Graphics2D
-		Graphics2D g2 = img.createGraphics();  
+		BufferedImage result = img.getWritableImage();
+		Graphics2D g2 = result.createGraphics();  
 		// Set Graphics2D color
 		g2.setColor(outlineColor);
 		// Iterate through all image shapes
@@ -71,8 +80,9 @@ public class BoundaryRenderer implements Module {
 		}
 		// Dispose of Graphics2D object
 		g2.dispose();
+		section.end();
 		// Return the buffered image
-		return img;		
+		return result;		
 	}
 
 }
@@ -0,0 +1,201 @@
+package modules;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A thread-safe pool of int, long and byte arrays, so that
+ * the full-size buffers needed for every image are reused
+ * instead of allocated again. Arrays are kept in buckets by
+ * their exact length, which suits batches of images of the
+ * same size. Borrowed arrays are always cleared.
+ *
+ * The pool only keeps up to a maximum number of bytes; arrays
+ * released beyond that are left to the garbage collector.
+ * Hits, misses and the bytes retained are counted.
+ */
+public class BufferPool {
+    private static BufferPool defaultPool;
+    private final long maxRetainedBytes;
+    private final Map<Integer, ArrayDeque<int[]>> ints = new HashMap<Integer, ArrayDeque<int[]>>();
+    private final Map<Integer, ArrayDeque<long[]>> longs = new HashMap<Integer, ArrayDeque<long[]>>();
+    private final Map<Integer, ArrayDeque<byte[]>> bytes = new HashMap<Integer, ArrayDeque<byte[]>>();
+    private long retainedBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long discarded = 0;
+
+    /**
+     * Creates a pool keeping at most the given number
+     * of bytes in released arrays.
+     *
+     * @param maxRetainedBytes - maximum bytes kept
+     */
+    public BufferPool(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+    }
+
+    /**
+     * Returns the pool shared by the pipeline, which keeps
+     * up to an eighth of the maximum heap size.
+     *
+     * @return default pool
+     */
+    public static synchronized BufferPool getDefault() {
+        if (defaultPool == null)
+            defaultPool = new BufferPool(Runtime.getRuntime().maxMemory() / 8);
+        return defaultPool;
+    }
+
+    public static synchronized void setDefault(BufferPool pool) {
+        defaultPool = pool;
+    }
+
+    /**
+     * Borrows a cleared int array of the given length.
+     *
+     * @param length
+     * @return array of exactly that length
+     */
+    public int[] borrowInts(int length) {
+        int[] array = take(ints, length);
+        if (array == null)
+            return new int[length];
+        Arrays.fill(array, 0);
+        return array;
+    }
+
+    /**
+     * Borrows a cleared long array of the given length.
+     *
+     * @param length
+     * @return array of exactly that length
+     */
+    public long[] borrowLongs(int length) {
+        long[] array = take(longs, length);
+        if (array == null)
+            return new long[length];
+        Arrays.fill(array, 0L);
+        return array;
+    }
+
+    /**
+     * Borrows a cleared byte array of the given length.
+     *
+     * @param length
+     * @return array of exactly that length
+     */
+    public byte[] borrowBytes(int length) {
+        byte[] array = take(bytes, length);
+        if (array == null)
+            return new byte[length];
+        Arrays.fill(array, (byte) 0);
+        return array;
+    }
+
+    /**
+     * Returns an array to the pool. It must not be used
+     * by the caller any more.
+     *
+     * @param array - array borrowed earlier, or null
+     */
+    public void release(int[] array) {
+        if (array != null)
+            put(ints, array, array.length, 4L * array.length);
+    }
+
+    public void release(long[] array) {
+        if (array != null)
+            put(longs, array, array.length, 8L * array.length);
+    }
+
+    public void release(byte[] array) {
+        if (array != null)
+            put(bytes, array, array.length, array.length);
+    }
+
+    private synchronized <T> T take(Map<Integer, ArrayDeque<T>> buckets, int length) {
+        ArrayDeque<T> bucket = buckets.get(length);
+        T array = bucket == null ? null : bucket.poll();
+        if (array == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        retainedBytes -= sizeOf(array);
+        return array;
+    }
+
+    private synchronized <T> void put(Map<Integer, ArrayDeque<T>> buckets, T array, int length, long size) {
+        if (retainedBytes + size > maxRetainedBytes) {
+            discarded++;
+            return;
+        }
+        ArrayDeque<T> bucket = buckets.get(length);
+        if (bucket == null) {
+            bucket = new ArrayDeque<T>();
+            buckets.put(length, bucket);
+        }
+        bucket.push(array);
+        retainedBytes += size;
+    }
+
+    private static long sizeOf(Object array) {
+        if (array instanceof int[])
+            return 4L * ((int[]) array).length;
+        if (array instanceof long[])
+            return 8L * ((long[]) array).length;
+        return ((byte[]) array).length;
+    }
+
+    /**
+     * Drops all the arrays kept by the pool.
+     */
+    public synchronized void clear() {
+        ints.clear();
+        longs.clear();
+        bytes.clear();
+        retainedBytes = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the number of released arrays which were
+     * not kept because the pool was full.
+     *
+     * @return discarded arrays
+     */
+    public synchronized long getDiscarded() {
+        return discarded;
+    }
+
+    /**
+     * Returns the fraction of borrowed arrays which
+     * were reused.
+     *
+     * @return hit rate, 0 to 1
+     */
+    public synchronized double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : (double) hits / total;
+    }
+
+    public synchronized long getRetainedBytes() {
+        return retainedBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Buffer pool: %d hits, %d misses (%.1f%% hit rate), %d discarded, %.1f MB retained",
+                hits, misses, 100 * getHitRate(), discarded, retainedBytes / 1e6);
+    }
+}
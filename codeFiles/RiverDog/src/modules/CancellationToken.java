@@ -0,0 +1,47 @@
+package modules;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Lets a long run be stopped from another thread. The
+ * modules given a token check it between rows or shapes
+ * and give up with a CancellationException once it is
+ * cancelled, so that a large image does not have to be
+ * finished before the run stops.
+ */
+public class CancellationToken {
+    private volatile boolean cancelled = false;
+
+    /**
+     * Asks everything holding the token to stop.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Throws if the token has been cancelled.
+     *
+     * @throws CancellationException if cancelled
+     */
+    public void throwIfCancelled() {
+        if (cancelled)
+            throw new CancellationException("Cancelled");
+    }
+
+    /**
+     * Throws if the given token has been cancelled,
+     * doing nothing for a null token.
+     *
+     * @param token - token, or null
+     * @throws CancellationException if cancelled
+     */
+    public static void check(CancellationToken token) {
+        if (token != null)
+            token.throwIfCancelled();
+    }
+}
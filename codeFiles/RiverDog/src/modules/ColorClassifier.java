@@ -16,9 +16,6 @@ public class ColorClassifier implements Module {
     private static int redMask = 0x00ff0000;
     private static int greenMask = 0x0000ff00;
     private static int blueMask = 0x000000ff;
-    // Integer representations of black/white
-	private int black = Color.BLACK.getRGB();
-	private int white = Color.WHITE.getRGB();
 	// Upper border hue is 265, so 265/360 is the percentage below
 	public static final float HUE_UPPER_LIMIT = 0.736111f;
 	public static final float HUE_LOWER_LIMIT = 0.444444f;
@@ -26,10 +23,85 @@ public class ColorClassifier implements Module {
 	public static final float SATURATION_LOWER_LIMIT = 0f;
 	public static final float BRIGHTNESS_UPPER_LIMIT = 1f;
 	public static final float BRIGHTNESS_LOWER_LIMIT = 0f;
+	// Limits in the order expected by the river color table
+	private static final float[] DEFAULT_LIMITS = { HUE_LOWER_LIMIT, HUE_UPPER_LIMIT,
+	                                                SATURATION_LOWER_LIMIT, SATURATION_UPPER_LIMIT,
+	                                                BRIGHTNESS_LOWER_LIMIT, BRIGHTNESS_UPPER_LIMIT };
 	private BufferedImage original;
+	private float[] limits;
+	private boolean useLookupTable = false;
+	private TileScheduler scheduler = TileScheduler.getDefault();
+	private BufferPool pool;
+	private CancellationToken cancellation;
+	private boolean verbose = true;
 	
 	public ColorClassifier(BufferedImage img) {
+		this(img, DEFAULT_LIMITS);
+	}
+	
+	/**
+	 * Creates a classifier with custom HSB limits, ordered
+	 * as hue lower/upper, saturation lower/upper and
+	 * brightness lower/upper.
+	 * 
+	 * @param img
+	 * @param limits
+	 */
+	public ColorClassifier(BufferedImage img, float[] limits) {
 		original = img;
+		this.limits = limits.clone();
+	}
+	
+	/**
+	 * Sets whether pixels are classified through the shared
+	 * precomputed RGB lookup table instead of converting
+	 * each pixel to HSB. The table is built on first use.
+	 * 
+	 * @param use
+	 */
+	public void setUseLookupTable(boolean use) {
+		useLookupTable = use;
+	}
+	
+	/**
+	 * Sets the scheduler used for classifying
+	 * tiles of the image in parallel.
+	 * 
+	 * @param scheduler
+	 */
+	public void setScheduler(TileScheduler scheduler) {
+		this.scheduler = scheduler;
+	}
+	
+	/**
+	 * Sets the pool the pixel buffer and the mask are
+	 * borrowed from. The caller may return the mask to
+	 * the pool once done with it.
+	 * 
+	 * @param pool
+	 */
+	public void setBufferPool(BufferPool pool) {
+		this.pool = pool;
+	}
+	
+	/**
+	 * Sets the token checked before each row is
+	 * classified, so that a run can be stopped partway.
+	 * 
+	 * @param token - token, or null
+	 */
+	public void setCancellationToken(CancellationToken token) {
+		cancellation = token;
+	}
+	
+	/**
+	 * Sets whether the share of potential river pixels is
+	 * printed after classifying, which is on by default.
+	 * 
+	 * @param verbose
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
 	}
 	
 	@Override
@@ -40,39 +112,118 @@ public class ColorClassifier implements Module {
 	 * the resulting image if it is.
 	 */
 	public BufferedImage getImage() {
-
-		
+		return getMask().toImage();
+	}
+	
+	/**
+	 * Classifies each pixel of the image, returning a
+	 * mask in which potential river pixels are set. This
+	 * uses one bit per pixel instead of a full image.
+	 * 
+	 * @return mask of potential river pixels
+	 */
+	public BinaryMask getMask() {
 		int width = original.getWidth();
 		int height = original.getHeight();
-		BufferedImage result = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		
+		Profiler.Section section = Profiler.getDefault().start("ColorClassifier", (long) width * height);
+		int[] pixels = null;
+		BinaryMask result = null;
+		int totalRiver;
+		boolean classified = false;
+		// The section is ended and the buffers given back even when the run is cancelled part way
+		try {
+			// Read the original pixels once, writing results straight into mask words
+			pixels = RasterAccess.readPixels(original, pool);
+			result = BinaryMask.borrow(width, height, pool);
+			totalRiver = classify(pixels, result);
+			classified = true;
+		}
+		finally {
+			if (pixels != null)
+				RasterAccess.releasePixels(original, pixels, pool);
+			if (!classified && result != null)
+				result.release(pool);
+			section.end();
+		}
 		// Keep statistics for printing
-		int totalRiver = 0;
-		int totalNotRiver = 0;
+		int totalNotRiver = width * height - totalRiver;
+		if (verbose)
+			System.out.printf( "\tPotential river pixels: %.2f%%, not river: %.2f%%\n", ((float)totalRiver/(width*height))*100,
+			                                                                         ((float)totalNotRiver/(width*height))*100);
+		return result;
+	}
+	
+	/**
+	 * Classifies the pixels into the words of the mask.
+	 * 
+	 * @param pixels - packed pixels of the image
+	 * @param result - mask to set the potential river pixels of
+	 * @return number of potential river pixels
+	 */
+	private int classify(final int[] pixels, BinaryMask result) {
+		final long[] words = result.getWords();
+		final int wordsPerRow = result.getWordsPerRow();
+		final int rowLength = original.getWidth();
+		final RiverColorTable table = useLookupTable ? RiverColorTable.getTable(limits) : null;
+		final CancellationToken token = cancellation;
 		
-		// Go through each pixel in the original
-		for (int x = 0; x < width; x++) {
-			for (int y = 0; y < height; y++) {
-				// Convert RGB value to HSB
-				int[] rgb = getRGBComponents(original.getRGB(x, y));
-				float[] hsb = Color.RGBtoHSB(rgb[0], rgb[1], rgb[2], null);
-				
-				// Check that hue, saturation and brightness describe a color that could be a river
-				// If it can be a river, output it as black
-				if (checkRiverHSB(hsb)) {
-					result.setRGB(x, y, black);
-					totalRiver++;
-				}
-				// If it cannot be a river, output it as white				
-				else {
-					result.setRGB(x, y, white);
-					totalNotRiver++;
+		// Classify tiles of the image in parallel, counting river pixels in each tile
+		return scheduler.run(rowLength, original.getHeight(), new TileScheduler.TileTask<Integer>() {
+			public Integer processTile(int firstRow, int lastRow) {
+				int river = 0;
+				float[] hsb = new float[3];
+				// Go through each pixel in the tile, row by row
+				for (int y = firstRow; y < lastRow; y++) {
+					CancellationToken.check(token);
+					int row = y * rowLength;
+					for (int x = 0; x < rowLength; x++) {
+						boolean isRiver;
+						if (table != null) {
+							// Look up the color in the precomputed table
+							isRiver = table.isRiver(pixels[row + x]);
+						}
+						else {
+							// Convert RGB value to HSB
+							int rgb = pixels[row + x];
+							Color.RGBtoHSB((rgb & redMask) >> 16, (rgb & greenMask) >> 8, rgb & blueMask, hsb);
+							// Check that hue, saturation and brightness describe a color that could be a river
+							isRiver = checkRiverHSB(hsb, limits);
+						}
+						
+						// If it can be a river, set it in the mask (tiles never share a row's words)
+						if (isRiver) {
+							words[y * wordsPerRow + (x >>> 6)] |= 1L << x;
+							river++;
+						}
+					}
 				}
+				return river;
 			}
-		}
-		System.out.printf( "\tPotential river pixels: %.2f%%, not river: %.2f%%\n", ((float)totalRiver/(width*height))*100,
-		                                                                         ((float)totalNotRiver/(width*height))*100);
-		return result;
+			
+			public Integer merge(Integer first, Integer second) {
+				return first + second;
+			}
+		});
+	}
+	
+	/**
+	 * Returns the HSB limits pixels are classified by,
+	 * in the order of the constructor.
+	 * 
+	 * @return copy of the limits
+	 */
+	public float[] getLimits() {
+		return limits.clone();
+	}
+	
+	/**
+	 * Returns the default river HSB limits, in the
+	 * order of the constructor.
+	 * 
+	 * @return copy of the default limits
+	 */
+	public static float[] getDefaultLimits() {
+		return DEFAULT_LIMITS.clone();
 	}
 	
 	/**
@@ -81,19 +232,20 @@ public class ColorClassifier implements Module {
 	 * for hue, saturation and brightness.
 	 * 
 	 * @param hsb
+	 * @param limits - hue, saturation and brightness lower/upper limits
 	 * @return true if color within all thresholds,
 	 * false otherwise.
 	 */
-	private boolean checkRiverHSB (float[] hsb) {
+	static boolean checkRiverHSB (float[] hsb, float[] limits) {
 		float huePercent = hsb[0];
 		float satPercent = hsb[1];
 		float brightPercent = hsb[2];
 		
-		if (huePercent > HUE_UPPER_LIMIT || huePercent < HUE_LOWER_LIMIT )
+		if (huePercent > limits[1] || huePercent < limits[0] )
 			return false;
-		if (satPercent > SATURATION_UPPER_LIMIT || satPercent < SATURATION_LOWER_LIMIT )
+		if (satPercent > limits[3] || satPercent < limits[2] )
 			return false;
-		if (brightPercent > BRIGHTNESS_UPPER_LIMIT || brightPercent < BRIGHTNESS_LOWER_LIMIT )
+		if (brightPercent > limits[5] || brightPercent < limits[4] )
 			return false;
 		
 		return true;
@@ -12,11 +12,34 @@ public class ColorPaintover implements Module {
     private int[] oldColors;
     private int newColor;
     private BufferedImage original;
+    private TileScheduler scheduler = TileScheduler.getDefault();
+    private BufferPool pool;
     
     public ColorPaintover(BufferedImage img) {
         original = img;
     }
     
+    /**
+     * Sets the scheduler used for painting
+     * tiles of the image in parallel.
+     * 
+     * @param scheduler
+     */
+    public void setScheduler(TileScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+    
+    /**
+     * Sets the pool the pixel buffers are borrowed from.
+     * The caller may return the result image's pixels with
+     * RasterAccess.releaseImage() once done with it.
+     * 
+     * @param pool
+     */
+    public void setBufferPool(BufferPool pool) {
+        this.pool = pool;
+    }
+    
     /**
      * Sets the new color to be using
      * when painting over the old image
@@ -60,25 +83,38 @@ public class ColorPaintover implements Module {
         
         int w = original.getWidth();
         int h = original.getHeight();
-        // Create result image
-        BufferedImage result = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Profiler.Section section = Profiler.getDefault().start("ColorPaintover", (long) w * h);
+        final int[] pixels = RasterAccess.readPixels(original, pool);
+        final int[] result = pool == null ? new int[w * h] : pool.borrowInts(w * h);
+        final int rowLength = w;
         
-        // Go through every pixel of the image
-        for(int x=0; x< w; x++){
-            for(int y=0; y< h; y++){
-                // Get color
-                int color = original.getRGB( x, y );
-                
-                // Check if it is an old color
-                for (int oldColor : oldColors) {
-                    // If it is, set it to new color
-                    if (color == oldColor)
-                        color = newColor;
+        // Go through every tile of the image in parallel
+        scheduler.run(w, h, new TileScheduler.TileTask<Void>() {
+            public Void processTile(int firstRow, int lastRow) {
+                // Go through every pixel of the tile, row by row
+                for (int i = firstRow * rowLength; i < lastRow * rowLength; i++) {
+                    // Get color
+                    int color = pixels[i];
+                    
+                    // Check if it is an old color
+                    for (int oldColor : oldColors) {
+                        // If it is, set it to new color
+                        if (color == oldColor)
+                            color = newColor;
+                    }
+                    // Save pixel to result
+                    result[i] = color;
                 }
-                // Save pixel to new image
-                result.setRGB(x, y, color);
+                return null;
             }
-        }
-        return result;
+            
+            public Void merge(Void first, Void second) {
+                return null;
+            }
+        });
+        RasterAccess.releasePixels(original, pixels, pool);
+        BufferedImage image = RasterAccess.createImage(result, w, h);
+        section.end();
+        return image;
     }  
 }
@@ -9,10 +9,21 @@ import java.awt.image.BufferedImage;
 public class ColorQuantization implements Module {
     public static final int MASK = 0xff808080; // mask used for quantization, keeps the highest bit of R, G and B
     private BufferedImage original;
+    private TileScheduler scheduler = TileScheduler.getDefault();
     
     public ColorQuantization(BufferedImage img) {
         original = img;
     }
+    
+    /**
+     * Sets the scheduler used for quantizing
+     * tiles of the image in parallel.
+     * 
+     * @param scheduler
+     */
+    public void setScheduler(TileScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
 
 	/**
 	 * Applies color quantization to the original image,
@@ -23,16 +34,28 @@ public class ColorQuantization implements Module {
 	public BufferedImage getImage() {
 	    int w = original.getWidth();
         int h = original.getHeight();
-        // Create result image
-        BufferedImage result = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        Profiler.Section section = Profiler.getDefault().start("ColorQuantization", (long) w * h);
+        final int[] pixels = RasterAccess.readPixels(original);
+        final int[] result = new int[w * h];
+        final int rowLength = w;
         
-        // Go through every pixel of the image
-        for(int x=0; x< w; x++){
-            for(int y=0; y< h; y++){
-                // Apply mask to original value and save it in result image
-                result.setRGB(x,y, original.getRGB(x, y) & MASK);
+        // Go through every tile of the image in parallel
+        scheduler.run(w, h, new TileScheduler.TileTask<Void>() {
+            public Void processTile(int firstRow, int lastRow) {
+                // Go through every pixel of the tile, row by row
+                for (int i = firstRow * rowLength; i < lastRow * rowLength; i++) {
+                    // Apply mask to original value and save it in result
+                    result[i] = pixels[i] & MASK;
+                }
+                return null;
+            }
+            
+            public Void merge(Void first, Void second) {
+                return null;
             }
-        }
-        return result;
+        });
+        BufferedImage image = RasterAccess.createImage(result, w, h);
+        section.end();
+        return image;
 	}
 }
@@ -0,0 +1,446 @@
+package modules;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Labels the connected components of a picture in a
+ * two-pass sweep, using a union-find structure over
+ * pixel indices. Pixels belong to the same component
+ * if they are connected and have exactly the same color;
+ * background pixels are left unlabeled (label 0). The
+ * picture may be split in strips of rows which are
+ * labeled in parallel.
+ *
+ * Components are numbered from 1 in the order in which
+ * their first pixel appears in a row-major scan. For each
+ * component the area, bounding box, color and the pixel
+ * where a column-by-column, bottom to top scan first
+ * reaches it are recorded.
+ */
+public class ComponentLabeling {
+    public static final int FOUR_CONNECTED = 4;
+    public static final int EIGHT_CONNECTED = 8;
+    private static final int black = Color.BLACK.getRGB();
+    private BinaryMask mask;
+    private int[] pixels;
+    private int background;
+    private int width;
+    private int height;
+    private int connectivity;
+    private TileScheduler scheduler;
+    // Parent of every pixel in the union-find forest, -1 for background
+    private AtomicIntegerArray parents;
+    private int[] labels;
+    private int count = 0;
+    // Per-component statistics, indexed by label
+    private int[] area;
+    private int[] minX;
+    private int[] minY;
+    private int[] maxX;
+    private int[] maxY;
+    private int[] startY;
+    private int[] color;
+
+    /**
+     * Creates a labeling of the set pixels of a mask,
+     * which all have the same (black) color.
+     *
+     * @param mask - source mask
+     * @param connectivity - 4 or 8
+     */
+    public ComponentLabeling(BinaryMask mask, int connectivity) {
+        this(mask.getWidth(), mask.getHeight(), connectivity);
+        this.mask = mask;
+    }
+
+    /**
+     * Creates a labeling of the packed pixels of an image,
+     * ignoring pixels of the background color.
+     *
+     * @param pixels - packed pixels in row-major order
+     * @param width - image width
+     * @param height - image height
+     * @param background - integer representation of the background color
+     * @param connectivity - 4 or 8
+     */
+    public ComponentLabeling(int[] pixels, int width, int height, int background, int connectivity) {
+        this(width, height, connectivity);
+        this.pixels = pixels;
+        this.background = background;
+    }
+
+    private ComponentLabeling(int width, int height, int connectivity) {
+        if (connectivity != FOUR_CONNECTED && connectivity != EIGHT_CONNECTED)
+            throw new IllegalArgumentException("Connectivity must be 4 or 8");
+        this.width = width;
+        this.height = height;
+        this.connectivity = connectivity;
+    }
+
+    /**
+     * Sets the scheduler used for labeling strips of
+     * the picture in parallel. Without a scheduler, the
+     * picture is labeled as a single strip in the calling
+     * thread. The labels are the same either way.
+     *
+     * @param scheduler
+     */
+    public void setScheduler(TileScheduler scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Labels the picture, if it has not been labeled yet.
+     * Strips of rows are linked independently, and strips
+     * are merged along their seams as they join. Roots are
+     * always linked to the smaller root, so the root of a
+     * component is its first pixel in row-major order no
+     * matter how the picture was split, and numbering the
+     * roots in that order gives the same labels as a
+     * sequential pass.
+     *
+     * @return this labeling
+     */
+    public ComponentLabeling label() {
+        if (labels == null) {
+            parents = new AtomicIntegerArray(width * height);
+            labels = new int[width * height];
+
+            // Link pixels within each strip, merging strips along their seams
+            runStrips( new TileScheduler.TileTask<int[]>() {
+                public int[] processTile(int firstRow, int lastRow) {
+                    linkStrip( firstRow, lastRow );
+                    return new int[] { firstRow, lastRow };
+                }
+
+                public int[] merge(int[] first, int[] second) {
+                    mergeSeam( second[0] );
+                    return new int[] { first[0], second[1] };
+                }
+            });
+
+            // Count the roots in each strip, keeping strips in top to bottom order
+            List<int[]> counts = runStrips( new TileScheduler.TileTask<List<int[]>>() {
+                public List<int[]> processTile(int firstRow, int lastRow) {
+                    List<int[]> result = new ArrayList<int[]>();
+                    result.add( new int[] { firstRow, countRoots( firstRow, lastRow ) } );
+                    return result;
+                }
+
+                public List<int[]> merge(List<int[]> first, List<int[]> second) {
+                    first.addAll( second );
+                    return first;
+                }
+            });
+            // Find the label preceding the first root of each strip
+            final int[] offsets = new int[height];
+            for (int[] strip : counts) {
+                offsets[strip[0]] = count;
+                count += strip[1];
+            }
+
+            // Number the roots, then give every other pixel the label of its root
+            runStrips( new TileScheduler.TileTask<Void>() {
+                public Void processTile(int firstRow, int lastRow) {
+                    numberRoots( firstRow, lastRow, offsets[firstRow] );
+                    return null;
+                }
+
+                public Void merge(Void first, Void second) {
+                    return null;
+                }
+            });
+            runStrips( new TileScheduler.TileTask<Void>() {
+                public Void processTile(int firstRow, int lastRow) {
+                    labelChildren( firstRow, lastRow );
+                    return null;
+                }
+
+                public Void merge(Void first, Void second) {
+                    return null;
+                }
+            });
+            parents = null;
+            collectStatistics();
+        }
+        return this;
+    }
+
+    private <T> T runStrips(TileScheduler.TileTask<T> task) {
+        if (scheduler == null)
+            return task.processTile( 0, height );
+        return scheduler.run( width, height, task );
+    }
+
+    /**
+     * Links every foreground pixel of a strip to its
+     * already visited neighbors of the same color, within
+     * the strip. Only the strip's own pixels are touched.
+     */
+    private void linkStrip(int firstRow, int lastRow) {
+        for (int i = firstRow * width; i < lastRow * width; i++)
+            parents.lazySet( i, -1 );
+        for (int y = firstRow; y < lastRow; y++) {
+            int row = y * width;
+            int x = nextForeground( 0, y );
+            while (x >= 0) {
+                int i = row + x;
+                parents.lazySet( i, i );
+                // Left neighbor
+                if (x > 0)
+                    linkIfSame( i, i - 1, false );
+                if (y > firstRow)
+                    linkAbove( i, x, false );
+                x = nextForeground( x + 1, y );
+            }
+        }
+    }
+
+    /**
+     * Links the pixels of the first row of a strip to
+     * the last row of the strip above. Several seams may
+     * be merged at once, so links are made lock-free.
+     */
+    private void mergeSeam(int y) {
+        int row = y * width;
+        int x = nextForeground( 0, y );
+        while (x >= 0) {
+            linkAbove( row + x, x, true );
+            x = nextForeground( x + 1, y );
+        }
+    }
+
+    /**
+     * Links a pixel to its neighbors in the row above.
+     */
+    private void linkAbove(int i, int x, boolean shared) {
+        linkIfSame( i, i - width, shared );
+        // Diagonal neighbors above
+        if (connectivity == EIGHT_CONNECTED) {
+            if (x > 0)
+                linkIfSame( i, i - width - 1, shared );
+            if (x + 1 < width)
+                linkIfSame( i, i - width + 1, shared );
+        }
+    }
+
+    /**
+     * Links two pixels if the neighbor is foreground
+     * and has the same color.
+     */
+    private void linkIfSame(int i, int neighbor, boolean shared) {
+        if (parents.get( neighbor ) >= 0 && (pixels == null || pixels[i] == pixels[neighbor])) {
+            if (shared)
+                unionShared( i, neighbor );
+            else
+                union( i, neighbor );
+        }
+    }
+
+    /**
+     * Joins the trees of two pixels, when no other thread
+     * works on them.
+     */
+    private void union(int a, int b) {
+        int rootA = find( a );
+        int rootB = find( b );
+        if (rootA < rootB)
+            parents.lazySet( rootB, rootA );
+        else if (rootB < rootA)
+            parents.lazySet( rootA, rootB );
+    }
+
+    /**
+     * Joins the trees of two pixels while other threads
+     * may be joining trees too. The larger root is only
+     * linked if it is still a root, otherwise try again.
+     */
+    private void unionShared(int a, int b) {
+        while (true) {
+            int rootA = find( a );
+            int rootB = find( b );
+            if (rootA == rootB)
+                return;
+            int larger = Math.max( rootA, rootB );
+            int smaller = Math.min( rootA, rootB );
+            if (parents.compareAndSet( larger, larger, smaller ))
+                return;
+        }
+    }
+
+    /**
+     * Finds the root of a pixel, pointing every pixel on
+     * the way straight to it. This is safe with other
+     * threads around, as a pixel only ever gets pointed to
+     * one of its ancestors.
+     */
+    private int find(int i) {
+        int root = i;
+        int parent;
+        while ((parent = parents.get( root )) != root)
+            root = parent;
+        // Compress the path
+        while ((parent = parents.get( i )) != root) {
+            parents.lazySet( i, root );
+            i = parent;
+        }
+        return root;
+    }
+
+    private int countRoots(int firstRow, int lastRow) {
+        int roots = 0;
+        for (int i = firstRow * width; i < lastRow * width; i++) {
+            if (parents.get( i ) == i)
+                roots++;
+        }
+        return roots;
+    }
+
+    private void numberRoots(int firstRow, int lastRow, int label) {
+        for (int i = firstRow * width; i < lastRow * width; i++) {
+            if (parents.get( i ) == i)
+                labels[i] = ++label;
+        }
+    }
+
+    private void labelChildren(int firstRow, int lastRow) {
+        for (int i = firstRow * width; i < lastRow * width; i++) {
+            int parent = parents.get( i );
+            if (parent >= 0 && parent != i)
+                labels[i] = labels[find( i )];
+        }
+    }
+
+    /**
+     * Records the area, bounding box, start pixel and
+     * color of every component. Labels first appear in
+     * increasing order in a row-major scan.
+     */
+    private void collectStatistics() {
+        int capacity = count + 1;
+        area = new int[capacity];
+        minX = new int[capacity];
+        minY = new int[capacity];
+        maxX = new int[capacity];
+        maxY = new int[capacity];
+        startY = new int[capacity];
+        color = new int[capacity];
+
+        int seen = 0;
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int label = labels[row + x];
+                // Background pixel
+                if (label == 0)
+                    continue;
+
+                // First pixel of a new component
+                if (label > seen) {
+                    seen = label;
+                    minX[label] = x;
+                    minY[label] = y;
+                    maxX[label] = x;
+                    maxY[label] = y;
+                    startY[label] = y;
+                    color[label] = colorAt( row + x );
+                }
+                else {
+                    // Update bounding box (minY never changes in row-major order)
+                    if (x < minX[label]) {
+                        minX[label] = x;
+                        startY[label] = y;
+                    }
+                    else if (x == minX[label])
+                        startY[label] = y;
+                    if (x > maxX[label])
+                        maxX[label] = x;
+                    maxY[label] = y;
+                }
+                area[label]++;
+            }
+        }
+    }
+
+    /**
+     * Returns the column of the next foreground pixel in
+     * a row, skipping whole words of background for masks.
+     */
+    private int nextForeground(int x, int y) {
+        if (mask != null)
+            return mask.nextSetBit( x, y );
+        int row = y * width;
+        for (; x < width; x++) {
+            if (pixels[row + x] != background)
+                return x;
+        }
+        return -1;
+    }
+
+    private int colorAt(int i) {
+        return pixels == null ? black : pixels[i];
+    }
+
+    /**
+     * Returns the label of every pixel in row-major
+     * order, 0 being the background.
+     *
+     * @return label image
+     */
+    public int[] getLabels() {
+        label();
+        return labels;
+    }
+
+    public int getLabel(int x, int y) {
+        label();
+        return labels[y * width + x];
+    }
+
+    public int getComponentCount() {
+        label();
+        return count;
+    }
+
+    public int getArea(int label) {
+        label();
+        return area[label];
+    }
+
+    public Rectangle getBounds(int label) {
+        label();
+        return new Rectangle(minX[label], minY[label], maxX[label] - minX[label] + 1, maxY[label] - minY[label] + 1);
+    }
+
+    public Color getColor(int label) {
+        label();
+        return new Color(color[label]);
+    }
+
+    /**
+     * Returns the first pixel of a component reached when
+     * scanning columns from left to right, each from bottom
+     * to top: the lowest pixel in its leftmost column.
+     *
+     * @param label
+     * @return x coordinate of the start pixel
+     */
+    public int getStartX(int label) {
+        label();
+        return minX[label];
+    }
+
+    /**
+     * @see #getStartX(int)
+     * @param label
+     * @return y coordinate of the start pixel
+     */
+    public int getStartY(int label) {
+        label();
+        return startY[label];
+    }
+}
@@ -9,7 +9,6 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 
-import pipeline.Pipeline;
 
 /**
  * Module that determines the color majority
@@ -39,36 +38,44 @@ public class EdgeMajority implements Module {
      * the original is returned.
      */
     public BufferedImage getImage() {
-        
-        int x;
-        int y;
+        return getImageView().getWritableImage();
+    }
 
-        // Go through top edge
-        y = 0;
-        for (x = 0; x < width; x++)
-            addColorToHistogram( original.getRGB( x, y ), colorHistogram);
-        
-        // Go through bottom edge
-        y = height - 1;
-        for (x = 0; x < width; x++)
-            addColorToHistogram( original.getRGB( x, y ), colorHistogram);
+    /**
+     * Same as getImage(), but when the majority is white
+     * the original is shared rather than copied, until
+     * the view is written to.
+     * 
+     * @return view of the resulting image
+     */
+    public ImageView getImageView() {
+        Profiler.Section section = Profiler.getDefault().start( "EdgeMajority", (long) width * height );
+        ImageView result;
         
-        // Go through left edge (excluding first and last pixels - already checked)
-         x = 0;
-        for (y = 0; y < height; y++)
-            addColorToHistogram( original.getRGB( x, y ), colorHistogram);
+        // Read each edge with a single bulk call
+        int[] top = original.getRGB( 0, 0, width, 1, null, 0, width );
+        int[] bottom = original.getRGB( 0, height - 1, width, 1, null, 0, width );
+        int[] left = original.getRGB( 0, 0, 1, height, null, 0, 1 );
+        int[] right = original.getRGB( width - 1, 0, 1, height, null, 0, 1 );
+
+        // Go through top and bottom edges
+        for (int x = 0; x < width; x++) {
+            addColorToHistogram( top[x], colorHistogram);
+            addColorToHistogram( bottom[x], colorHistogram);
+        }
         
-        // Go through right edge (excluding first and last pixels - already checked)
-        x = width - 1;
-       for (y = 0; y < height; y++)
-           addColorToHistogram( original.getRGB( x, y ), colorHistogram);
+        // Go through left and right edges
+        for (int y = 0; y < height; y++) {
+            addColorToHistogram( left[y], colorHistogram);
+            addColorToHistogram( right[y], colorHistogram);
+        }
         
        // Get int representation of color that makes up the majority of edges
        int color = getColorMajority(colorHistogram);
        
-       // If majority is white, return copy of original picture
+       // If majority is white, return a view of the original picture
        if (color == Color.WHITE.getRGB()) {
-           return Pipeline.deepCopy( original );
+           result = ImageView.readOnly( original );
        }
        
        // If not, repaint picture, eliminating the majority color
@@ -80,9 +87,11 @@ public class EdgeMajority implements Module {
            ArrayList<Color> oldColor = new ArrayList<Color>();
            oldColor.add(new Color(color));
            paint.setOldColor(oldColor);
-           // Use module to replace colors and return the result
-           return paint.getImage();
+           // Use module to replace colors
+           result = ImageView.writable( paint.getImage() );
        }
+       section.end();
+       return result;
     }
     
     /**
@@ -0,0 +1,111 @@
+package modules;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * A view of an image which is only copied once someone
+ * writes to it. Modules hand out views instead of copies
+ * of images they were given, so that reading the result
+ * costs nothing and only writers pay for a copy.
+ *
+ * A view made with writable() owns its image, which is
+ * then written to directly.
+ */
+public class ImageView {
+    private BufferedImage image;
+    private boolean owned;
+    private boolean copied = false;
+
+    private ImageView(BufferedImage image, boolean owned) {
+        this.image = image;
+        this.owned = owned;
+    }
+
+    /**
+     * Creates a view of an image that belongs to someone
+     * else, which is copied on the first write.
+     *
+     * @param image - shared image, never modified through the view
+     * @return read-only view
+     */
+    public static ImageView readOnly(BufferedImage image) {
+        return new ImageView(image, false);
+    }
+
+    /**
+     * Creates a view of an image that nobody else uses,
+     * so it can be written to without copying.
+     *
+     * @param image - image handed over to the view
+     * @return writable view
+     */
+    public static ImageView writable(BufferedImage image) {
+        return new ImageView(image, true);
+    }
+
+    public int getWidth() {
+        return image.getWidth();
+    }
+
+    public int getHeight() {
+        return image.getHeight();
+    }
+
+    public int getRGB(int x, int y) {
+        return image.getRGB( x, y );
+    }
+
+    /**
+     * Returns the image for reading. It must not be
+     * modified, as it may be shared.
+     *
+     * @return current image
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Returns an image which may be written to, copying
+     * the shared image the first time.
+     *
+     * @return image owned by the view
+     */
+    public BufferedImage getWritableImage() {
+        if (!owned) {
+            image = copy( image );
+            owned = true;
+            copied = true;
+        }
+        return image;
+    }
+
+    /**
+     * Returns true if writing made a copy of the
+     * shared image.
+     *
+     * @return whether the image was copied
+     */
+    public boolean isCopied() {
+        return copied;
+    }
+
+    /**
+     * Deep-copies a buffered image, keeping its color
+     * model and raster layout.
+     *
+     * @param bi
+     * @return deep copy of buffered image
+     */
+    public static BufferedImage copy( BufferedImage bi ) {
+        // Get the same color model
+        ColorModel cm = bi.getColorModel();
+        // Get alpha channel info
+        boolean isAlphaPremultiplied = cm.isAlphaPremultiplied();
+        // Get raster
+        WritableRaster raster = bi.copyData( null );
+        return new BufferedImage( cm, raster, isAlphaPremultiplied, null );
+    }
+}
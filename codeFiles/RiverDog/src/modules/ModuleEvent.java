@@ -0,0 +1,50 @@
+package modules;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Flight Recorder event for a section of work measured
+ * by the profiler. Only used when the JVM supports JFR.
+ */
+@Name("riverdog.Module")
+@Label("Module")
+@Category("RiverDog")
+@Description("A module or detection phase run on an image")
+class ModuleEvent extends Event {
+    @Label("Section")
+    String section;
+
+    @Label("Pixels")
+    long pixels;
+
+    @Label("CPU Time")
+    @Timespan(Timespan.NANOSECONDS)
+    long cpuTime;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+
+    static ModuleEvent begin(String section, long pixels) {
+        ModuleEvent event = new ModuleEvent();
+        event.section = section;
+        event.pixels = pixels;
+        event.begin();
+        return event;
+    }
+
+    void finish(long cpuTime, long allocated) {
+        end();
+        if (shouldCommit()) {
+            this.cpuTime = cpuTime;
+            this.allocated = allocated;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package modules;
+
+import java.awt.Color;
+
+import riverObjects.ChainCode;
+import riverObjects.ImageShape;
+
+/**
+ * Traces the boundary of a group of pixels with the Moore
+ * neighborhood contour-finding algorithm, over a packed
+ * pixel array, a binary mask or the runs of a single
+ * component. Neighbors are numbered
+ * clockwise from 0 (above) to 7 (upper left), as in
+ * ChainCode, so moving to the next clockwise pixel is a
+ * single increment and each step is stored as 3 bits.
+ */
+class MooreTracer {
+    private static final int[] DX = ChainCode.DX;
+    private static final int[] DY = ChainCode.DY;
+    // Neighbor number of each offset, indexed by (dy + 1) * 3 + (dx + 1)
+    private static final int[] DIRECTION = { 7, 0, 1,
+                                             6, -1, 2,
+                                             5, 4, 3 };
+    private static final int black = Color.BLACK.getRGB();
+    private static final int white = Color.WHITE.getRGB();
+    private final int[] pixels;
+    private final BinaryMask mask;
+    private final RunComponent component;
+    private final int width;
+    private final int height;
+
+    /**
+     * Creates a tracer over packed pixels.
+     *
+     * @param pixels - packed pixels in row-major order
+     * @param width - image width
+     * @param height - image height
+     */
+    MooreTracer(int[] pixels, int width, int height) {
+        this.pixels = pixels;
+        this.mask = null;
+        this.component = null;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Creates a tracer over a mask, whose set pixels are
+     * black and clear pixels white.
+     *
+     * @param mask
+     */
+    MooreTracer(BinaryMask mask) {
+        this.pixels = null;
+        this.mask = mask;
+        this.component = null;
+        this.width = mask.getWidth();
+        this.height = mask.getHeight();
+    }
+
+    /**
+     * Creates a tracer over the runs of a component, whose
+     * pixels are black and every other pixel white. Visited
+     * pixels are marked in the component itself.
+     *
+     * @param component
+     */
+    MooreTracer(RunComponent component) {
+        this.pixels = null;
+        this.mask = null;
+        this.component = component;
+        // Pixels outside the component are white, wherever they are
+        this.width = Integer.MAX_VALUE;
+        this.height = Integer.MAX_VALUE;
+    }
+
+    private int colorAt(int x, int y) {
+        if (component != null)
+            return component.get( x, y ) ? black : white;
+        if (mask != null)
+            return mask.get( x, y ) ? black : white;
+        return pixels[y * width + x];
+    }
+
+    /**
+     * Returns the neighbor number of a point next to
+     * the center.
+     */
+    private static int direction(int dx, int dy) {
+        return DIRECTION[(dy + 1) * 3 + dx + 1];
+    }
+
+    /**
+     * Traces the boundary of the group of pixels containing
+     * the start point. The backtrack point is always a
+     * neighbor of the current boundary point, so it is kept
+     * as a neighbor number. Note that this algorithm may fail
+     * to find the complete contour of an 8-connected group of
+     * pixels which is not 4-connected.
+     *
+     * @param startX - x coordinate of a point on the edge of the group
+     * @param startY - y coordinate of that point
+     * @param entryX - x coordinate of the neighbor through which the start was found
+     * @param entryY - y coordinate of that neighbor
+     * @param visited - mask in which boundary pixels are marked, unused for a component
+     * @return an ImageShape containing group color and boundaries
+     */
+    ImageShape trace(int startX, int startY, int entryX, int entryY, BinaryMask visited) {
+        int color = colorAt( startX, startY );
+        // Start the chain at the first pixel
+        ChainCode chain = new ChainCode(startX, startY);
+        ImageShape result = new ImageShape(chain, new Color(color));
+        markVisited( startX, startY, visited );
+
+        // If the shape is a single isolated pixel, quit now
+        if (isIsolatedPixel( startX, startY, color ))
+            return result;
+
+        // Current boundary point, and backtrack position around it
+        int currentX = startX;
+        int currentY = startY;
+        int backtrackX = entryX;
+        int backtrackY = entryY;
+        int dir = (direction( entryX - startX, entryY - startY ) + 1) & 7;
+        int clockwiseX = currentX + DX[dir];
+        int clockwiseY = currentY + DY[dir];
+
+        while (clockwiseX != startX || clockwiseY != startY) {
+            // If clockwise pixel is within bounds and is of the right color
+            if (clockwiseX >= 0 && clockwiseX < width && clockwiseY >= 0 && clockwiseY < height &&
+                    colorAt( clockwiseX, clockwiseY ) == color) {
+                // Add the step to the chain and step to it
+                chain.add( dir );
+                markVisited( clockwiseX, clockwiseY, visited );
+                currentX = clockwiseX;
+                currentY = clockwiseY;
+                // The backtrack point stays, so find where it lies around the new point
+                dir = direction( backtrackX - currentX, backtrackY - currentY );
+            }
+            else {
+                // Not in bounds or not the right color, so it becomes the backtrack point
+                backtrackX = clockwiseX;
+                backtrackY = clockwiseY;
+            }
+            // Move on to the next clockwise pixel
+            dir = (dir + 1) & 7;
+            clockwiseX = currentX + DX[dir];
+            clockwiseY = currentY + DY[dir];
+        }
+        chain.trimToSize();
+        return result;
+    }
+
+    private void markVisited(int x, int y, BinaryMask visited) {
+        if (component != null)
+            component.setVisited( x, y );
+        else
+            visited.set( x, y );
+    }
+
+    /**
+     * Checks if a pixel is isolated (that is, does not
+     * have any neighbor pixels of the same color).
+     */
+    private boolean isIsolatedPixel(int x, int y, int color) {
+        for (int dir = 0; dir < 8; dir++) {
+            int nx = x + DX[dir];
+            int ny = y + DY[dir];
+            if (nx >= 0 && nx < width && ny >= 0 && ny < height && colorAt( nx, ny ) == color)
+                return false;
+        }
+        return true;
+    }
+}
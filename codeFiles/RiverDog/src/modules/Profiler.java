@@ -0,0 +1,291 @@
+package modules;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the modules: for every named section of work,
+ * such as a module's getImage() or a phase of the blob
+ * detection, it adds up the wall time, the CPU time, the
+ * bytes allocated and the pixels processed. CPU time and
+ * allocations are those of the calling thread, so work
+ * handed to the tile scheduler's threads only shows up
+ * in the wall time.
+ *
+ * Each section is also emitted as a JFR event when the
+ * JVM supports Flight Recorder, so that it can be seen
+ * in a recording next to garbage collection and I/O.
+ */
+public class Profiler {
+    private static Profiler defaultProfiler = new Profiler();
+    private static final boolean JFR_AVAILABLE = isClassAvailable("jdk.jfr.Event");
+    // Thread.threadId() where the JVM has it, as getId() is deprecated there
+    private static final Method THREAD_ID = getThreadIdMethod();
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final com.sun.management.ThreadMXBean allocations;
+    private final boolean cpuTime;
+    private final Map<String, Stats> stats = new LinkedHashMap<String, Stats>();
+    private volatile boolean enabled = true;
+
+    public Profiler() {
+        allocations = threads instanceof com.sun.management.ThreadMXBean
+                && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()
+                ? (com.sun.management.ThreadMXBean) threads : null;
+        cpuTime = threads.isCurrentThreadCpuTimeSupported();
+    }
+
+    /**
+     * Returns the profiler used by the modules.
+     *
+     * @return default profiler
+     */
+    public static synchronized Profiler getDefault() {
+        return defaultProfiler;
+    }
+
+    public static synchronized void setDefault(Profiler profiler) {
+        defaultProfiler = profiler;
+    }
+
+    private static boolean isClassAvailable(String name) {
+        try {
+            Class.forName(name);
+            return true;
+        }
+        catch (ClassNotFoundException e) {
+            return false;
+        }
+        catch (LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Looks up the method giving the id of a thread by
+     * reflection, so that neither name is compiled against.
+     */
+    private static Method getThreadIdMethod() {
+        try {
+            return Thread.class.getMethod("threadId");
+        }
+        catch (NoSuchMethodException e) {
+            try {
+                return Thread.class.getMethod("getId");
+            }
+            catch (NoSuchMethodException e2) {
+                return null;
+            }
+        }
+    }
+
+    private static long currentThreadId() {
+        try {
+            return (Long) THREAD_ID.invoke(Thread.currentThread());
+        }
+        catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Turns measuring on or off. It is on by default.
+     *
+     * @param enabled
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts measuring a section of work. Call end() on the
+     * section, from the same thread, when the work is done.
+     *
+     * @param name - name of the module or phase
+     * @param pixels - number of pixels the work goes through
+     * @return section being measured
+     */
+    public Section start(String name, long pixels) {
+        if (!enabled)
+            return Section.DISABLED;
+        return new Section(this, name, pixels);
+    }
+
+    private long currentCpuTime() {
+        return cpuTime ? threads.getCurrentThreadCpuTime() : 0;
+    }
+
+    private long currentAllocatedBytes() {
+        return allocations != null && THREAD_ID != null ? allocations.getThreadAllocatedBytes(currentThreadId()) : 0;
+    }
+
+    private synchronized void add(String name, long wall, long cpu, long allocated, long pixels) {
+        Stats s = stats.get(name);
+        if (s == null) {
+            s = new Stats(name);
+            stats.put(name, s);
+        }
+        s.calls++;
+        s.wallNanos += wall;
+        s.cpuNanos += cpu;
+        s.allocatedBytes += allocated;
+        s.pixels += pixels;
+    }
+
+    /**
+     * Returns the totals of a section.
+     *
+     * @param name - name of the module or phase
+     * @return totals, or null if the section never ran
+     */
+    public synchronized Stats getStats(String name) {
+        Stats s = stats.get(name);
+        return s == null ? null : s.copy();
+    }
+
+    /**
+     * Returns the totals of every section, in the order
+     * they first ran.
+     *
+     * @return totals of all sections
+     */
+    public synchronized List<Stats> getAllStats() {
+        List<Stats> result = new ArrayList<Stats>();
+        for (Stats s : stats.values())
+            result.add(s.copy());
+        return result;
+    }
+
+    public synchronized void reset() {
+        stats.clear();
+    }
+
+    /**
+     * Prints a table of the totals of every section.
+     *
+     * @param out
+     */
+    public void print(PrintStream out) {
+        out.printf("%-28s %7s %11s %10s %11s %11s %9s\n", "Section", "calls", "wall ms", "mean ms", "cpu ms",
+                "alloc MB", "MP/s");
+        for (Stats s : getAllStats()) {
+            out.printf("%-28s %7d %11.1f %10.2f %11.1f %11.1f %9.1f\n", s.getName(), s.getCalls(),
+                    s.getWallNanos() / 1e6, s.getWallNanos() / 1e6 / s.getCalls(), s.getCpuNanos() / 1e6,
+                    s.getAllocatedBytes() / 1e6, s.getPixelsPerSecond() / 1e6);
+        }
+    }
+
+    /**
+     * A section of work being measured.
+     */
+    public static class Section {
+        static final Section DISABLED = new Section();
+        private final Profiler profiler;
+        private final String name;
+        private final long pixels;
+        private final long wallStart;
+        private final long cpuStart;
+        private final long allocatedStart;
+        // JFR event, only created when Flight Recorder is available
+        private final Object event;
+
+        private Section() {
+            profiler = null;
+            name = null;
+            pixels = wallStart = cpuStart = allocatedStart = 0;
+            event = null;
+        }
+
+        Section(Profiler profiler, String name, long pixels) {
+            this.profiler = profiler;
+            this.name = name;
+            this.pixels = pixels;
+            event = JFR_AVAILABLE ? ModuleEvent.begin(name, pixels) : null;
+            allocatedStart = profiler.currentAllocatedBytes();
+            cpuStart = profiler.currentCpuTime();
+            wallStart = System.nanoTime();
+        }
+
+        /**
+         * Ends the section, adding what it used to the totals.
+         */
+        public void end() {
+            if (profiler == null)
+                return;
+            long wall = System.nanoTime() - wallStart;
+            long cpu = profiler.currentCpuTime() - cpuStart;
+            long allocated = profiler.currentAllocatedBytes() - allocatedStart;
+            profiler.add(name, wall, cpu, allocated, pixels);
+            if (event != null)
+                ((ModuleEvent) event).finish(cpu, allocated);
+        }
+    }
+
+    /**
+     * Totals of a section of work.
+     */
+    public static class Stats {
+        private final String name;
+        private long calls;
+        private long wallNanos;
+        private long cpuNanos;
+        private long allocatedBytes;
+        private long pixels;
+
+        Stats(String name) {
+            this.name = name;
+        }
+
+        Stats copy() {
+            Stats s = new Stats(name);
+            s.calls = calls;
+            s.wallNanos = wallNanos;
+            s.cpuNanos = cpuNanos;
+            s.allocatedBytes = allocatedBytes;
+            s.pixels = pixels;
+            return s;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getWallNanos() {
+            return wallNanos;
+        }
+
+        public long getCpuNanos() {
+            return cpuNanos;
+        }
+
+        public long getAllocatedBytes() {
+            return allocatedBytes;
+        }
+
+        public long getPixels() {
+            return pixels;
+        }
+
+        /**
+         * Returns the pixels processed per second of wall time.
+         *
+         * @return pixel throughput
+         */
+        public double getPixelsPerSecond() {
+            return wallNanos == 0 ? 0 : pixels * 1e9 / wallNanos;
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package modules;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import riverObjects.ImageShape;
+
+/**
+ * Finds river segments coarse to fine. The image is first
+ * sampled at one pixel in the middle of every factor by
+ * factor block, and the samples are classified. Every block
+ * with a river sample is a candidate, along with the blocks
+ * around it. Only the candidates are classified at full
+ * resolution, spreading to the next block whenever a river
+ * pixel lies on the edge of a block, so that every blob
+ * reached is classified whole. Blobs smaller than the
+ * minimum area are then cleared, and the rest are traced,
+ * with the same boundaries as when the whole image is
+ * classified.
+ *
+ * Blobs which fall between the samples are never reached.
+ * Such blobs hold no factor by factor square, so they are
+ * taken to have short boundaries. When the segments chosen
+ * run down to shapes that short, or there are too few to
+ * tell, the whole image is classified and traced instead,
+ * so that the segments match those of a full resolution run.
+ */
+public class PyramidDetection {
+    // Longest boundary, in sampling steps, taken to fit between the samples
+    private static final int MISSABLE_PERIMETER = 8;
+    private final BufferedImage original;
+    private final int factor;
+    private final int width;
+    private final int height;
+    private final int blocksWide;
+    private final int blocksHigh;
+    private float[] limits = ColorClassifier.getDefaultLimits();
+    private int minimumArea = 1;
+    private BufferPool pool;
+    private CancellationToken cancellation;
+    private long pixelsTouched = 0;
+    // Blocks waiting to be classified at full resolution
+    private int[] queue = new int[64];
+    private int queueSize = 0;
+
+    /**
+     * @param original - image to find the river segments of
+     * @param factor - sampling step, such as 4 or 8
+     */
+    public PyramidDetection(BufferedImage original, int factor) {
+        if (factor < 1)
+            throw new IllegalArgumentException("Factor must be at least 1");
+        this.original = original;
+        this.factor = factor;
+        width = original.getWidth();
+        height = original.getHeight();
+        blocksWide = (width + factor - 1) / factor;
+        blocksHigh = (height + factor - 1) / factor;
+    }
+
+    /**
+     * Sets the HSB limits pixels are classified by, as
+     * given to the color classifier.
+     *
+     * @param limits - hue, saturation and brightness lower/upper limits
+     * @see ColorClassifier#ColorClassifier(BufferedImage, float[])
+     */
+    public void setLimits(float[] limits) {
+        this.limits = limits.clone();
+    }
+
+    /**
+     * Sets the minimum area (in pixels) of the blobs
+     * traced at full resolution.
+     *
+     * @param area - minimum blob area
+     * @see BlobDetection#setMinimumArea(int)
+     */
+    public void setMinimumArea(int area) {
+        minimumArea = area;
+    }
+
+    /**
+     * Sets the pool masks are borrowed from.
+     *
+     * @param pool
+     */
+    public void setBufferPool(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Sets the token checked before each block is
+     * classified, and passed on to the blob detection.
+     *
+     * @param token - token, or null
+     */
+    public void setCancellationToken(CancellationToken token) {
+        cancellation = token;
+    }
+
+    /**
+     * Returns the number of pixels classified so far, at
+     * either resolution.
+     *
+     * @return pixels touched
+     */
+    public long getPixelsTouched() {
+        return pixelsTouched;
+    }
+
+    /**
+     * Classifies one sample of every factor by factor block
+     * of the image, taken from the middle of the block.
+     *
+     * @return mask of potential river samples, one bit per block
+     */
+    public BinaryMask classifyCoarse() {
+        Profiler.Section section = Profiler.getDefault().start("PyramidDetection.coarse",
+                (long) blocksWide * blocksHigh);
+        try {
+            RiverColorTable table = RiverColorTable.getTable( limits );
+            BinaryMask coarse = BinaryMask.borrow( blocksWide, blocksHigh, pool );
+            for (int by = 0; by < blocksHigh; by++) {
+                CancellationToken.check( cancellation );
+                int y = Math.min( height - 1, by * factor + factor / 2 );
+                for (int bx = 0; bx < blocksWide; bx++) {
+                    if (table.isRiver( original.getRGB( Math.min( width - 1, bx * factor + factor / 2 ), y ) ))
+                        coarse.set( bx, by );
+                }
+            }
+            pixelsTouched += (long) blocksWide * blocksHigh;
+            return coarse;
+        }
+        finally {
+            section.end();
+        }
+    }
+
+    /**
+     * Finds the blocks to be classified first: those with a
+     * river sample, and the blocks around them.
+     *
+     * @param coarse - mask made by classifyCoarse()
+     * @return mask of candidate blocks
+     */
+    public BinaryMask findCandidateBlocks(BinaryMask coarse) {
+        BinaryMask candidates = BinaryMask.borrow( blocksWide, blocksHigh, pool );
+        for (int by = 0; by < blocksHigh; by++) {
+            for (int bx = coarse.nextSetBit( 0, by ); bx >= 0; bx = coarse.nextSetBit( bx + 1, by )) {
+                // The blob may reach past the sample into the blocks around
+                for (int y = Math.max( 0, by - 1 ); y <= Math.min( blocksHigh - 1, by + 1 ); y++) {
+                    for (int x = Math.max( 0, bx - 1 ); x <= Math.min( blocksWide - 1, bx + 1 ); x++)
+                        candidates.set( x, y );
+                }
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Classifies the candidate blocks at full resolution,
+     * along with every block a blob spreads into.
+     *
+     * @param coarse - mask made by classifyCoarse()
+     * @return mask of the potential river pixels of the blobs reached
+     */
+    public BinaryMask classifyFine(BinaryMask coarse) {
+        Profiler.Section section = Profiler.getDefault().start("PyramidDetection.fine", (long) width * height);
+        try {
+            RiverColorTable table = RiverColorTable.getTable( limits );
+            BinaryMask mask = BinaryMask.borrow( width, height, pool );
+            // Blocks ever queued, so that none is classified twice
+            BinaryMask queued = findCandidateBlocks( coarse );
+            queueSize = 0;
+            for (int by = 0; by < blocksHigh; by++) {
+                for (int bx = queued.nextSetBit( 0, by ); bx >= 0; bx = queued.nextSetBit( bx + 1, by ))
+                    enqueue( bx, by );
+            }
+
+            int[] rgb = new int[factor * factor];
+            while (queueSize > 0) {
+                CancellationToken.check( cancellation );
+                int block = queue[--queueSize];
+                int x0 = (block % blocksWide) * factor;
+                int y0 = (block / blocksWide) * factor;
+                int x1 = Math.min( width, x0 + factor );
+                int y1 = Math.min( height, y0 + factor );
+                int w = x1 - x0;
+                original.getRGB( x0, y0, w, y1 - y0, rgb, 0, w );
+                pixelsTouched += (long) w * (y1 - y0);
+
+                for (int y = y0; y < y1; y++) {
+                    for (int x = x0; x < x1; x++) {
+                        if (!table.isRiver( rgb[(y - y0) * w + x - x0] ))
+                            continue;
+                        mask.set( x, y );
+                        // A river pixel on the edge of the block may belong to a blob reaching the next block
+                        if (x > x0 && x < x1 - 1 && y > y0 && y < y1 - 1)
+                            continue;
+                        for (int ny = Math.max( 0, y - 1 ); ny <= Math.min( height - 1, y + 1 ); ny++) {
+                            for (int nx = Math.max( 0, x - 1 ); nx <= Math.min( width - 1, x + 1 ); nx++) {
+                                int bx = nx / factor;
+                                int by = ny / factor;
+                                if (!queued.get( bx, by )) {
+                                    queued.set( bx, by );
+                                    enqueue( bx, by );
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+            queued.release( pool );
+            return mask;
+        }
+        finally {
+            section.end();
+        }
+    }
+
+    private void enqueue(int bx, int by) {
+        if (queueSize == queue.length)
+            queue = Arrays.copyOf( queue, queueSize * 2 );
+        queue[queueSize++] = by * blocksWide + bx;
+    }
+
+    /**
+     * Finds the largest river segment and the segments
+     * related to it, classifying and tracing at full
+     * resolution only the blobs around the candidates of
+     * the coarse mask, unless a blob between the samples
+     * could be among them.
+     *
+     * @param coarse - mask made by classifyCoarse()
+     * @return list of related image shapes
+     * @see BlobDetection#findLargestRelatedShapes()
+     */
+    public List<ImageShape> findLargestRelatedShapes(BinaryMask coarse) {
+        List<ImageShape> shapes = selectRelatedShapes( classifyFine( coarse ), false );
+        if (shapes == null) {
+            // Classify the whole image, as without the pyramid
+            ColorClassifier cc = new ColorClassifier(original, limits);
+            cc.setUseLookupTable( true );
+            cc.setBufferPool( pool );
+            cc.setCancellationToken( cancellation );
+            cc.setVerbose( false );
+            BinaryMask mask = cc.getMask();
+            pixelsTouched += (long) width * height;
+            shapes = selectRelatedShapes( mask, true );
+        }
+        BlobDetection.reportSegments( shapes.size() );
+        return shapes;
+    }
+
+    /**
+     * Traces the blobs of a mask and selects the related
+     * shapes, giving the mask back to the pool. When only
+     * the blobs reached from the samples are in the mask,
+     * the selection must stop at a shape with a longer
+     * boundary than a blob between the samples may have.
+     *
+     * @param mask - mask of potential river pixels, which is released
+     * @param whole - true if the whole image was classified
+     * @return list of related image shapes, or null if missed blobs could be among them
+     */
+    private List<ImageShape> selectRelatedShapes(BinaryMask mask, boolean whole) {
+        try {
+            // Blobs are whole, so small ones can be cleared without a label for every pixel
+            if (minimumArea > 1)
+                RunLabeling.label( mask ).clearSmall( mask, minimumArea );
+            BlobDetection blobs = new BlobDetection(mask, original);
+            blobs.setBufferPool( pool );
+            blobs.setCancellationToken( cancellation );
+            List<ImageShape> shapes = blobs.selectRelatedShapes();
+            if (whole)
+                return shapes;
+            // Shapes shorter than the first one left out would be left out as well
+            List<ImageShape> considered = blobs.findLargestShapes( shapes.size() + 1 );
+            if (considered.size() > shapes.size()
+                    && considered.get( shapes.size() ).getPerimeter() > MISSABLE_PERIMETER * factor)
+                return shapes;
+            return null;
+        }
+        finally {
+            mask.release( pool );
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package modules;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Helper methods for reading and writing whole images
+ * as packed integer arrays, avoiding the color model
+ * conversion and bounds check done by every call to
+ * BufferedImage.getRGB/setRGB. Pixels are stored in
+ * row-major order, in the same ARGB format returned
+ * by getRGB (index = y * width + x).
+ */
+public class RasterAccess {
+    // Masks for a packed RGB image without alpha
+    private static final int RED_MASK = 0x00ff0000;
+    private static final int GREEN_MASK = 0x0000ff00;
+    private static final int BLUE_MASK = 0x000000ff;
+    private static final int OPAQUE = 0xff000000;
+
+    private RasterAccess() {
+    }
+
+    /**
+     * Returns the pixels of an image as packed ARGB
+     * integers in row-major order. For images already
+     * backed by ARGB integers the backing array is returned
+     * directly, so the result must be treated as read-only.
+     *
+     * @param img - source image
+     * @return packed pixels of the image
+     */
+    public static int[] readPixels(BufferedImage img) {
+        return readPixels( img, null );
+    }
+
+    /**
+     * Returns the pixels of an image as packed ARGB integers,
+     * borrowing the array from a pool whenever the pixels
+     * have to be copied. Give it back with releasePixels().
+     *
+     * @param img - source image
+     * @param pool - pool to borrow from, or null to allocate
+     * @return packed pixels of the image
+     * @see #readPixels(BufferedImage)
+     */
+    public static int[] readPixels(BufferedImage img, BufferPool pool) {
+        int width = img.getWidth();
+        int height = img.getHeight();
+        WritableRaster raster = img.getRaster();
+        DataBuffer buffer = raster.getDataBuffer();
+
+        // Only use the backing arrays if the raster is not a sub-image
+        boolean plain = raster.getParent() == null && buffer.getNumBanks() == 1 &&
+                raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0;
+
+        if (plain && buffer instanceof DataBufferInt &&
+                raster.getSampleModel() instanceof SinglePixelPackedSampleModel &&
+                ((SinglePixelPackedSampleModel) raster.getSampleModel()).getScanlineStride() == width) {
+            int[] data = ((DataBufferInt) buffer).getData();
+            int size = width * height;
+
+            // ARGB images are already in the right format
+            if (img.getType() == BufferedImage.TYPE_INT_ARGB && buffer.getOffset() == 0 && data.length == size)
+                return data;
+
+            // RGB images only need the alpha component to be filled in
+            if (img.getType() == BufferedImage.TYPE_INT_RGB) {
+                int offset = buffer.getOffset();
+                int[] result = allocate( size, pool );
+                for (int i = 0; i < size; i++)
+                    result[i] = data[offset + i] | OPAQUE;
+                return result;
+            }
+        }
+        else if (plain && buffer instanceof DataBufferByte && img.getType() == BufferedImage.TYPE_3BYTE_BGR &&
+                raster.getSampleModel() instanceof ComponentSampleModel &&
+                ((ComponentSampleModel) raster.getSampleModel()).getScanlineStride() == width * 3) {
+            // Read blue, green and red bytes directly
+            byte[] data = ((DataBufferByte) buffer).getData();
+            int offset = buffer.getOffset();
+            int size = width * height;
+            int[] result = allocate( size, pool );
+            for (int i = 0, j = offset; i < size; i++, j += 3) {
+                result[i] = OPAQUE | ((data[j + 2] & 0xff) << 16) | ((data[j + 1] & 0xff) << 8) | (data[j] & 0xff);
+            }
+            return result;
+        }
+
+        // Any other image type goes through a single bulk conversion
+        return img.getRGB( 0, 0, width, height, allocate( width * height, pool ), 0, width );
+    }
+
+    private static int[] allocate(int size, BufferPool pool) {
+        return pool == null ? new int[size] : pool.borrowInts( size );
+    }
+
+    /**
+     * Returns pixels read with readPixels() to a pool, unless
+     * they are the backing array of the image itself.
+     *
+     * @param img - image the pixels were read from
+     * @param pixels - pixels returned by readPixels()
+     * @param pool - pool to return to, or null to do nothing
+     */
+    public static void releasePixels(BufferedImage img, int[] pixels, BufferPool pool) {
+        if (pool == null)
+            return;
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        if (buffer instanceof DataBufferInt && ((DataBufferInt) buffer).getData() == pixels)
+            return;
+        pool.release( pixels );
+    }
+
+    /**
+     * Returns the pixel array of an image made by createImage()
+     * to a pool. The image must not be used afterwards.
+     *
+     * @param img - image made by createImage()
+     * @param pool - pool to return to, or null to do nothing
+     */
+    public static void releaseImage(BufferedImage img, BufferPool pool) {
+        DataBuffer buffer = img.getRaster().getDataBuffer();
+        if (pool != null && buffer instanceof DataBufferInt)
+            pool.release( ((DataBufferInt) buffer).getData() );
+    }
+
+    /**
+     * Creates an RGB image backed directly by the given
+     * array of packed pixels, without copying them. The
+     * alpha component of the pixels is ignored.
+     *
+     * @param pixels - packed pixels in row-major order
+     * @param width - image width
+     * @param height - image height
+     * @return image sharing the pixel array
+     */
+    public static BufferedImage createImage(int[] pixels, int width, int height) {
+        DirectColorModel cm = new DirectColorModel(24, RED_MASK, GREEN_MASK, BLUE_MASK);
+        DataBufferInt buffer = new DataBufferInt(pixels, width * height);
+        WritableRaster raster = Raster.createPackedRaster( buffer, width, height, width,
+                new int[] { RED_MASK, GREEN_MASK, BLUE_MASK }, null );
+        return new BufferedImage( cm, raster, false, null );
+    }
+}
@@ -0,0 +1,69 @@
+package modules;
+
+import java.awt.Color;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Precomputed lookup table over the whole 24-bit RGB
+ * space, holding one bit per color: set if the color is
+ * within the river HSB limits, clear otherwise. The table
+ * takes 2 MB and is built once per set of limits, after
+ * which classifying a pixel is a single bit test.
+ *
+ * Tables are immutable once built, so a single instance
+ * is cached and shared by all images and threads.
+ */
+public class RiverColorTable {
+    private static final int COLORS = 1 << 24; // Number of distinct RGB colors
+    // Cache of tables already built, keyed by their HSB limits
+    private static final Map<List<Float>, RiverColorTable> cache = new HashMap<List<Float>, RiverColorTable>();
+    private final long[] bits = new long[COLORS >>> 6];
+
+    private RiverColorTable(float[] limits) {
+        float[] hsb = new float[3];
+        // Go through every RGB color, classifying it once
+        for (int rgb = 0; rgb < COLORS; rgb++) {
+            Color.RGBtoHSB( (rgb >> 16) & 0xff, (rgb >> 8) & 0xff, rgb & 0xff, hsb );
+            if (ColorClassifier.checkRiverHSB( hsb, limits ))
+                bits[rgb >>> 6] |= 1L << rgb;
+        }
+    }
+
+    /**
+     * Returns the table for the given HSB limits, building
+     * it on first use. The limits array is ordered as hue
+     * lower/upper, saturation lower/upper and brightness
+     * lower/upper.
+     *
+     * @param limits - the six HSB limits
+     * @return shared lookup table for the limits
+     */
+    public static synchronized RiverColorTable getTable(float[] limits) {
+        List<Float> key = new ArrayList<Float>(limits.length);
+        for (float limit : limits)
+            key.add(limit);
+
+        RiverColorTable table = cache.get( key );
+        // If table has not been built for these limits, build it now
+        if (table == null) {
+            table = new RiverColorTable(limits);
+            cache.put( key, table );
+        }
+        return table;
+    }
+
+    /**
+     * Checks whether a color may be a river color. The
+     * alpha component of the color is ignored.
+     *
+     * @param rgb - integer representation of the color
+     * @return true if within the river limits, false otherwise
+     */
+    public boolean isRiver(int rgb) {
+        int index = rgb & 0x00ffffff;
+        return (bits[index >>> 6] & (1L << index)) != 0;
+    }
+}
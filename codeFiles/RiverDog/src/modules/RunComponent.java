@@ -0,0 +1,171 @@
+package modules;
+
+import java.util.Arrays;
+
+/**
+ * A single 8-connected component of a mask, kept as its
+ * runs of set pixels rather than as a mask, so that its
+ * size depends on its boundary rather than on the image.
+ * Runs are stored row by row from the top down, and left
+ * to right within a row. Each pixel also has a bit for
+ * marking it as visited while the component is traced.
+ */
+public class RunComponent {
+    // Start, end (exclusive) and row of each run
+    private final int[] runs;
+    private final int runCount;
+    private final int top;
+    private final int bottom;
+    // Index of the first run of each row, from the top, and one past the last row
+    private final int[] rowStarts;
+    // Index of the first pixel of each run, counting pixels over all the runs
+    private final int[] offsets;
+    private final long[] visited;
+    private final int area;
+    private final int left;
+    private final int right;
+
+    /**
+     * @param runs - start, end (exclusive) and row of each run, in row order
+     * @param runCount - number of runs
+     */
+    RunComponent(int[] runs, int runCount) {
+        this.runs = runs;
+        this.runCount = runCount;
+        top = runs[2];
+        bottom = runs[(runCount - 1) * 3 + 2];
+        rowStarts = new int[bottom - top + 2];
+        offsets = new int[runCount];
+        int pixels = 0;
+        int minX = Integer.MAX_VALUE;
+        int maxX = Integer.MIN_VALUE;
+        int row = top;
+        for (int i = 0; i < runCount; i++) {
+            int y = runs[i * 3 + 2];
+            while (row < y)
+                rowStarts[++row - top] = i;
+            offsets[i] = pixels;
+            pixels += runs[i * 3 + 1] - runs[i * 3];
+            minX = Math.min(minX, runs[i * 3]);
+            maxX = Math.max(maxX, runs[i * 3 + 1] - 1);
+        }
+        rowStarts[bottom - top + 1] = runCount;
+        area = pixels;
+        left = minX;
+        right = maxX;
+        visited = new long[(pixels + 63) >>> 6];
+    }
+
+    /**
+     * Returns the number of pixels in the component.
+     *
+     * @return area
+     */
+    public int getArea() {
+        return area;
+    }
+
+    public int getLeft() {
+        return left;
+    }
+
+    public int getRight() {
+        return right;
+    }
+
+    public int getTop() {
+        return top;
+    }
+
+    public int getBottom() {
+        return bottom;
+    }
+
+    /**
+     * Returns true if a pixel belongs to the component.
+     *
+     * @param x
+     * @param y
+     * @return whether the pixel is set
+     */
+    public boolean get(int x, int y) {
+        return findRun(x, y) >= 0;
+    }
+
+    /**
+     * Finds the run holding a pixel with a binary search
+     * of the runs of its row.
+     *
+     * @return index of the run, or -1 if the pixel is not set
+     */
+    private int findRun(int x, int y) {
+        if (y < top || y > bottom)
+            return -1;
+        int low = rowStarts[y - top];
+        int high = rowStarts[y - top + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (runs[mid * 3 + 1] <= x)
+                low = mid + 1;
+            else if (runs[mid * 3] > x)
+                high = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    boolean isVisited(int x, int y) {
+        int i = findRun(x, y);
+        int bit = offsets[i] + x - runs[i * 3];
+        return (visited[bit >>> 6] & (1L << bit)) != 0;
+    }
+
+    void setVisited(int x, int y) {
+        int i = findRun(x, y);
+        int bit = offsets[i] + x - runs[i * 3];
+        visited[bit >>> 6] |= 1L << bit;
+    }
+
+    /**
+     * Finds the edge pixels of the component, which have no
+     * set pixel below them, as the parts of each run which are
+     * not over a run of the next row.
+     *
+     * @return start, end (exclusive) and row of each edge, in row order
+     */
+    int[] findEdges() {
+        int[] edges = new int[runCount * 3];
+        int count = 0;
+        for (int y = top; y <= bottom; y++) {
+            int below = y < bottom ? rowStarts[y - top + 1] : runCount;
+            int belowEnd = y < bottom ? rowStarts[y - top + 2] : runCount;
+            for (int i = rowStarts[y - top]; i < rowStarts[y - top + 1]; i++) {
+                int x = runs[i * 3];
+                int end = runs[i * 3 + 1];
+                // Skip runs below which end before this part starts
+                while (below < belowEnd && runs[below * 3 + 1] <= x)
+                    below++;
+                while (x < end) {
+                    int coveredStart = below < belowEnd ? Math.max(x, runs[below * 3]) : end;
+                    int edgeEnd = Math.min(end, coveredStart);
+                    if (edgeEnd > x) {
+                        if (count * 3 == edges.length)
+                            edges = Arrays.copyOf(edges, edges.length * 2);
+                        edges[count * 3] = x;
+                        edges[count * 3 + 1] = edgeEnd;
+                        edges[count * 3 + 2] = y;
+                        count++;
+                    }
+                    if (below >= belowEnd || runs[below * 3] >= end)
+                        break;
+                    // Step over the run below, which may go on under the next run
+                    x = Math.min(end, runs[below * 3 + 1]);
+                    if (runs[below * 3 + 1] <= end)
+                        below++;
+                }
+            }
+        }
+        return Arrays.copyOf(edges, count * 3);
+    }
+}
@@ -0,0 +1,280 @@
+package modules;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The 8-connected components of a mask, labeled one row
+ * at a time as runs of set pixels. Each run gets the next
+ * label and is joined to the runs it touches in the row
+ * above, the smaller label becoming the root, so only the
+ * runs of the last row are kept besides the union-find
+ * table of labels and the area of each root. This lets
+ * a mask be labeled as it is filled in, without a label
+ * for every pixel.
+ *
+ * When the runs are kept, the mask need not be kept at
+ * all: each component is handed over with its runs by
+ * closeComponents() once no run of the last row added
+ * belongs to it, and the labels of the components still
+ * open are then numbered again from 0, so the table only
+ * grows with the components crossing the last row.
+ */
+public class RunLabeling {
+    private int[] parents = new int[1024];
+    private int[] areas = new int[1024];
+    private int count = 0;
+    private int components = 0;
+    // Start, end (exclusive) and label of the runs in the previous and current row
+    private int[] previous = new int[96];
+    private int previousRuns = 0;
+    private int[] current = new int[96];
+    private int currentRuns = 0;
+    // Start, end (exclusive), row and label of every run of the open components, when kept
+    private boolean keepRuns = false;
+    private int[] runs = new int[0];
+    private int runCount = 0;
+
+    /**
+     * Labels every row of a mask.
+     *
+     * @param mask
+     * @return labeling of the mask
+     */
+    public static RunLabeling label(BinaryMask mask) {
+        RunLabeling labeling = new RunLabeling();
+        for (int y = 0; y < mask.getHeight(); y++)
+            labeling.addRow(mask, y);
+        return labeling;
+    }
+
+    /**
+     * Keeps the runs of every component until it is closed,
+     * for closeComponents(). Off by default.
+     *
+     * @param keep
+     */
+    public void setKeepRuns(boolean keep) {
+        keepRuns = keep;
+    }
+
+    /**
+     * Returns the number of components labeled so far.
+     *
+     * @return number of components
+     */
+    public int getComponentCount() {
+        return components;
+    }
+
+    /**
+     * Labels the runs of a row, joining them to the runs of
+     * the row above. Rows must be added from the top down,
+     * one after the other.
+     *
+     * @param mask - mask being labeled
+     * @param y - row to add
+     */
+    public void addRow(BinaryMask mask, int y) {
+        addRow(mask, y, y);
+    }
+
+    /**
+     * Labels the runs of a row of a mask holding only some
+     * of the rows, such as a tile, as the given row of the
+     * whole. Rows must be added from the top down, one after
+     * the other.
+     *
+     * @param mask - mask holding the row
+     * @param row - row of the mask to add
+     * @param y - row of the whole it is added as
+     */
+    public void addRow(BinaryMask mask, int row, int y) {
+        currentRuns = 0;
+        int above = 0;
+        int x = mask.nextSetBit(0, row);
+        while (x >= 0) {
+            int end = mask.nextClearBit(x, row);
+            int label = newLabel(end - x);
+            addRun(x, end, label);
+            if (keepRuns)
+                keepRun(x, end, y, label);
+            // Skip runs above which end before this one starts, diagonals included
+            while (above < previousRuns && previous[above * 3 + 1] < x)
+                above++;
+            for (int i = above; i < previousRuns && previous[i * 3] <= end; i++)
+                union(label, previous[i * 3 + 2]);
+            x = mask.nextSetBit(end, row);
+        }
+        int[] swap = previous;
+        previous = current;
+        current = swap;
+        previousRuns = currentRuns;
+    }
+
+    private int newLabel(int area) {
+        if (count == parents.length) {
+            parents = Arrays.copyOf(parents, count * 2);
+            areas = Arrays.copyOf(areas, count * 2);
+        }
+        parents[count] = count;
+        areas[count] = area;
+        components++;
+        return count++;
+    }
+
+    private void addRun(int start, int end, int label) {
+        if (currentRuns * 3 == current.length)
+            current = Arrays.copyOf(current, current.length * 2);
+        current[currentRuns * 3] = start;
+        current[currentRuns * 3 + 1] = end;
+        current[currentRuns * 3 + 2] = label;
+        currentRuns++;
+    }
+
+    private void keepRun(int start, int end, int y, int label) {
+        if (runCount * 4 == runs.length)
+            runs = Arrays.copyOf(runs, Math.max(1024, runs.length * 2));
+        runs[runCount * 4] = start;
+        runs[runCount * 4 + 1] = end;
+        runs[runCount * 4 + 2] = y;
+        runs[runCount * 4 + 3] = label;
+        runCount++;
+    }
+
+    /**
+     * Hands over the components which no run of the last row
+     * added belongs to, so that they cannot grow any more,
+     * along with their runs. The labels of the components left
+     * are numbered again from 0, in the order of their first
+     * run, dropping the labels of those closed. Runs must be
+     * kept, and clearSmall() can no longer be used afterwards.
+     *
+     * @param all - true to close every component, after the last row
+     * @return closed components, in the order of their first run
+     */
+    public List<RunComponent> closeComponents(boolean all) {
+        // Number the roots of the last row again, in the order of their first run
+        boolean[] inLastRow = new boolean[count];
+        for (int i = 0; i < previousRuns && !all; i++)
+            inLastRow[find(previous[i * 3 + 2])] = true;
+        int[] renumbered = new int[count];
+        Arrays.fill(renumbered, -1);
+        int open = 0;
+        for (int i = 0; i < runCount; i++) {
+            int root = find(runs[i * 4 + 3]);
+            if (inLastRow[root] && renumbered[root] < 0)
+                renumbered[root] = open++;
+        }
+
+        // Count the runs of each closed component, giving them groups in the order of their first run
+        int[] group = new int[count];
+        Arrays.fill(group, -1);
+        int[] sizes = new int[16];
+        int groups = 0;
+        for (int i = 0; i < runCount; i++) {
+            int root = find(runs[i * 4 + 3]);
+            if (renumbered[root] >= 0)
+                continue;
+            if (group[root] < 0) {
+                if (groups == sizes.length)
+                    sizes = Arrays.copyOf(sizes, groups * 2);
+                group[root] = groups++;
+            }
+            sizes[group[root]]++;
+        }
+        int[][] closedRuns = new int[groups][];
+        for (int g = 0; g < groups; g++)
+            closedRuns[g] = new int[sizes[g] * 3];
+        Arrays.fill(sizes, 0);
+
+        // Hand the runs of closed components to their group, and keep the rest with their new label
+        int kept = 0;
+        for (int i = 0; i < runCount; i++) {
+            int root = find(runs[i * 4 + 3]);
+            if (renumbered[root] >= 0) {
+                System.arraycopy(runs, i * 4, runs, kept * 4, 3);
+                runs[kept * 4 + 3] = renumbered[root];
+                kept++;
+            }
+            else {
+                int g = group[root];
+                System.arraycopy(runs, i * 4, closedRuns[g], sizes[g] * 3, 3);
+                sizes[g]++;
+            }
+        }
+        runCount = kept;
+
+        // The table only holds the open components, each its own root
+        int[] openAreas = new int[Math.max(1024, open * 2)];
+        for (int label = 0; label < count; label++) {
+            if (renumbered[label] >= 0 && find(label) == label)
+                openAreas[renumbered[label]] = areas[label];
+        }
+        for (int i = 0; i < previousRuns; i++)
+            previous[i * 3 + 2] = all ? -1 : renumbered[find(previous[i * 3 + 2])];
+        if (all)
+            previousRuns = 0;
+        areas = openAreas;
+        parents = new int[areas.length];
+        for (int label = 0; label < open; label++)
+            parents[label] = label;
+        count = open;
+
+        List<RunComponent> closed = new ArrayList<RunComponent>(groups);
+        for (int g = 0; g < groups; g++)
+            closed.add(new RunComponent(closedRuns[g], closedRuns[g].length / 3));
+        return closed;
+    }
+
+    private void union(int a, int b) {
+        int rootA = find(a);
+        int rootB = find(b);
+        if (rootA == rootB)
+            return;
+        int smaller = Math.min(rootA, rootB);
+        int larger = Math.max(rootA, rootB);
+        parents[larger] = smaller;
+        areas[smaller] += areas[larger];
+        components--;
+    }
+
+    private int find(int label) {
+        int root = label;
+        while (parents[root] != root)
+            root = parents[root];
+        // Compress the path
+        while (parents[label] != root) {
+            int parent = parents[label];
+            parents[label] = root;
+            label = parent;
+        }
+        return root;
+    }
+
+    /**
+     * Clears the components smaller than the given area
+     * from the mask. The runs are found again in the same
+     * order as they were labeled, so the n-th run has
+     * label n. All the rows of the mask must have been
+     * added, and not changed since.
+     *
+     * @param mask - mask that was labeled
+     * @param minimumArea - least area (in pixels) of the components kept
+     */
+    public void clearSmall(BinaryMask mask, int minimumArea) {
+        int label = 0;
+        for (int y = 0; y < mask.getHeight(); y++) {
+            int x = mask.nextSetBit(0, y);
+            while (x >= 0) {
+                int end = mask.nextClearBit(x, y);
+                if (areas[find(label++)] < minimumArea) {
+                    for (int i = x; i < end; i++)
+                        mask.clear(i, y);
+                }
+                x = mask.nextSetBit(end, y);
+            }
+        }
+    }
+}
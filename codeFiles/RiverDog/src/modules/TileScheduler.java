@@ -0,0 +1,150 @@
+package modules;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Runs per-pixel work over an image in parallel. The
+ * image is split into tiles made of whole rows (so that
+ * each tile is a contiguous range of a row-major pixel
+ * array), and the tiles are processed on a fork/join
+ * pool. Per-tile results are merged pairwise as the
+ * tasks join, so statistics are combined without any
+ * shared counters.
+ */
+public class TileScheduler {
+    public static final int DEFAULT_TILE_SIZE = 1 << 16; // Pixels per tile
+    private static TileScheduler defaultScheduler;
+    private final ForkJoinPool pool;
+    private final int tileSize;
+
+    /**
+     * Creates a scheduler with its own pool.
+     *
+     * @param parallelism - number of worker threads
+     * @param tileSize - approximate number of pixels per tile
+     */
+    public TileScheduler(int parallelism, int tileSize) {
+        if (parallelism < 1 || tileSize < 1)
+            throw new IllegalArgumentException("Parallelism and tile size must be positive");
+        pool = new ForkJoinPool(parallelism);
+        this.tileSize = tileSize;
+    }
+
+    /**
+     * Returns the scheduler shared by modules that were
+     * not given one, using all available processors.
+     *
+     * @return default scheduler
+     */
+    public static synchronized TileScheduler getDefault() {
+        if (defaultScheduler == null)
+            defaultScheduler = new TileScheduler(Runtime.getRuntime().availableProcessors(), DEFAULT_TILE_SIZE);
+        return defaultScheduler;
+    }
+
+    /**
+     * Replaces the scheduler shared by modules that were
+     * not given one.
+     *
+     * @param scheduler
+     */
+    public static synchronized void setDefault(TileScheduler scheduler) {
+        defaultScheduler = scheduler;
+    }
+
+    public int getParallelism() {
+        return pool.getParallelism();
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    /**
+     * Processes all the rows of an image in tiles, returning
+     * the merged result of every tile. Images that fit in a
+     * single tile are processed in the calling thread.
+     *
+     * @param width - image width
+     * @param height - image height
+     * @param task - the work to be done for each tile
+     * @return merged tile results
+     */
+    public <T> T run(int width, int height, TileTask<T> task) {
+        int rowsPerTile = Math.max( 1, tileSize / Math.max( 1, width ) );
+        if (height <= rowsPerTile)
+            return task.processTile( 0, height );
+        return pool.invoke( new TileRange<T>(task, 0, height, rowsPerTile) );
+    }
+
+    /**
+     * Work to be done over a range of rows of an image.
+     */
+    public interface TileTask<T> {
+
+        /**
+         * Processes rows from firstRow (inclusive) to
+         * lastRow (exclusive).
+         *
+         * @param firstRow
+         * @param lastRow
+         * @return result for the tile
+         */
+        public T processTile(int firstRow, int lastRow);
+
+        /**
+         * Combines the results of two neighboring tiles,
+         * the first one being above the second.
+         *
+         * @param first
+         * @param second
+         * @return combined result
+         */
+        public T merge(T first, T second);
+    }
+
+    /**
+     * Fork/join task which splits a range of rows in
+     * half until it is no larger than a tile.
+     */
+    private static class TileRange<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+        private final TileTask<T> task;
+        private final int firstRow;
+        private final int lastRow;
+        private final int rowsPerTile;
+
+        TileRange(TileTask<T> task, int firstRow, int lastRow, int rowsPerTile) {
+            this.task = task;
+            this.firstRow = firstRow;
+            this.lastRow = lastRow;
+            this.rowsPerTile = rowsPerTile;
+        }
+
+        @Override
+        protected T compute() {
+            // Small enough, so process directly
+            if (lastRow - firstRow <= rowsPerTile)
+                return task.processTile( firstRow, lastRow );
+
+            // Else split in two, running the top half in another task
+            int middle = (firstRow + lastRow) >>> 1;
+            TileRange<T> top = new TileRange<T>(task, firstRow, middle, rowsPerTile);
+            TileRange<T> bottom = new TileRange<T>(task, middle, lastRow, rowsPerTile);
+            top.fork();
+            T bottomResult;
+            boolean computed = false;
+            try {
+                bottomResult = bottom.compute();
+                computed = true;
+            }
+            finally {
+                // Never leave the top half running over buffers the caller may give back
+                if (!computed)
+                    top.quietlyJoin();
+            }
+            return task.merge( top.join(), bottomResult );
+        }
+    }
+}
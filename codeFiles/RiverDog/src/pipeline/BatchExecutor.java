@@ -0,0 +1,83 @@
+package pipeline;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * Runs many images through the pipeline at the same time,
+ * on a StagedPipeline with the given number of workers for
+ * classification and detection. How many images are in
+ * flight is bounded by a memory budget, so that many small
+ * images keep all the workers busy while a few very large
+ * ones are not decoded together. Results are handed back
+ * in the order of the inputs, whatever order they finish in.
+ */
+public class BatchExecutor {
+    private final Pipeline pipeline;
+    private final int threads;
+    private final MemoryBudget budget;
+
+    /**
+     * Receives the result of every image, in the order of
+     * the inputs.
+     */
+    public interface ResultListener {
+        void resultReady(int index, PipelineResult result);
+    }
+
+    /**
+     * Creates an executor with a worker for each processor
+     * and half of the heap as its memory budget.
+     *
+     * @param pipeline - pipeline to run the images through
+     */
+    public BatchExecutor(Pipeline pipeline) {
+        this(pipeline, Runtime.getRuntime().availableProcessors(), MemoryBudget.fromHeap(0.5));
+    }
+
+    /**
+     * @param pipeline - pipeline to run the images through
+     * @param threads - number of worker threads
+     * @param budget - memory budget for the images in flight
+     */
+    public BatchExecutor(Pipeline pipeline, int threads, MemoryBudget budget) {
+        this.pipeline = pipeline;
+        this.threads = Math.max(1, threads);
+        this.budget = budget;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public MemoryBudget getBudget() {
+        return budget;
+    }
+
+    /**
+     * Creates a staged pipeline with the workers and
+     * budget of this executor.
+     *
+     * @return staged pipeline
+     */
+    public StagedPipeline newStagedPipeline() {
+        StagedPipeline staged = new StagedPipeline(pipeline, budget);
+        staged.setParallelism(Stage.CLASSIFY, threads);
+        staged.setParallelism(Stage.DETECT, threads);
+        return staged;
+    }
+
+    /**
+     * Processes all the images, returning when all are done.
+     *
+     * @param inputs - image files
+     * @param outputs - file to write each result to, or null (or a null entry) to keep the rendered images
+     * @param listener - receives each result in the order of the inputs, from a worker thread; may be null
+     * @return results, in the order of the inputs
+     * @throws InterruptedException if interrupted; images not finished yet are dropped
+     */
+    public List<PipelineResult> run(List<File> inputs, List<File> outputs, ResultListener listener)
+            throws InterruptedException {
+        return newStagedPipeline().run(inputs, outputs, listener);
+    }
+}
@@ -0,0 +1,437 @@
+package pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.imageio.ImageIO;
+
+import modules.Profiler;
+
+/**
+ * Runs a batch of images through the pipeline without
+ * any user interface, writing a result image for each
+ * one. Images go through a staged pipeline, so that
+ * decoding, classifying, detecting and encoding of
+ * different images overlap. The time taken by every
+ * image is reported in input order, followed by the
+ * overall throughput, the percentiles of the time spent
+ * in each stage, the queue depths and utilisation
+ * of the stages, the time, CPU and allocations of each
+ * module, and the hit rates of the buffer pool and of
+ * the result cache.
+ */
+public class BatchRunner {
+    // Output names are made from this pattern by replacing {name} and {ext}
+    public static final String DEFAULT_OUTPUT_PATTERN = "{name}-riverDetected.png";
+    private final List<File> inputs;
+    private File outputDirectory;
+    private String outputPattern = DEFAULT_OUTPUT_PATTERN;
+    private PrintStream out = System.out;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int ioThreads = 2;
+    private MemoryBudget budget = MemoryBudget.fromHeap(0.5);
+    private ResultCache cache;
+    private int pyramidFactor = 1;
+    private int minimumSegmentArea = 1;
+    private long tiledThreshold = 0;
+    private final StageTimings timings = new StageTimings();
+
+    public BatchRunner(List<File> inputs) {
+        this.inputs = inputs;
+    }
+
+    /**
+     * Sets the directory results are written to. By
+     * default, each result is written next to its input.
+     *
+     * @param directory
+     */
+    public void setOutputDirectory(File directory) {
+        outputDirectory = directory;
+    }
+
+    /**
+     * Sets the pattern for naming results, in which {name}
+     * is replaced by the input name without its extension
+     * and {ext} by the input extension.
+     *
+     * @param pattern
+     */
+    public void setOutputPattern(String pattern) {
+        outputPattern = pattern;
+    }
+
+    /**
+     * Sets the stream progress and statistics are printed to.
+     *
+     * @param out
+     */
+    public void setOutput(PrintStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Sets the number of workers for classification and
+     * detection, by default one for each processor.
+     *
+     * @param threads
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Sets the number of workers for decoding and encoding,
+     * by default 2.
+     *
+     * @param threads
+     */
+    public void setIOThreads(int threads) {
+        ioThreads = threads;
+    }
+
+    /**
+     * Sets the memory budget shared by the images in
+     * flight, by default half of the heap.
+     *
+     * @param budget
+     */
+    public void setMemoryBudget(MemoryBudget budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Sets the cache of results, so that images which have
+     * not changed since an earlier run are not processed
+     * again. By default no cache is used.
+     *
+     * @param cache
+     */
+    public void setResultCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Sets the sampling step of pyramid mode, by default
+     * 1 which turns it off.
+     *
+     * @param factor
+     * @see Pipeline#setPyramidFactor(int)
+     */
+    public void setPyramidFactor(int factor) {
+        pyramidFactor = factor;
+    }
+
+    /**
+     * Sets the least area of the blobs traced as river
+     * segments, by default 1 which keeps every blob.
+     *
+     * @param area
+     * @see Pipeline#setMinimumSegmentArea(int)
+     */
+    public void setMinimumSegmentArea(int area) {
+        minimumSegmentArea = area;
+    }
+
+    /**
+     * Sets the size from which images are only searched for
+     * river segments, tile by tile, without writing a result
+     * image. By default every image is decoded whole.
+     *
+     * @param pixels - least number of pixels of a tiled image, or 0 to never tile
+     * @see Pipeline#setTiledThreshold(long)
+     */
+    public void setTiledThreshold(long pixels) {
+        tiledThreshold = pixels;
+    }
+
+    public StageTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * Returns the file the result of an input is written to.
+     *
+     * @param input - image file
+     * @return output file
+     */
+    public File getOutputFile(File input) {
+        return getOutputFile(input, outputDirectory, outputPattern);
+    }
+
+    /**
+     * Returns the file the result of an input is written to.
+     *
+     * @param input - image file
+     * @param outputDirectory - directory of the results, or null for the input's directory
+     * @param outputPattern - pattern for naming results
+     * @return output file
+     */
+    public static File getOutputFile(File input, File outputDirectory, String outputPattern) {
+        String name = input.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot + 1) : "";
+        String outputName = outputPattern.replace("{name}", base).replace("{ext}", ext);
+        File directory = outputDirectory != null ? outputDirectory : input.getAbsoluteFile().getParentFile();
+        return new File(directory, outputName);
+    }
+
+    /**
+     * Processes all the images.
+     *
+     * @return results, in the order of the inputs
+     * @throws InterruptedException if interrupted before all images are done
+     */
+    public List<PipelineResult> run() throws InterruptedException {
+        if (outputDirectory != null)
+            outputDirectory.mkdirs();
+        List<File> outputs = new ArrayList<File>();
+        for (File input : inputs)
+            outputs.add(getOutputFile(input));
+
+        Pipeline pipeline = new Pipeline();
+        pipeline.setVerbose(false);
+        pipeline.setResultCache(cache);
+        pipeline.setPyramidFactor(pyramidFactor);
+        pipeline.setMinimumSegmentArea(minimumSegmentArea);
+        pipeline.setTiledThreshold(tiledThreshold);
+        StagedPipeline staged = new BatchExecutor(pipeline, threads, budget).newStagedPipeline();
+        staged.setIOService(new ImageIOService(ioThreads));
+        Profiler.getDefault().reset();
+        long start = System.nanoTime();
+        List<PipelineResult> results = staged.run(inputs, outputs, new BatchExecutor.ResultListener() {
+            public void resultReady(int index, PipelineResult result) {
+                report(result);
+            }
+        });
+        printSummary(results, System.nanoTime() - start);
+        out.println();
+        staged.printMetrics(out);
+        out.println();
+        Profiler.getDefault().print(out);
+        if (pipeline.getBufferPool() != null)
+            out.println("\n" + pipeline.getBufferPool());
+        if (cache != null)
+            out.println(cache);
+        return results;
+    }
+
+    /**
+     * Watches a directory, processing images as they arrive
+     * until interrupted. Images whose result is missing or
+     * out of date are processed first.
+     *
+     * @param directory - directory to watch
+     * @throws IOException if the directory cannot be watched
+     * @throws InterruptedException when interrupted
+     */
+    public void watch(File directory) throws IOException, InterruptedException {
+        if (outputDirectory != null)
+            outputDirectory.mkdirs();
+        Pipeline pipeline = new Pipeline();
+        pipeline.setVerbose(false);
+        pipeline.setResultCache(cache);
+        pipeline.setPyramidFactor(pyramidFactor);
+        pipeline.setMinimumSegmentArea(minimumSegmentArea);
+        pipeline.setTiledThreshold(tiledThreshold);
+        DirectoryWatcher watcher = new DirectoryWatcher(pipeline, directory, outputDirectory, outputPattern);
+        watcher.setListener(new BatchExecutor.ResultListener() {
+            public void resultReady(int index, PipelineResult result) {
+                report(result);
+            }
+        });
+        out.printf("Watching %s for images...\n", directory);
+        watcher.run();
+    }
+
+    /**
+     * Prints the time taken by an image, and adds its
+     * stage times to the statistics.
+     */
+    protected void report(PipelineResult result) {
+        timings.add(result);
+        if (result.isSuccessful() && result.isTiled()) {
+            out.printf("%s: %.1f ms, %.2f MP, %d segments (tiled, no result image)\n", result.getInput().getName(),
+                    result.getTotalNanos() / 1e6, result.getPixels() / 1e6, result.getShapes().size());
+        }
+        else if (result.isSuccessful()) {
+            out.printf("%s: %.1f ms, %.2f MP, %d segments -> %s%s\n", result.getInput().getName(),
+                    result.getTotalNanos() / 1e6, result.getPixels() / 1e6,
+                    result.getShapes().size(), result.getOutput().getName(),
+                    result.isCached() ? " (cached)" : "");
+        }
+        else {
+            out.printf("%s: FAILED (%s)\n", result.getInput().getName(), result.getError());
+        }
+    }
+
+    /**
+     * Prints the overall throughput and the stage times.
+     *
+     * @param results
+     * @param nanos - wall time of the whole batch
+     */
+    protected void printSummary(List<PipelineResult> results, long nanos) {
+        int succeeded = 0;
+        long pixels = 0;
+        for (PipelineResult result : results) {
+            if (result.isSuccessful()) {
+                succeeded++;
+                pixels += result.getPixels();
+            }
+        }
+        double seconds = nanos / 1e9;
+        out.printf("\n%d image%s processed (%d failed) in %.2f s: %.2f images/s, %.2f MP/s\n\n",
+                succeeded, succeeded == 1 ? "" : "s", results.size() - succeeded, seconds,
+                seconds > 0 ? succeeded / seconds : 0, seconds > 0 ? pixels / 1e6 / seconds : 0);
+        timings.print(out);
+    }
+
+    /**
+     * Finds the image files given by a list of directories,
+     * files and glob patterns (such as "images/**.png"),
+     * leaving out results written next to their inputs
+     * with the default output pattern.
+     *
+     * @param patterns - directories, files or glob patterns
+     * @return image files, each group sorted by name
+     * @throws IOException if a directory cannot be read
+     * @see #findInputs(String[], File, String)
+     */
+    public static List<File> findInputs(String[] patterns) throws IOException {
+        return findInputs(patterns, null, DEFAULT_OUTPUT_PATTERN);
+    }
+
+    /**
+     * Finds the image files given by a list of directories,
+     * files and glob patterns (such as "images/**.png").
+     * Directories give all the images they contain, by
+     * extension. Each file is only listed once. Images found
+     * in a directory or by a pattern which are the result of
+     * another image found with them are left out, so that
+     * running a batch again does not process its own results.
+     *
+     * @param patterns - directories, files or glob patterns
+     * @param outputDirectory - directory of the results, or null for the input's directory
+     * @param outputPattern - pattern for naming results
+     * @return image files, each group sorted by name
+     * @throws IOException if a directory cannot be read
+     */
+    public static List<File> findInputs(String[] patterns, File outputDirectory, String outputPattern)
+            throws IOException {
+        Set<File> seen = new HashSet<File>();
+        List<File> result = new ArrayList<File>();
+        for (String pattern : patterns) {
+            List<File> found = new ArrayList<File>();
+            File file = new File(pattern);
+            if (isGlob(pattern))
+                found.addAll(findMatches(pattern));
+            else if (file.isDirectory()) {
+                File[] files = file.listFiles();
+                if (files == null)
+                    throw new IOException("Cannot read directory: " + pattern);
+                for (File f : files) {
+                    if (f.isFile() && isImageFile(f))
+                        found.add(f);
+                }
+            }
+            else
+                found.add(file);
+
+            if (found.size() > 1) {
+                // Results of the images found are not images to process
+                Set<File> outputs = new HashSet<File>();
+                for (File f : found)
+                    outputs.add(getOutputFile(f, outputDirectory, outputPattern).getAbsoluteFile());
+                List<File> images = new ArrayList<File>();
+                for (File f : found) {
+                    if (!outputs.contains(f.getAbsoluteFile()))
+                        images.add(f);
+                }
+                found = images;
+            }
+            Collections.sort(found);
+            for (File f : found) {
+                if (seen.add(f.getAbsoluteFile()))
+                    result.add(f);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if a file has the extension of an
+     * image format that can be read.
+     *
+     * @param file
+     * @return whether the file looks like an image
+     */
+    public static boolean isImageFile(File file) {
+        String name = file.getName();
+        String ext = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        for (String suffix : ImageIO.getReaderFileSuffixes()) {
+            if (suffix.equalsIgnoreCase(ext))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean isGlob(String pattern) {
+        for (char c : "*?[{".toCharArray()) {
+            if (pattern.indexOf(c) >= 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Walks the directory in front of the first glob
+     * character, collecting the files which match.
+     */
+    private static List<File> findMatches(String pattern) throws IOException {
+        // Find the part of the pattern without glob characters
+        List<String> parts = Arrays.asList(pattern.split("[/\\\\]"));
+        int fixed = 0;
+        while (fixed < parts.size() - 1 && !isGlob(parts.get(fixed)))
+            fixed++;
+        StringBuilder directory = new StringBuilder();
+        for (int i = 0; i < fixed; i++)
+            directory.append(parts.get(i)).append('/');
+        final boolean relative = fixed == 0;
+        final Path base = Paths.get(relative ? "." : directory.toString());
+        int depth = pattern.contains("**") ? Integer.MAX_VALUE : parts.size() - fixed;
+
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+        final List<File> result = new ArrayList<File>();
+        if (!Files.isDirectory(base))
+            return result;
+        Files.walkFileTree(base, EnumSet.noneOf(FileVisitOption.class), depth, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                Path path = relative ? base.relativize(file) : file;
+                if (attrs.isRegularFile() && matcher.matches(path))
+                    result.add(file.toFile());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return result;
+    }
+}
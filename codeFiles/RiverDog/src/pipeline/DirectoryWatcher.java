@@ -0,0 +1,305 @@
+package pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a directory for new or changed images and runs
+ * each one through the pipeline as it arrives, rather than
+ * reprocessing the whole directory. Images are only picked
+ * up once their size has stopped changing for a quiet
+ * period, so that files still being copied in are not read
+ * half written.
+ *
+ * When watching starts, images whose result is missing or
+ * older than the image are processed first. Images are
+ * submitted to a StagedPipeline as they settle, so several
+ * can be in flight at once, and results are handed to a
+ * listener in the order the images arrived.
+ */
+public class DirectoryWatcher {
+    public static final long DEFAULT_QUIET_PERIOD = 1000;
+    private static final long POLL_MILLIS = 100;
+    private final File directory;
+    private final File outputDirectory;
+    private final String outputPattern;
+    private long quietPeriod = DEFAULT_QUIET_PERIOD;
+    private volatile BatchExecutor.ResultListener listener;
+    // Images seen changing, waiting for their size to settle
+    private final Map<File, Pending> pending = new HashMap<File, Pending>();
+    // Size and modification time of each image when it was last processed
+    private final Map<File, String> processed = new HashMap<File, String>();
+    // Results written by the watcher, which are not inputs even in the same directory
+    private final Set<File> outputs = new HashSet<File>();
+    private final StagedPipeline staged;
+    private volatile WatchService watchService;
+    private volatile boolean stopped = false;
+
+    /**
+     * @param pipeline - pipeline to run the images through
+     * @param directory - directory to watch
+     * @param outputDirectory - directory of the results, or null for the watched directory
+     * @param outputPattern - pattern for naming results, as in BatchRunner
+     */
+    public DirectoryWatcher(Pipeline pipeline, File directory, File outputDirectory, String outputPattern) {
+        this(new StagedPipeline(pipeline), directory, outputDirectory, outputPattern);
+    }
+
+    /**
+     * @param staged - staged pipeline to run the images through, not running
+     * @param directory - directory to watch
+     * @param outputDirectory - directory of the results, or null for the watched directory
+     * @param outputPattern - pattern for naming results, as in BatchRunner
+     */
+    public DirectoryWatcher(StagedPipeline staged, File directory, File outputDirectory, String outputPattern) {
+        this.staged = staged;
+        this.directory = directory.getAbsoluteFile();
+        this.outputDirectory = outputDirectory;
+        this.outputPattern = outputPattern;
+    }
+
+    /**
+     * Sets how long the size of an image must stay the
+     * same before it is processed.
+     *
+     * @param millis - quiet period in milliseconds
+     */
+    public void setQuietPeriod(long millis) {
+        quietPeriod = millis;
+    }
+
+    /**
+     * Sets the listener receiving each result, with the
+     * number of images processed before it as its index.
+     * It is called from a worker thread of the pipeline.
+     *
+     * @param listener
+     */
+    public void setListener(BatchExecutor.ResultListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Watches the directory on a background thread until
+     * stop() is called.
+     *
+     * @throws IOException if the directory cannot be watched
+     */
+    public void start() throws IOException {
+        open();
+        Thread thread = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    process();
+                }
+                catch (InterruptedException e) {
+                    stop();
+                }
+            }
+        }, "directory-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Watches the directory on the calling thread until
+     * stop() is called or the thread is interrupted.
+     *
+     * @throws IOException if the directory cannot be watched
+     * @throws InterruptedException if interrupted; images in flight are dropped
+     */
+    public void run() throws IOException, InterruptedException {
+        open();
+        try {
+            process();
+        }
+        finally {
+            stop();
+        }
+    }
+
+    /**
+     * Stops watching. Images already being processed
+     * are finished.
+     */
+    public void stop() {
+        stopped = true;
+        try {
+            if (watchService != null)
+                watchService.close();
+        }
+        catch (IOException e) {
+            // Nothing more to watch anyway
+        }
+    }
+
+    private void open() throws IOException {
+        if (!directory.isDirectory())
+            throw new IOException("Not a directory: " + directory);
+        watchService = directory.toPath().getFileSystem().newWatchService();
+        directory.toPath().register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        // Register before scanning, so that nothing arriving in between is missed
+        scan(true);
+    }
+
+    /**
+     * Runs the staged pipeline while watching, waiting for the
+     * images in flight once watching stops.
+     */
+    private void process() throws InterruptedException {
+        staged.start(new BatchExecutor.ResultListener() {
+            public void resultReady(int index, PipelineResult result) {
+                if (listener != null)
+                    listener.resultReady(index, result);
+            }
+        });
+        boolean finished = false;
+        try {
+            watch();
+            staged.finish();
+            finished = true;
+        }
+        finally {
+            if (!finished)
+                staged.cancel();
+        }
+    }
+
+    private void watch() throws InterruptedException {
+        try {
+            while (!stopped) {
+                WatchKey key = watchService.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+                            // Events were lost: look at every image again
+                            scan(false);
+                        else
+                            changed(new File(directory, ((Path) event.context()).toString()));
+                    }
+                    if (!key.reset())
+                        // The directory is gone
+                        break;
+                }
+                submitSettled();
+            }
+        }
+        catch (ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    /**
+     * Looks at every image in the directory, queueing those
+     * which are new or changed since they were processed.
+     *
+     * @param initial - true when starting, when an image counts as processed if its result is newer
+     */
+    private void scan(boolean initial) {
+        File[] files = directory.listFiles();
+        if (files == null)
+            return;
+        // Results kept next to their images are not images to process
+        for (File file : files) {
+            if (isInput(file))
+                outputs.add(BatchRunner.getOutputFile(file, outputDirectory, outputPattern).getAbsoluteFile());
+        }
+        for (File file : files) {
+            if (!isInput(file))
+                continue;
+            File output = BatchRunner.getOutputFile(file, outputDirectory, outputPattern);
+            if (initial && output.lastModified() >= file.lastModified())
+                processed.put(file, getStamp(file));
+            else
+                changed(file);
+        }
+    }
+
+    private boolean isInput(File file) {
+        return file.isFile() && BatchRunner.isImageFile(file) && !outputs.contains(file);
+    }
+
+    /**
+     * Notes that an image was created or written to.
+     */
+    private void changed(File file) {
+        if (!isInput(file))
+            return;
+        Pending p = pending.get(file);
+        if (p == null) {
+            p = new Pending();
+            pending.put(file, p);
+        }
+        p.size = file.length();
+        p.lastChange = System.currentTimeMillis();
+    }
+
+    /**
+     * Processes the images whose size has not changed for
+     * the quiet period, unless they are the same as when
+     * they were last processed.
+     */
+    private void submitSettled() throws InterruptedException {
+        long now = System.currentTimeMillis();
+        Iterator<Map.Entry<File, Pending>> it = pending.entrySet().iterator();
+        while (it.hasNext() && !stopped) {
+            Map.Entry<File, Pending> entry = it.next();
+            File file = entry.getKey();
+            Pending p = entry.getValue();
+            if (!file.isFile()) {
+                it.remove();
+                continue;
+            }
+            long size = file.length();
+            if (size != p.size) {
+                // Still being written
+                p.size = size;
+                p.lastChange = now;
+            }
+            else if (now - p.lastChange >= quietPeriod) {
+                it.remove();
+                String stamp = getStamp(file);
+                if (!stamp.equals(processed.put(file, stamp)))
+                    submit(file);
+            }
+        }
+    }
+
+    /**
+     * Submits an image to be processed, unless the watcher
+     * has been stopped. Only the watching thread submits
+     * images, so none can follow the end of the run.
+     */
+    private void submit(File input) throws InterruptedException {
+        if (stopped)
+            return;
+        File output = BatchRunner.getOutputFile(input, outputDirectory, outputPattern);
+        outputs.add(output.getAbsoluteFile());
+        staged.submit(input, output);
+    }
+
+    private static String getStamp(File file) {
+        return file.length() + ":" + file.lastModified();
+    }
+
+    /**
+     * An image waiting for its size to settle.
+     */
+    private static class Pending {
+        long size;
+        long lastChange;
+    }
+}
@@ -0,0 +1,95 @@
+package pipeline;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives the threads a StagedPipeline reads and writes images
+ * on, and how many of its workers do so. Where the JVM
+ * supports virtual threads, every reading and writing worker
+ * gets its own virtual thread; otherwise a pool of daemon
+ * threads is used.
+ */
+public class ImageIOService {
+    private static final boolean VIRTUAL_THREADS = isVirtualThreadSupported();
+    private final int threads;
+
+    /**
+     * @param threads - number of workers for decoding, and as many for encoding
+     */
+    public ImageIOService(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Returns true if reads and writes run on virtual threads.
+     *
+     * @return whether virtual threads are used
+     */
+    public boolean usesVirtualThreads() {
+        return VIRTUAL_THREADS;
+    }
+
+    /**
+     * Creates the executor the reading and writing workers
+     * of a run are started on.
+     *
+     * @return virtual thread executor, or a pool of daemon threads
+     */
+    ExecutorService newExecutor() {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        return virtual != null ? virtual : Executors.newCachedThreadPool(new NamedThreadFactory("image-io"));
+    }
+
+    private static boolean isVirtualThreadSupported() {
+        ExecutorService virtual = newVirtualThreadExecutor();
+        if (virtual == null)
+            return false;
+        virtual.shutdown();
+        return true;
+    }
+
+    /**
+     * Creates an executor starting a virtual thread per task,
+     * looked up by reflection so that older JVMs can still run
+     * the rest of the program.
+     *
+     * @return virtual thread executor, or null if not supported
+     */
+    static ExecutorService newVirtualThreadExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        }
+        catch (Exception e) {
+            // Not available in this JVM
+            return null;
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so that idle pools
+     * never keep the program running.
+     */
+    static class NamedThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        NamedThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package pipeline;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import modules.BinaryMask;
+import riverObjects.ImageShape;
+
+/**
+ * An image on its way through the stages of a pipeline,
+ * holding what each stage hands to the next. This is the
+ * one place the stages are run, whether one after the other
+ * by Pipeline.process() or by the workers of a
+ * StagedPipeline. Errors are kept in
+ * the result of the image rather than thrown, so that one
+ * broken image does not stop a batch.
+ */
+class ImageJob {
+    private final Pipeline pipeline;
+    private final PipelineResult result;
+    private BufferedImage img;
+    private BinaryMask classified;
+    private List<ImageShape> shapes;
+    // Gives back the memory held by the image, run once
+    private Runnable release;
+    private final AtomicBoolean released = new AtomicBoolean();
+    // Whether the rendered image was handed over to be written
+    private volatile boolean writing = false;
+
+    /**
+     * @param pipeline - pipeline whose stages are run
+     * @param result - result of the image, with its input and output
+     */
+    ImageJob(Pipeline pipeline, PipelineResult result) {
+        this.pipeline = pipeline;
+        this.result = result;
+    }
+
+    PipelineResult getResult() {
+        return result;
+    }
+
+    /**
+     * Sets what gives back the memory held by the image, such
+     * as its share of a memory budget. It is run once the image
+     * has left the pipeline and its result is written.
+     *
+     * @param release - run once, from any thread
+     */
+    void setRelease(Runnable release) {
+        this.release = release;
+    }
+
+    /**
+     * Runs a stage on the image, recording its time. An image
+     * served from the result cache or detected in tiles is
+     * finished by DECODE, and every other image is finished by
+     * ENCODE or by an error.
+     *
+     * @param stage - stage to run
+     * @return true if the image goes on to the next stage
+     */
+    boolean run(Stage stage) {
+        long start = System.nanoTime();
+        try {
+            switch (stage) {
+            case DECODE:
+                if (pipeline.loadCached(result)) {
+                    // The cached result is already written
+                    result.record(stage, start);
+                    return false;
+                }
+                if (pipeline.detectTiled(result)) {
+                    // Too large to decode, so there is nothing to render or write
+                    result.record(Stage.DETECT, start);
+                    return false;
+                }
+                img = pipeline.decode(result.getInput());
+                result.setPixels((long) img.getWidth() * img.getHeight());
+                break;
+            case CLASSIFY:
+                classified = pipeline.classify(img);
+                break;
+            case DETECT:
+                // The mask goes back to the buffer pool
+                BinaryMask mask = classified;
+                classified = null;
+                shapes = pipeline.detect(mask, img);
+                result.setShapes(shapes);
+                break;
+            case RENDER:
+                // The decoded image is not used elsewhere, so it is drawn on directly
+                img = pipeline.render(img, shapes);
+                break;
+            case ENCODE:
+                BufferedImage rendered = img;
+                img = null;
+                if (result.getOutput() == null) {
+                    result.setImage(rendered);
+                    return false;
+                }
+                // With a result bus the image is still held until the bus has written it
+                writing = true;
+                pipeline.write(result, rendered, new Runnable() {
+                    public void run() {
+                        release();
+                    }
+                });
+                break;
+            }
+            result.record(stage, start);
+            return stage != Stage.ENCODE;
+        }
+        catch (IOException e) {
+            fail(e);
+        }
+        catch (RuntimeException e) {
+            fail(e);
+        }
+        catch (Error e) {
+            // Such as running out of memory: report it for this image only
+            fail(new ExecutionException(e));
+        }
+        return false;
+    }
+
+    /**
+     * Gives up on the image, keeping the error in its result.
+     *
+     * @param e - reason
+     */
+    void fail(Exception e) {
+        result.setError(e);
+        writing = false;
+        clear();
+    }
+
+    /**
+     * Takes the image out of the pipeline, giving back its
+     * memory unless its rendered image is still waiting to
+     * be written.
+     */
+    void finish() {
+        clear();
+        if (!writing)
+            release();
+    }
+
+    private void release() {
+        if (release != null && released.compareAndSet(false, true))
+            release.run();
+    }
+
+    /**
+     * Drops the images held between stages.
+     */
+    void clear() {
+        img = null;
+        classified = null;
+        shapes = null;
+    }
+}
@@ -0,0 +1,128 @@
+package pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Limits the memory used by images being processed at
+ * the same time. Each image reserves an estimate of the
+ * bytes it needs, based on its pixel count, and waits
+ * while the budget is used up. An image larger than the
+ * whole budget is still let through once nothing else
+ * is running, so that it never waits forever.
+ */
+public class MemoryBudget {
+    /**
+     * Estimated peak bytes needed per pixel: the decoded
+     * image and a packed copy of it, the component labels
+     * and their union-find forest, and the bit masks.
+     */
+    public static final int BYTES_PER_PIXEL = 20;
+    private final long capacity;
+    private long used = 0;
+
+    /**
+     * Creates a budget of the given size.
+     *
+     * @param capacity - budget in bytes
+     */
+    public MemoryBudget(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates a budget from a fraction of the maximum
+     * heap size, leaving the rest for everything else.
+     *
+     * @param fraction - 0 to 1
+     * @return memory budget
+     */
+    public static MemoryBudget fromHeap(double fraction) {
+        return new MemoryBudget((long) (Runtime.getRuntime().maxMemory() * fraction));
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public synchronized long getUsed() {
+        return used;
+    }
+
+    /**
+     * Reserves bytes from the budget, waiting until
+     * enough have been released.
+     *
+     * @param bytes - bytes to reserve
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void acquire(long bytes) throws InterruptedException {
+        while (used > 0 && used + bytes > capacity)
+            wait();
+        used += bytes;
+    }
+
+    /**
+     * Returns reserved bytes to the budget.
+     *
+     * @param bytes - bytes reserved earlier
+     */
+    public synchronized void release(long bytes) {
+        used -= bytes;
+        notifyAll();
+    }
+
+    /**
+     * Estimates the bytes needed to process an image, reading
+     * only its header to find its size. If the header cannot be
+     * read the file size is used, as the image will fail to
+     * decode anyway.
+     *
+     * @param image - image file
+     * @return estimated bytes
+     */
+    public static long estimateBytes(File image) {
+        long pixels = readPixelCount(image);
+        if (pixels < 0)
+            return image.length();
+        return pixels * BYTES_PER_PIXEL;
+    }
+
+    /**
+     * Reads the width and height of an image from its header.
+     *
+     * @param image - image file
+     * @return number of pixels, or -1 if unknown
+     */
+    public static long readPixelCount(File image) {
+        try {
+            ImageInputStream stream = ImageIO.createImageInputStream(image);
+            if (stream == null)
+                return -1;
+            try {
+                Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+                if (!readers.hasNext())
+                    return -1;
+                ImageReader reader = readers.next();
+                try {
+                    reader.setInput(stream, true, true);
+                    return (long) reader.getWidth(0) * reader.getHeight(0);
+                }
+                finally {
+                    reader.dispose();
+                }
+            }
+            finally {
+                stream.close();
+            }
+        }
+        catch (IOException e) {
+            return -1;
+        }
+    }
+}
@@ -2,17 +2,21 @@ package pipeline;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.awt.image.ColorModel;
-import java.awt.image.WritableRaster;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.List;
 
 import javax.imageio.ImageIO;
 
+import modules.BinaryMask;
 import modules.BlobDetection;
 import modules.BoundaryRenderer;
+import modules.BufferPool;
+import modules.CancellationToken;
 import modules.ColorClassifier;
+import modules.ImageView;
+import modules.PyramidDetection;
 import riverObjects.ImageShape;
 
 /**
@@ -36,7 +40,29 @@ public class Pipeline {
 	Color[] RiverCols 	= {quantBlack, quantBlue, quantAqua, quantGrey};
 	Color[] notRiver	= {quantRed, quantGreen, quantYello, quantPurp};
 	
+    // Area (in pixels) below which blobs are usually speckle, for setMinimumSegmentArea()
+    public static final int SPECKLE_AREA = 16;
+    public static final Color OUTLINE_COLOR = Color.RED;
+    // Change this whenever results would change without the settings changing
+    private static final int RESULT_VERSION = 1;
     private String[] originalNames;
+    private boolean verbose = true;
+    private BufferPool bufferPool = BufferPool.getDefault();
+    private ResultCache resultCache;
+    private ResultBus resultBus;
+    private int pyramidFactor = 1;
+    private int minimumSegmentArea = 1;
+    private long tiledThreshold = 0;
+    private volatile CancellationToken cancellation;
+    private volatile StageListener stageListener;
+    
+    /**
+     * Told whenever an image enters a stage, from the
+     * thread running the stage.
+     */
+    public interface StageListener {
+        void stageStarted(Stage stage);
+    }
 
     public Pipeline( String[] imageNames ) {
         originalNames = imageNames;
@@ -47,51 +73,461 @@ public class Pipeline {
         
     }
     
+    /**
+     * Runs a single image through the pipeline, returning
+     * the image with the river boundaries drawn on.
+     * 
+     * @param image - image file
+     * @return rendered image, or null if the image could not be read
+     */
     public BufferedImage startPipeline(File image){
         BufferedImage img = null;
         try{
-            img = ImageIO.read(image);
+            img = decode(image);
         }catch(IOException e){System.out.printf("Failed to read image: '%s'\n", 
-                image.getName());}
+                image.getName());
+            return null;}
         
-        //==========================================================
-        //              COLOR CLASSIFIER
-        //==========================================================
-        /* Use the color classifier to determine which pixels are
-         * likely to be part of a river */
-
+        BinaryMask classified = classify(img);
+        List<ImageShape> shapeList = detect(classified, img);
+        // The decoded image is not used elsewhere, so it is drawn on directly
+        return render(img, shapeList);
+    }
+    
+    /**
+     * Runs an image through every stage of the pipeline,
+     * timing each stage. Errors are kept in the result
+     * rather than thrown, so that one broken image does
+     * not stop a batch.
+     * 
+     * @param input - image file
+     * @param output - file to write the result to, or null to keep the rendered image instead
+     * @return result with the segments found and the stage times
+     */
+    public PipelineResult process(File input, File output) {
+        ImageJob job = new ImageJob(this, new PipelineResult(input, output));
+        for (Stage stage : Stage.values()) {
+            if (!job.run(stage))
+                break;
+        }
+        return job.getResult();
+    }
+    
+    /**
+     * Prints progress messages of the pipeline stages,
+     * which is on by default.
+     * 
+     * @param verbose
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+    
+    /**
+     * Sets the pool the modules borrow their intermediate
+     * buffers from, by default the shared pool. Null turns
+     * pooling off.
+     * 
+     * @param pool
+     */
+    public void setBufferPool(BufferPool pool) {
+        bufferPool = pool;
+    }
+    
+    public BufferPool getBufferPool() {
+        return bufferPool;
+    }
+    
+    /**
+     * Sets the sampling step of the coarse classification in
+     * pyramid mode, such as 4 or 8. River segments are then
+     * only classified and traced at full resolution around
+     * the candidates found at the coarse resolution. The
+     * default of 1 turns pyramid mode off.
+     * 
+     * @param factor - sampling step
+     * @see PyramidDetection
+     */
+    public void setPyramidFactor(int factor) {
+        pyramidFactor = Math.max(1, factor);
+    }
+    
+    public int getPyramidFactor() {
+        return pyramidFactor;
+    }
+    
+    /**
+     * Sets the least area (in pixels) of the blobs traced as
+     * river segments. Smaller blobs are taken as speckle and
+     * dropped before tracing, which is faster on noisy images
+     * but can change which segments are found. The default
+     * of 1 keeps every blob.
+     * 
+     * @param area - minimum blob area, such as SPECKLE_AREA
+     */
+    public void setMinimumSegmentArea(int area) {
+        minimumSegmentArea = Math.max(1, area);
+    }
+    
+    public int getMinimumSegmentArea() {
+        return minimumSegmentArea;
+    }
+    
+    /**
+     * Sets the size from which images are too large to be
+     * decoded whole, and only have their river segments found
+     * by a TiledRiverDetector. No result image is rendered or
+     * written for them. The default of 0 decodes every image.
+     * 
+     * @param pixels - least number of pixels of a tiled image, or 0 to never tile
+     * @see #detectTiled(PipelineResult)
+     */
+    public void setTiledThreshold(long pixels) {
+        tiledThreshold = Math.max(0, pixels);
+    }
+    
+    public long getTiledThreshold() {
+        return tiledThreshold;
+    }
+    
+    /**
+     * Sets the token checked before every stage and, within
+     * the classifier and blob detection, before every row or
+     * shape. Once it is cancelled, stages give up with a
+     * CancellationException, which ends up as the error of
+     * the images in flight. Null (the default) never cancels.
+     * 
+     * @param token
+     */
+    public void setCancellationToken(CancellationToken token) {
+        cancellation = token;
+    }
+    
+    public CancellationToken getCancellationToken() {
+        return cancellation;
+    }
+    
+    /**
+     * Sets the listener told as images enter each stage,
+     * or null for none.
+     * 
+     * @param listener
+     */
+    public void setStageListener(StageListener listener) {
+        stageListener = listener;
+    }
+    
+    /**
+     * Checks for cancellation and tells the listener that an
+     * image is entering a stage.
+     */
+    private void beginStage(Stage stage) {
+        CancellationToken.check(cancellation);
+        StageListener listener = stageListener;
+        if (listener != null)
+            listener.stageStarted(stage);
+    }
+    
+    /**
+     * Sets the cache of results which lets unchanged images
+     * skip processing. Null (the default) turns caching off.
+     * 
+     * @param cache
+     */
+    public void setResultCache(ResultCache cache) {
+        resultCache = cache;
+    }
+    
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+    
+    /**
+     * Sets the bus results are published on as soon as they
+     * are rendered, leaving them to be written in the
+     * background. Null (the default) writes each result
+     * before going on.
+     * 
+     * @param bus
+     * @see ResultBus
+     */
+    public void setResultBus(ResultBus bus) {
+        resultBus = bus;
+    }
+    
+    public ResultBus getResultBus() {
+        return resultBus;
+    }
+    
+    /**
+     * Describes every setting which affects the results,
+     * so that cached results are only used with the same
+     * settings.
+     * 
+     * @param output - file the result is written to
+     * @return description of the configuration
+     */
+    public String getConfiguration(File output) {
+        return String.format("version=%d hsb=%s,%s,%s,%s,%s,%s similarity=%s area=%d pyramid=%d outline=%08x format=%s",
+                RESULT_VERSION,
+                ColorClassifier.HUE_LOWER_LIMIT, ColorClassifier.HUE_UPPER_LIMIT,
+                ColorClassifier.SATURATION_LOWER_LIMIT, ColorClassifier.SATURATION_UPPER_LIMIT,
+                ColorClassifier.BRIGHTNESS_LOWER_LIMIT, ColorClassifier.BRIGHTNESS_UPPER_LIMIT,
+                BlobDetection.COLOR_SIMILARITY_THRESHOLD, minimumSegmentArea, pyramidFactor,
+                OUTLINE_COLOR.getRGB(), getFormat(output));
+    }
+    
+    /**
+     * Serves an image from the result cache, writing the
+     * stored result image without decoding the input. On a
+     * miss, the key is kept in the result for storeCached().
+     * 
+     * @param result - result of the image, with its input and output
+     * @return true if the result was found and written
+     * @throws IOException if the input cannot be read or the output written
+     */
+    public boolean loadCached(PipelineResult result) throws IOException {
+        if (resultCache == null || result.getOutput() == null)
+            return false;
+        String key = ResultCache.computeKey(result.getInput(), getConfiguration(result.getOutput()));
+        result.setCacheKey(key);
+        ResultCache.Entry entry = resultCache.get(key);
+        if (entry == null)
+            return false;
+        Files.write(result.getOutput().toPath(), entry.getOutput());
+        result.setShapes(entry.getShapes());
+        result.setPixels(entry.getPixels());
+        result.setCached(true);
+        if (resultBus != null)
+            resultBus.publish(result, null, this);
+        return true;
+    }
+    
+    /**
+     * Finds the river segments of an image of at least the
+     * tiled threshold, reading it tile by tile instead of
+     * decoding it. The segments are kept in the result, which
+     * is marked as tiled since no image is written. Such an
+     * image in a format which cannot be read tile by tile,
+     * such as PNG or JPEG, is refused rather than decoded
+     * again for every tile.
+     * 
+     * @param result - result of the image, with its input
+     * @return true if the image was large enough to be tiled
+     * @throws IOException if the image cannot be read, or is too large and cannot be read in tiles
+     * @see TiledRiverDetector
+     */
+    public boolean detectTiled(PipelineResult result) throws IOException {
+        if (tiledThreshold <= 0)
+            return false;
+        long pixels = MemoryBudget.readPixelCount(result.getInput());
+        if (pixels < tiledThreshold)
+            return false;
+        if (!TiledRiverDetector.canReadTiles(result.getInput()))
+            throw new IOException("Too large to decode whole, and its format cannot be read in tiles: "
+                    + result.getInput().getName());
+        beginStage(Stage.DETECT);
+        TiledRiverDetector detector = new TiledRiverDetector();
+        detector.setMinimumArea(minimumSegmentArea);
+        detector.setBufferPool(bufferPool);
+        detector.setVerbose(verbose);
+        result.setPixels(pixels);
+        result.setShapes(detector.detect(result.getInput()));
+        result.setTiled(true);
+        return true;
+    }
+    
+    /**
+     * Stores a written result in the result cache, if the
+     * image was looked up with loadCached().
+     * 
+     * @param result - successful result of the image
+     */
+    public void storeCached(PipelineResult result) {
+        if (resultCache == null || result.getCacheKey() == null || result.isCached())
+            return;
+        try {
+            byte[] output = Files.readAllBytes(result.getOutput().toPath());
+            resultCache.put(result.getCacheKey(), result.getShapes(), result.getPixels(), output);
+        }
+        catch (IOException e) {
+            // The result itself was written, so it only costs processing it again next time
+            if (verbose)
+                System.out.printf("\tCould not cache result: %s\n", e.getMessage());
+        }
+    }
+    
+    /**
+     * Writes the rendered image of a result to its output
+     * file and stores it in the result cache. With a result
+     * bus, the result is published instead and written in
+     * the background.
+     * 
+     * @param result - successful result of the image, with its output
+     * @param rendered - image with boundaries drawn on
+     * @throws IOException if the file cannot be written
+     */
+    public void write(PipelineResult result, BufferedImage rendered) throws IOException {
+        write(result, rendered, null);
+    }
+    
+    /**
+     * Writes the rendered image of a result, as write() does,
+     * telling the caller once the image is no longer needed.
+     * With a result bus, that is only after the bus has
+     * written it, which may be after this returns.
+     * 
+     * @param result - successful result of the image, with its output
+     * @param rendered - image with boundaries drawn on
+     * @param whenWritten - run once the image is written or could not be, may be null
+     * @throws IOException if the file cannot be written
+     */
+    public void write(PipelineResult result, BufferedImage rendered, Runnable whenWritten) throws IOException {
+        ResultBus bus = resultBus;
+        if (bus != null) {
+            bus.publish(result, rendered, this, whenWritten);
+            return;
+        }
+        try {
+            encode(rendered, result.getOutput());
+            storeCached(result);
+        }
+        finally {
+            if (whenWritten != null)
+                whenWritten.run();
+        }
+    }
+    
+    /**
+     * Writes and caches a result, for the result bus. Unlike
+     * encode(), this is not stopped by the cancellation token,
+     * since the result is already published.
+     */
+    void save(PipelineResult result, BufferedImage rendered) throws IOException {
+        writeImage(rendered, result.getOutput());
+        storeCached(result);
+    }
+    
+    /**
+     * Reads and decodes an image file.
+     * 
+     * @param image - image file
+     * @return decoded image
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public BufferedImage decode(File image) throws IOException {
+        beginStage(Stage.DECODE);
+        BufferedImage img = ImageIO.read(image);
+        if (img == null)
+            throw new IOException("Unsupported image format: " + image.getName());
+        return img;
+    }
+    
+    /**
+     * Uses the color classifier to determine which pixels
+     * are likely to be part of a river. In pyramid mode,
+     * only one pixel of every block is classified, giving
+     * a mask smaller than the image.
+     * 
+     * @param img - original image
+     * @return mask of the potential river pixels
+     */
+    public BinaryMask classify(BufferedImage img) {
+        beginStage(Stage.CLASSIFY);
+        if (pyramidFactor > 1) {
+            PyramidDetection pyramid = new PyramidDetection(img, pyramidFactor);
+            pyramid.setBufferPool(bufferPool);
+            pyramid.setCancellationToken(cancellation);
+            if (verbose)
+                System.out.println("\tRun coarse color classifier");
+            return pyramid.classifyCoarse();
+        }
         ColorClassifier cc = new ColorClassifier(img);
-        System.out.println("\tRun color classifier");
-        BufferedImage classifiedImg = cc.getImage();
-//        try {
-//                ImageIO.write( classifiedImg, "png",
-//                                new File(image.getCanonicalPath().replaceAll( "\\..+$", "-classified.png")));
-//        }
-//        catch ( IOException e1 ) {
-//                e1.printStackTrace();
-//        }
-
-
-        //==========================================================
-        //				SHAPE FINDER
-        //==========================================================
-        /* Use the blob finder for finding the largest blob in
-         * the picture */
-
-        BlobDetection blobs = new BlobDetection(classifiedImg, img);
-        System.out.println("\tRun blob detection");
-        List<ImageShape> shapeList = blobs.findLargestRelatedShapes();
-
-        //==========================================================
-        //				DRAW BOUNDARIES
-        //==========================================================
-        BoundaryRenderer renderer = new BoundaryRenderer(img);
-        renderer.setOutlineColor( Color.RED );
+        cc.setUseLookupTable(true);
+        cc.setBufferPool(bufferPool);
+        cc.setCancellationToken(cancellation);
+        if (verbose)
+            System.out.println("\tRun color classifier");
+        return cc.getMask();
+    }
+    
+    /**
+     * Uses the blob finder for finding the largest blob in
+     * the picture, along with the segments related to it.
+     * The mask is given back to the buffer pool afterwards,
+     * so it must not be used again. A mask smaller than the
+     * image is taken as the coarse mask of pyramid mode.
+     * 
+     * @param classified - mask of the potential river pixels
+     * @param img - original image
+     * @return river segments
+     */
+    public List<ImageShape> detect(BinaryMask classified, BufferedImage img) {
+        beginStage(Stage.DETECT);
+        if (classified.getWidth() != img.getWidth() || classified.getHeight() != img.getHeight()) {
+            PyramidDetection pyramid = new PyramidDetection(img, pyramidFactor);
+            pyramid.setMinimumArea( minimumSegmentArea );
+            pyramid.setBufferPool( bufferPool );
+            pyramid.setCancellationToken( cancellation );
+            if (verbose)
+                System.out.println("\tRun blob detection around candidates");
+            List<ImageShape> shapes = pyramid.findLargestRelatedShapes(classified);
+            classified.release( bufferPool );
+            return shapes;
+        }
+        BlobDetection blobs = new BlobDetection(classified, img);
+        blobs.setMinimumArea( minimumSegmentArea );
+        blobs.setBufferPool( bufferPool );
+        blobs.setCancellationToken( cancellation );
+        if (verbose)
+            System.out.println("\tRun blob detection");
+        List<ImageShape> shapes = blobs.findLargestRelatedShapes();
+        classified.release( bufferPool );
+        return shapes;
+    }
+    
+    /**
+     * Draws the boundaries of the river segments.
+     * 
+     * @param img - decoded image, which is drawn on
+     * @param shapeList - river segments
+     * @return image with boundaries drawn on
+     */
+    public BufferedImage render(BufferedImage img, List<ImageShape> shapeList) {
+        beginStage(Stage.RENDER);
+        BoundaryRenderer renderer = new BoundaryRenderer(ImageView.writable(img));
+        renderer.setOutlineColor( OUTLINE_COLOR );
         renderer.setImageShapes( shapeList );
-
-        return deepCopy(renderer.getImage());
-        
+        return renderer.getImage();
+    }
+    
+    /**
+     * Encodes and writes an image. The format is taken from
+     * the file extension, falling back to PNG.
+     * 
+     * @param img - image to write
+     * @param output - output file
+     * @throws IOException if the file cannot be written
+     */
+    public void encode(BufferedImage img, File output) throws IOException {
+        beginStage(Stage.ENCODE);
+        writeImage(img, output);
+    }
+    
+    private void writeImage(BufferedImage img, File output) throws IOException {
+        String format = getFormat(output);
+        if (!ImageIO.write(img, format, output))
+            throw new IOException("No writer for format: " + format);
+    }
+    
+    private static String getFormat(File output) {
+        String name = output.getName();
+        String format = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        if (name.indexOf('.') < 0 || !ImageIO.getImageWritersBySuffix(format).hasNext())
+            format = "png";
+        return format;
     }
+    
     /**
      * Runs all images through the image processing pipeline filters, rendering the
      * image objects for each image (in the order they were put into the
@@ -114,54 +550,31 @@ public class Pipeline {
             for (String imgName : originalNames) {
                 try {
                     // Load image
-                    img = ImageIO.read( new File(imgName) );
+                    img = decode( new File(imgName) );
                     System.out.printf("Loaded image '%s'\n", imgName);
                 }
                 catch ( IOException e2 ) {
                     System.out.printf("Failed to read image: '%s'\n", imgName);
+                    index++;
+                    continue;
                 }
                 
-                //==========================================================
-                //              COLOR CLASSIFIER
-                //==========================================================
-                /* Use the color classifier to determine which pixels are
-                 * likely to be part of a river */
-                
-                ColorClassifier cc = new ColorClassifier(img);
-                System.out.println("\tRun color classifier");
-                BufferedImage classifiedImg = cc.getImage();
+                BinaryMask classified = classify(img);
                 try {
-                	ImageIO.write( classifiedImg, "png",
+                	ImageIO.write( classified.toImage(), "png",
                 			new File(originalNames[index].replaceAll( "\\..+$", "-classified.png")));
                 }
                 catch ( IOException e1 ) {
                 	e1.printStackTrace();
                 }
                 
-
-                //==========================================================
-                //				SHAPE FINDER
-                //==========================================================
-                /* Use the blob finder for finding the largest blob in
-                 * the picture */
-                
-                BlobDetection blobs = new BlobDetection(classifiedImg, img);
-                System.out.println("\tRun blob detection");
-                List<ImageShape> shapeList = blobs.findLargestRelatedShapes();
-                
-                //==========================================================
-                //				DRAW BOUNDARIES
-                //==========================================================
-                BoundaryRenderer renderer = new BoundaryRenderer(img);
-                renderer.setOutlineColor( Color.RED );
-                renderer.setImageShapes( shapeList );
+                List<ImageShape> shapeList = detect(classified, img);
                 
                 // Render the image result
                 try {
                     String saveName = originalNames[index].replaceAll( "\\..+$", "-riverDetected.png");
                     System.out.printf("\tRender boundaries and save result as '%s'\n\n", saveName);
-                    ImageIO.write( renderer.getImage(), "png",
-                            new File(saveName));
+                    encode( render(img, shapeList), new File(saveName) );
                 }
                 catch (IOException e) {
                     System.out.println("Problem saving output image for " +
@@ -187,13 +600,7 @@ public class Pipeline {
      * @return deep copy of buffered image
      */
     public static BufferedImage deepCopy( BufferedImage bi ) {
-        // Get the same color model
-        ColorModel cm = bi.getColorModel();
-        // Get alpha channel info
-        boolean isAlphaPremultiplied = cm.isAlphaPremultiplied();
-        // Get raster
-        WritableRaster raster = bi.copyData( null );
-        return new BufferedImage( cm, raster, isAlphaPremultiplied, null );
+        return ImageView.copy( bi );
     }
 
 }
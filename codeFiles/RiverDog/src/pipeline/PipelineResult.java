@@ -0,0 +1,159 @@
+package pipeline;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.util.List;
+
+import riverObjects.ImageShape;
+
+/**
+ * Stores the outcome of running a single image
+ * through the pipeline: the river segments found,
+ * the time taken by each stage and, if the image
+ * could not be processed, the error.
+ */
+public class PipelineResult {
+    private final File input;
+    private final File output;
+    private final long[] stageNanos = new long[Stage.values().length];
+    private long pixels;
+    private List<ImageShape> shapes;
+    private BufferedImage image;
+    private Exception error;
+    private String cacheKey;
+    private boolean cached = false;
+    private boolean tiled = false;
+
+    public PipelineResult(File input, File output) {
+        this.input = input;
+        this.output = output;
+    }
+
+    public File getInput() {
+        return input;
+    }
+
+    /**
+     * Returns the file the result was written to,
+     * or null if it was not written.
+     *
+     * @return output file
+     */
+    public File getOutput() {
+        return output;
+    }
+
+    /**
+     * Records the time taken by a stage which started
+     * at the given time.
+     *
+     * @param stage
+     * @param start - value of System.nanoTime() when the stage started
+     * @return the time the stage ended, for timing the next stage
+     */
+    public long record(Stage stage, long start) {
+        long end = System.nanoTime();
+        stageNanos[stage.ordinal()] += end - start;
+        return end;
+    }
+
+    public long getNanos(Stage stage) {
+        return stageNanos[stage.ordinal()];
+    }
+
+    /**
+     * Returns the time taken by all stages together.
+     *
+     * @return total time in nanoseconds
+     */
+    public long getTotalNanos() {
+        long total = 0;
+        for (long nanos : stageNanos)
+            total += nanos;
+        return total;
+    }
+
+    public long getPixels() {
+        return pixels;
+    }
+
+    public void setPixels(long pixels) {
+        this.pixels = pixels;
+    }
+
+    public List<ImageShape> getShapes() {
+        return shapes;
+    }
+
+    public void setShapes(List<ImageShape> shapes) {
+        this.shapes = shapes;
+    }
+
+    /**
+     * Returns the rendered image, if it was kept.
+     *
+     * @return image with boundaries drawn on
+     */
+    public BufferedImage getImage() {
+        return image;
+    }
+
+    public void setImage(BufferedImage image) {
+        this.image = image;
+    }
+
+    public Exception getError() {
+        return error;
+    }
+
+    public void setError(Exception error) {
+        this.error = error;
+    }
+
+    public boolean isSuccessful() {
+        return error == null;
+    }
+
+    /**
+     * Returns the key of the image in the result cache,
+     * or null if no cache is used.
+     *
+     * @return cache key
+     */
+    public String getCacheKey() {
+        return cacheKey;
+    }
+
+    public void setCacheKey(String cacheKey) {
+        this.cacheKey = cacheKey;
+    }
+
+    /**
+     * Returns true if the result was served from the
+     * result cache instead of being processed.
+     *
+     * @return whether the result was cached
+     */
+    public boolean isCached() {
+        return cached;
+    }
+
+    public void setCached(boolean cached) {
+        this.cached = cached;
+    }
+
+    /**
+     * Returns true if the image was too large to decode and
+     * only its river segments were found, in tiles. Nothing
+     * is written to the output file of a tiled result.
+     *
+     * @return whether the image was tiled
+     */
+    public boolean isTiled() {
+        return tiled;
+    }
+
+    public void setTiled(boolean tiled) {
+        this.tiled = tiled;
+    }
+}
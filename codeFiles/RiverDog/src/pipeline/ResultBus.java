@@ -0,0 +1,176 @@
+package pipeline;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands results from the pipeline to the parts of the
+ * program showing them, without going through the disk.
+ * When a pipeline has a bus, each result is published with
+ * its river segments and input as soon as it is rendered,
+ * and the rendered image is written to its output file on
+ * a background thread. Subscribers can draw the segments
+ * over the input themselves, so the result image never has
+ * to be encoded and decoded again to be shown.
+ *
+ * Only a few rendered images wait to be written at a time;
+ * once the queue is full, the thread publishing writes the
+ * image itself, which holds back the pipeline.
+ */
+public class ResultBus {
+    // Rendered images waiting to be written
+    public static final int DEFAULT_QUEUE_CAPACITY = 4;
+    private final List<Subscriber> subscribers = new CopyOnWriteArrayList<Subscriber>();
+    private final ThreadPoolExecutor writer;
+    private int pending = 0;
+
+    /**
+     * Receives the results published on the bus, from the
+     * thread which published them.
+     */
+    public interface Subscriber {
+
+        /**
+         * Called as soon as an image is processed, before its
+         * result is written.
+         *
+         * @param result - result with the input and river segments
+         */
+        void resultPublished(PipelineResult result);
+
+        /**
+         * Called once the result has been written to its
+         * output file, or could not be.
+         *
+         * @param result - result published before
+         * @param error - the reason it could not be written, or null
+         */
+        void resultWritten(PipelineResult result, IOException error);
+    }
+
+    /**
+     * Creates a bus holding up to DEFAULT_QUEUE_CAPACITY
+     * images waiting to be written.
+     */
+    public ResultBus() {
+        this(DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param capacity - number of rendered images which may wait to be written
+     */
+    public ResultBus(int capacity) {
+        writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, capacity)), new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "result-writer");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    public void subscribe(Subscriber subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    /**
+     * Publishes a result to the subscribers, then writes its
+     * rendered image in the background.
+     *
+     * @param result - result with an output file
+     * @param rendered - image to write, or null if the output is already written
+     * @param pipeline - pipeline which made the result, for writing and caching it
+     */
+    public void publish(PipelineResult result, BufferedImage rendered, Pipeline pipeline) {
+        publish(result, rendered, pipeline, null);
+    }
+
+    /**
+     * Publishes a result to the subscribers, then writes its
+     * rendered image in the background. If it cannot be
+     * written, the error is kept in the result as well as
+     * given to the subscribers.
+     *
+     * @param result - result with an output file
+     * @param rendered - image to write, or null if the output is already written
+     * @param pipeline - pipeline which made the result, for writing and caching it
+     * @param whenWritten - run once the image is written or could not be, may be null
+     */
+    public void publish(final PipelineResult result, final BufferedImage rendered, final Pipeline pipeline,
+            final Runnable whenWritten) {
+        for (Subscriber subscriber : subscribers)
+            subscriber.resultPublished(result);
+        if (rendered == null) {
+            written(result, null);
+            if (whenWritten != null)
+                whenWritten.run();
+            return;
+        }
+        synchronized (this) {
+            pending++;
+        }
+        writer.execute(new Runnable() {
+            public void run() {
+                IOException error = null;
+                try {
+                    pipeline.save(result, rendered);
+                }
+                catch (IOException e) {
+                    error = e;
+                }
+                catch (RuntimeException e) {
+                    error = new IOException("Could not write " + result.getOutput().getName(), e);
+                }
+                try {
+                    if (error != null)
+                        result.setError(error);
+                    written(result, error);
+                }
+                finally {
+                    if (whenWritten != null)
+                        whenWritten.run();
+                    synchronized (ResultBus.this) {
+                        pending--;
+                        ResultBus.this.notifyAll();
+                    }
+                }
+            }
+        });
+    }
+
+    private void written(PipelineResult result, IOException error) {
+        for (Subscriber subscriber : subscribers)
+            subscriber.resultWritten(result, error);
+    }
+
+    /**
+     * Returns the number of results published but not
+     * written yet.
+     *
+     * @return results waiting to be written
+     */
+    public synchronized int getPendingWrites() {
+        return pending;
+    }
+
+    /**
+     * Waits until every result published so far is written.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void flush() throws InterruptedException {
+        while (pending > 0)
+            wait();
+    }
+}
@@ -0,0 +1,340 @@
+package pipeline;
+
+import java.awt.Color;
+import java.awt.Polygon;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import riverObjects.ChainCode;
+import riverObjects.ImageShape;
+
+/**
+ * Keeps the results of images on disk, so that images
+ * which have not changed since they were last processed
+ * are not processed again. Entries are found by a hash of
+ * the bytes of the input file together with the pipeline
+ * configuration, and hold the river segments found and
+ * the encoded result image. A hit is served by copying
+ * the stored result, without decoding the input.
+ *
+ * The cache is kept under a maximum size on disk by
+ * removing the least recently used entries. The time an
+ * entry was last used is its file's modification time, so
+ * the order survives restarts.
+ */
+public class ResultCache {
+    public static final long DEFAULT_MAX_BYTES = 512L * 1024 * 1024;
+    // Default location, in the user's home directory
+    public static final File DEFAULT_DIRECTORY = new File(System.getProperty("user.home"), ".riverdog-cache");
+    private static final String SUFFIX = ".result";
+    private static final int MAGIC = 0x52444331;
+    private static final byte POLYGON = 0;
+    private static final byte CHAIN = 1;
+    private final File directory;
+    private final long maxBytes;
+    // Entry sizes by key, least recently used first
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long totalBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    /**
+     * Opens a cache directory, creating it if needed.
+     *
+     * @param directory - directory holding the entries
+     * @param maxBytes - maximum size of all entries together
+     * @throws IOException if the directory cannot be created
+     */
+    public ResultCache(File directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Cannot create cache directory: " + directory);
+
+        // Load the existing entries, oldest first
+        File[] files = directory.listFiles();
+        if (files == null)
+            throw new IOException("Cannot read cache directory: " + directory);
+        Arrays.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && name.endsWith(SUFFIX)) {
+                entries.put(name.substring(0, name.length() - SUFFIX.length()), file.length());
+                totalBytes += file.length();
+            }
+        }
+        evict();
+    }
+
+    /**
+     * Computes the key of an input file: a SHA-256 hash of
+     * its bytes and of the configuration it is processed with.
+     *
+     * @param input - image file
+     * @param configuration - description of the pipeline settings
+     * @return key, in hexadecimal
+     * @throws IOException if the file cannot be read
+     */
+    public static String computeKey(File input, String configuration) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            // Every Java platform has to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        digest.update(configuration.getBytes(Charset.forName("UTF-8")));
+        digest.update((byte) 0);
+        InputStream in = new FileInputStream(input);
+        try {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) > 0)
+                digest.update(buffer, 0, read);
+        }
+        finally {
+            in.close();
+        }
+        StringBuilder key = new StringBuilder();
+        for (byte b : digest.digest())
+            key.append(String.format("%02x", b));
+        return key.toString();
+    }
+
+    /**
+     * Looks up an entry, marking it as the most recently used.
+     *
+     * @param key - key from computeKey()
+     * @return entry, or null if it is not in the cache
+     */
+    public Entry get(String key) {
+        synchronized (this) {
+            if (entries.get(key) == null) {
+                misses++;
+                return null;
+            }
+        }
+        File file = getFile(key);
+        try {
+            Entry entry = read(file);
+            file.setLastModified(System.currentTimeMillis());
+            synchronized (this) {
+                hits++;
+            }
+            return entry;
+        }
+        catch (IOException e) {
+            // Removed meanwhile, or damaged: treat it as missing
+            remove(key);
+            synchronized (this) {
+                misses++;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Stores the result of an image, then removes the least
+     * recently used entries while the cache is too large.
+     *
+     * @param key - key from computeKey()
+     * @param shapes - river segments found
+     * @param pixels - number of pixels of the input
+     * @param output - encoded result image
+     * @throws IOException if the entry cannot be written
+     */
+    public void put(String key, List<ImageShape> shapes, long pixels, byte[] output) throws IOException {
+        // Write to a temporary file first, so that readers never see half an entry
+        File temp = File.createTempFile(key, ".tmp", directory);
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            try {
+                write(out, shapes, pixels, output);
+            }
+            finally {
+                out.close();
+            }
+            Files.move(temp.toPath(), getFile(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        finally {
+            temp.delete();
+        }
+        long size = getFile(key).length();
+        synchronized (this) {
+            Long previous = entries.put(key, size);
+            totalBytes += size - (previous == null ? 0 : previous);
+            evict();
+        }
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> oldest = it.next();
+            getFile(oldest.getKey()).delete();
+            totalBytes -= oldest.getValue();
+            it.remove();
+            evictions++;
+        }
+    }
+
+    private synchronized void remove(String key) {
+        Long size = entries.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+            getFile(key).delete();
+        }
+    }
+
+    private File getFile(String key) {
+        return new File(directory, key + SUFFIX);
+    }
+
+    private static void write(DataOutputStream out, List<ImageShape> shapes, long pixels, byte[] output)
+            throws IOException {
+        out.writeInt(MAGIC);
+        out.writeLong(pixels);
+        out.writeInt(shapes.size());
+        for (ImageShape shape : shapes) {
+            out.writeInt(shape.getColor().getRGB());
+            ChainCode chain = shape.getChainCode();
+            if (chain != null) {
+                out.writeByte(CHAIN);
+                out.writeInt(chain.getStartX());
+                out.writeInt(chain.getStartY());
+                out.writeInt(chain.getLength());
+                for (int i = 0; i < chain.getLength(); i++)
+                    out.writeByte(chain.getDirection(i));
+            }
+            else {
+                Polygon polygon = shape.getPolygon();
+                out.writeByte(POLYGON);
+                out.writeInt(polygon.npoints);
+                for (int i = 0; i < polygon.npoints; i++) {
+                    out.writeInt(polygon.xpoints[i]);
+                    out.writeInt(polygon.ypoints[i]);
+                }
+            }
+        }
+        out.writeInt(output.length);
+        out.write(output);
+    }
+
+    private static Entry read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC)
+                throw new IOException("Not a cache entry: " + file);
+            long pixels = in.readLong();
+            int count = in.readInt();
+            List<ImageShape> shapes = new ArrayList<ImageShape>(count);
+            for (int s = 0; s < count; s++) {
+                Color color = new Color(in.readInt(), true);
+                if (in.readByte() == CHAIN) {
+                    ChainCode chain = new ChainCode(in.readInt(), in.readInt());
+                    int length = in.readInt();
+                    for (int i = 0; i < length; i++)
+                        chain.add(in.readByte());
+                    chain.trimToSize();
+                    shapes.add(new ImageShape(chain, color));
+                }
+                else {
+                    int n = in.readInt();
+                    Polygon polygon = new Polygon();
+                    for (int i = 0; i < n; i++)
+                        polygon.addPoint(in.readInt(), in.readInt());
+                    shapes.add(new ImageShape(polygon, color));
+                }
+            }
+            byte[] output = new byte[in.readInt()];
+            in.readFully(output);
+            return new Entry(shapes, pixels, output);
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("Result cache: %d hits, %d misses, %d evicted, %d entries (%.1f MB)",
+                hits, misses, evictions, entries.size(), totalBytes / 1e6);
+    }
+
+    /**
+     * The stored result of an image.
+     */
+    public static class Entry {
+        private final List<ImageShape> shapes;
+        private final long pixels;
+        private final byte[] output;
+
+        Entry(List<ImageShape> shapes, long pixels, byte[] output) {
+            this.shapes = shapes;
+            this.pixels = pixels;
+            this.output = output;
+        }
+
+        public List<ImageShape> getShapes() {
+            return shapes;
+        }
+
+        public long getPixels() {
+            return pixels;
+        }
+
+        /**
+         * Returns the encoded result image.
+         *
+         * @return image file contents
+         */
+        public byte[] getOutput() {
+            return output;
+        }
+    }
+}
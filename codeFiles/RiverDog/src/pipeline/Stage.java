@@ -0,0 +1,18 @@
+package pipeline;
+
+/**
+ * The stages an image goes through in the pipeline,
+ * in the order in which they are run.
+ */
+public enum Stage {
+    /** Reading and decoding the image file */
+    DECODE,
+    /** Classifying river pixels */
+    CLASSIFY,
+    /** Detecting river segments */
+    DETECT,
+    /** Drawing the boundaries of the segments */
+    RENDER,
+    /** Encoding and writing the result */
+    ENCODE
+}
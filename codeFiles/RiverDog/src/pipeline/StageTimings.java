@@ -0,0 +1,84 @@
+package pipeline;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+/**
+ * Collects the time each image spent in every stage
+ * of the pipeline, and summarizes them as percentiles.
+ * Safe to use from several threads.
+ */
+public class StageTimings {
+    private final long[][] samples = new long[Stage.values().length][];
+    private final int[] counts = new int[Stage.values().length];
+
+    public StageTimings() {
+        for (int i = 0; i < samples.length; i++)
+            samples[i] = new long[16];
+    }
+
+    /**
+     * Adds the stage times of a processed image.
+     * Failed images are only counted for the stages
+     * they went through.
+     *
+     * @param result
+     */
+    public synchronized void add(PipelineResult result) {
+        for (Stage stage : Stage.values()) {
+            long nanos = result.getNanos( stage );
+            if (nanos > 0)
+                add( stage, nanos );
+        }
+    }
+
+    /**
+     * Adds a single time for a stage.
+     *
+     * @param stage
+     * @param nanos - time in nanoseconds
+     */
+    public synchronized void add(Stage stage, long nanos) {
+        int i = stage.ordinal();
+        if (counts[i] == samples[i].length)
+            samples[i] = Arrays.copyOf( samples[i], counts[i] * 2 );
+        samples[i][counts[i]++] = nanos;
+    }
+
+    public synchronized int getCount(Stage stage) {
+        return counts[stage.ordinal()];
+    }
+
+    /**
+     * Returns a percentile of the times of a stage,
+     * using the nearest rank.
+     *
+     * @param stage
+     * @param percent - 0 to 100
+     * @return time in nanoseconds, or 0 if there are no times
+     */
+    public synchronized long getPercentile(Stage stage, double percent) {
+        int i = stage.ordinal();
+        if (counts[i] == 0)
+            return 0;
+        long[] sorted = Arrays.copyOf( samples[i], counts[i] );
+        Arrays.sort( sorted );
+        int rank = (int) Math.ceil( percent / 100 * sorted.length );
+        return sorted[Math.max( 0, rank - 1 )];
+    }
+
+    /**
+     * Prints a table with the 50th, 95th and 99th
+     * percentiles of every stage, in milliseconds.
+     *
+     * @param out
+     */
+    public synchronized void print(PrintStream out) {
+        out.printf( "%-10s %8s %10s %10s %10s\n", "Stage", "Count", "p50 (ms)", "p95 (ms)", "p99 (ms)" );
+        for (Stage stage : Stage.values()) {
+            out.printf( "%-10s %8d %10.2f %10.2f %10.2f\n", stage, getCount( stage ),
+                    getPercentile( stage, 50 ) / 1e6, getPercentile( stage, 95 ) / 1e6,
+                    getPercentile( stage, 99 ) / 1e6 );
+        }
+    }
+}
@@ -0,0 +1,625 @@
+package pipeline;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a batch of images through the pipeline as a chain
+ * of stages connected by bounded queues. Each stage has its
+ * own worker threads, so decoding the next image and encoding
+ * the previous one overlap with classifying the current one.
+ * A full queue holds back the stage feeding it, and a memory
+ * budget bounds the images in flight. Results are handed back
+ * in the order of the inputs. The workers decoding and
+ * encoding run on the threads of an ImageIOService, which are
+ * virtual threads where the JVM supports them, since they
+ * mostly wait for the disk. Images can be given all at once
+ * with run(), or one at a time as they arrive with start(),
+ * submit() and finish().
+ *
+ * The depth of every queue and the utilisation of every stage
+ * (the fraction of time its workers were busy) are recorded,
+ * for tuning the parallelism of the stages.
+ */
+public class StagedPipeline {
+    private static final Stage[] STAGES = Stage.values();
+    private final Pipeline pipeline;
+    private final MemoryBudget budget;
+    private final int[] parallelism = new int[STAGES.length];
+    private int queueCapacity = 0;
+    private ImageIOService io = new ImageIOService(2);
+    // How often a full queue is looked at again while waiting for room
+    private static final long POLL_MILLIS = 50;
+    // Metrics of the last run, indexed by stage
+    private final AtomicLong[] busyNanos = new AtomicLong[STAGES.length];
+    private final AtomicLong[] depthTotal = new AtomicLong[STAGES.length];
+    private final AtomicLong[] depthSamples = new AtomicLong[STAGES.length];
+    private final AtomicInteger[] maxDepth = new AtomicInteger[STAGES.length];
+    // Queues of the current run, empty when not running
+    private volatile List<BlockingQueue<Job>> queues = new ArrayList<BlockingQueue<Job>>();
+    private volatile long wallNanos;
+    private volatile boolean virtualThreads = false;
+    // The run images are submitted to, null when not started
+    private Run current;
+
+    /**
+     * An image on its way through the stages.
+     */
+    private static class Job {
+        final int index;
+        final ImageJob image;
+
+        Job(int index, ImageJob image) {
+            this.index = index;
+            this.image = image;
+        }
+    }
+
+    // Marks the end of the inputs in a queue
+    private static final Job END = new Job(-1, null);
+
+    /**
+     * Creates a staged pipeline with two workers for decoding
+     * and encoding, one for rendering, a worker per processor
+     * for classification and detection, and half of the heap
+     * as its memory budget.
+     *
+     * @param pipeline - pipeline whose stages are run
+     */
+    public StagedPipeline(Pipeline pipeline) {
+        this(pipeline, MemoryBudget.fromHeap(0.5));
+    }
+
+    /**
+     * @param pipeline - pipeline whose stages are run
+     * @param budget - memory budget for the images in flight
+     */
+    public StagedPipeline(Pipeline pipeline, MemoryBudget budget) {
+        this.pipeline = pipeline;
+        this.budget = budget;
+        int processors = Runtime.getRuntime().availableProcessors();
+        setIOService(io);
+        setParallelism(Stage.CLASSIFY, processors);
+        setParallelism(Stage.DETECT, processors);
+        setParallelism(Stage.RENDER, 1);
+        for (int i = 0; i < STAGES.length; i++) {
+            busyNanos[i] = new AtomicLong();
+            depthTotal[i] = new AtomicLong();
+            depthSamples[i] = new AtomicLong();
+            maxDepth[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Sets the number of worker threads of a stage.
+     *
+     * @param stage
+     * @param threads
+     */
+    public void setParallelism(Stage stage, int threads) {
+        parallelism[stage.ordinal()] = Math.max(1, threads);
+    }
+
+    public int getParallelism(Stage stage) {
+        return parallelism[stage.ordinal()];
+    }
+
+    /**
+     * Returns true if the workers of the stages which read
+     * and write images ran on virtual threads in the last run.
+     *
+     * @return whether virtual threads were used
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    private static boolean isIOStage(Stage stage) {
+        return stage == Stage.DECODE || stage == Stage.ENCODE;
+    }
+
+    /**
+     * Sets the capacity of the queue in front of every stage.
+     * By default it is twice the parallelism of the stage.
+     *
+     * @param capacity - images per queue, or 0 for the default
+     */
+    public void setQueueCapacity(int capacity) {
+        queueCapacity = capacity;
+    }
+
+    /**
+     * Sets the service giving the threads images are read and
+     * written on, and the number of workers of those stages.
+     *
+     * @param io
+     */
+    public void setIOService(ImageIOService io) {
+        this.io = io;
+        setParallelism(Stage.DECODE, io.getThreads());
+        setParallelism(Stage.ENCODE, io.getThreads());
+    }
+
+    public ImageIOService getIOService() {
+        return io;
+    }
+
+    /**
+     * Processes all the images, returning when all are done.
+     *
+     * @param inputs - image files
+     * @param outputs - file to write each result to, or null (or a null entry) to keep the rendered images
+     * @param listener - receives each result as soon as all earlier ones are done, may be null
+     * @return results, in the order of the inputs
+     * @throws InterruptedException if interrupted; images not finished yet are dropped
+     */
+    public List<PipelineResult> run(List<File> inputs, List<File> outputs, final BatchExecutor.ResultListener listener)
+            throws InterruptedException {
+        final List<PipelineResult> results = new ArrayList<PipelineResult>(inputs.size());
+        start(new BatchExecutor.ResultListener() {
+            public void resultReady(int index, PipelineResult result) {
+                results.add(result);
+                if (listener != null)
+                    listener.resultReady(index, result);
+            }
+        });
+        boolean finished = false;
+        try {
+            for (int i = 0; i < inputs.size(); i++)
+                submit(inputs.get(i), outputs == null ? null : outputs.get(i));
+            finish();
+            finished = true;
+        }
+        finally {
+            if (!finished)
+                cancel();
+        }
+        return results;
+    }
+
+    /**
+     * Starts the workers of every stage, so that images can
+     * be submitted one at a time as they become known.
+     *
+     * @param listener - receives each result as soon as all earlier ones are done, may be null
+     * @throws IllegalStateException if already started
+     */
+    public synchronized void start(BatchExecutor.ResultListener listener) {
+        if (current != null)
+            throw new IllegalStateException("Already started");
+        resetMetrics();
+        current = new Run(listener);
+        queues = current.queues;
+        virtualThreads = current.start();
+    }
+
+    /**
+     * Submits an image to the started pipeline. This waits
+     * while the memory budget is used up or the first queue
+     * is full, so submitting many images only keeps a budget's
+     * worth in flight. Once the run is cancelled, images are
+     * given a CancellationException as their result instead.
+     *
+     * @param input - image file
+     * @param output - file to write the result to, or null to keep the rendered image
+     * @throws InterruptedException if interrupted while waiting
+     * @throws IllegalStateException if not started
+     */
+    public void submit(File input, File output) throws InterruptedException {
+        Run run = getCurrent();
+        long bytes = MemoryBudget.estimateBytes(input);
+        Job job = run.newJob(new PipelineResult(input, output), bytes);
+        if (!run.isCancelled()) {
+            budget.acquire(bytes);
+            if (run.reserve(bytes) && run.put(Stage.DECODE, job))
+                return;
+        }
+        run.cancel(job);
+    }
+
+    /**
+     * Tells the started pipeline there are no more images,
+     * and waits until all those submitted are done. Images
+     * which could not be finished because the run was cancelled
+     * are handed over with a CancellationException, so that
+     * every image gets a result.
+     *
+     * @throws InterruptedException if interrupted; images not finished yet are dropped
+     * @throws IllegalStateException if not started
+     */
+    public void finish() throws InterruptedException {
+        Run run = getCurrent();
+        long start = run.startNanos;
+        boolean finished = false;
+        try {
+            if (!run.isCancelled())
+                run.end(Stage.DECODE);
+            for (Future<?> worker : run.workers) {
+                try {
+                    worker.get();
+                }
+                catch (ExecutionException e) {
+                    // Workers keep errors in the results, so this does not happen
+                    throw new IllegalStateException(e);
+                }
+            }
+            run.cancelUnfinished();
+            finished = true;
+        }
+        finally {
+            wallNanos = System.nanoTime() - start;
+            if (!finished)
+                run.cancel();
+            stop(run);
+        }
+    }
+
+    /**
+     * Stops the started pipeline at once, interrupting its
+     * workers. Images not finished yet are dropped, and their
+     * memory budget is given back.
+     */
+    public void cancel() {
+        Run run;
+        synchronized (this) {
+            run = current;
+        }
+        if (run != null) {
+            run.cancel();
+            stop(run);
+        }
+    }
+
+    private synchronized Run getCurrent() {
+        if (current == null)
+            throw new IllegalStateException("Not started");
+        return current;
+    }
+
+    /**
+     * Stops the workers of a run. Images still being written
+     * give back their budget once written, unless the run was
+     * cancelled, which gave back all of it.
+     */
+    private synchronized void stop(Run run) {
+        run.shutdown();
+        if (current == run) {
+            current = null;
+            queues = new ArrayList<BlockingQueue<Job>>();
+        }
+    }
+
+    /**
+     * The queues, workers and results of a single run.
+     */
+    private class Run {
+        final List<BlockingQueue<Job>> queues = new ArrayList<BlockingQueue<Job>>();
+        final List<Future<?>> workers = new ArrayList<Future<?>>();
+        final BatchExecutor.ResultListener listener;
+        final long startNanos = System.nanoTime();
+        ExecutorService ioExecutor;
+        ExecutorService platform;
+        // Images submitted but not finished, and finished ones waiting for earlier ones
+        final Map<Integer, Job> unfinished = new HashMap<Integer, Job>();
+        final Map<Integer, PipelineResult> finished = new HashMap<Integer, PipelineResult>();
+        int submitted = 0;
+        // Index of the next result to hand to the listener
+        int delivered = 0;
+        // Budget held by the images in flight, until the run is over
+        long reserved = 0;
+        boolean over = false;
+        volatile boolean cancelled = false;
+
+        Run(BatchExecutor.ResultListener listener) {
+            this.listener = listener;
+            for (int i = 0; i < STAGES.length; i++) {
+                int capacity = queueCapacity > 0 ? queueCapacity : 2 * parallelism[i];
+                queues.add(new ArrayBlockingQueue<Job>(capacity));
+            }
+        }
+
+        /**
+         * Starts the workers of every stage, reading and writing
+         * on the threads of the I/O service.
+         *
+         * @return whether reading and writing is on virtual threads
+         */
+        boolean start() {
+            ioExecutor = io.newExecutor();
+            platform = Executors.newCachedThreadPool(new ImageIOService.NamedThreadFactory("pipeline"));
+            for (final Stage stage : STAGES) {
+                final AtomicInteger running = new AtomicInteger(parallelism[stage.ordinal()]);
+                ExecutorService executor = isIOStage(stage) ? ioExecutor : platform;
+                for (int i = 0; i < parallelism[stage.ordinal()]; i++) {
+                    final String name = "pipeline-" + stage.name().toLowerCase() + "-" + i;
+                    workers.add(executor.submit(new Runnable() {
+                        public void run() {
+                            Thread.currentThread().setName(name);
+                            work(stage, running);
+                        }
+                    }));
+                }
+            }
+            return io.usesVirtualThreads();
+        }
+
+        /**
+         * Takes images from the queue of a stage until the end of
+         * the inputs, passing each one on to the next stage. Images
+         * leave the pipeline after the last stage or on an error,
+         * and the last worker of a stage ends the next stage. A
+         * worker which stops any other way, such as by being
+         * interrupted, cancels the whole run, since its stage can
+         * no longer be relied on to take images.
+         */
+        void work(Stage stage, AtomicInteger running) {
+            BlockingQueue<Job> queue = queues.get(stage.ordinal());
+            Stage next = stage.ordinal() + 1 < STAGES.length ? STAGES[stage.ordinal() + 1] : null;
+            boolean ended = false;
+            try {
+                while (true) {
+                    Job job = queue.take();
+                    if (job == END)
+                        break;
+                    try {
+                        long start = System.nanoTime();
+                        boolean ok = job.image.run(stage);
+                        busyNanos[stage.ordinal()].addAndGet(System.nanoTime() - start);
+                        if (ok && next != null) {
+                            if (!put(next, job))
+                                cancel(job);
+                            continue;
+                        }
+                    }
+                    catch (InterruptedException e) {
+                        // The image still leaves the pipeline, as cancelled
+                        cancel(job);
+                        throw e;
+                    }
+                    catch (RuntimeException e) {
+                        // The image still leaves the pipeline, with the error as its result
+                        job.image.fail(e);
+                    }
+                    finish(job);
+                }
+                if (running.decrementAndGet() == 0 && next != null)
+                    end(next);
+                ended = true;
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                if (!ended)
+                    cancel();
+            }
+        }
+
+        /**
+         * Adds an image to the queue of a stage, waiting for room
+         * until the run is cancelled.
+         *
+         * @return false if the run was cancelled first
+         */
+        boolean put(Stage stage, Job job) throws InterruptedException {
+            int i = stage.ordinal();
+            BlockingQueue<Job> queue = queues.get(i);
+            while (!queue.offer(job, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (cancelled)
+                    return false;
+            }
+            // Sample the depth of the queue each time an image joins it
+            int depth = queue.size();
+            depthTotal[i].addAndGet(depth);
+            depthSamples[i].incrementAndGet();
+            int max;
+            while (depth > (max = maxDepth[i].get()) && !maxDepth[i].compareAndSet(max, depth));
+            return true;
+        }
+
+        /**
+         * Tells every worker of a stage that there are no more images.
+         */
+        void end(Stage stage) throws InterruptedException {
+            for (int i = 0; i < parallelism[stage.ordinal()]; i++) {
+                if (!put(stage, END))
+                    return;
+            }
+        }
+
+        boolean isCancelled() {
+            return cancelled;
+        }
+
+        /**
+         * Stops every worker, giving back the budget of the
+         * images in flight so that nothing waits for it.
+         */
+        void cancel() {
+            synchronized (this) {
+                if (cancelled)
+                    return;
+                cancelled = true;
+            }
+            shutdown();
+            releaseAll();
+        }
+
+        void shutdown() {
+            platform.shutdownNow();
+            ioExecutor.shutdownNow();
+        }
+
+        /**
+         * Takes an image out of the pipeline as cancelled.
+         */
+        void cancel(Job job) {
+            job.image.fail(new CancellationException("Pipeline cancelled"));
+            finish(job);
+        }
+
+        /**
+         * Takes the images which are still in the pipeline out
+         * of it as cancelled, once no worker is left.
+         */
+        void cancelUnfinished() {
+            List<Job> jobs;
+            synchronized (this) {
+                jobs = new ArrayList<Job>(unfinished.values());
+            }
+            for (Job job : jobs)
+                cancel(job);
+        }
+
+        /**
+         * Takes an image out of the pipeline, handing over all
+         * results which are now in order. An error thrown by the
+         * listener is kept in the result it was handed.
+         */
+        void finish(Job job) {
+            job.image.finish();
+            synchronized (this) {
+                if (unfinished.remove(job.index) == null)
+                    return;
+                finished.put(job.index, job.image.getResult());
+                PipelineResult result;
+                while ((result = finished.remove(delivered)) != null) {
+                    if (listener != null) {
+                        try {
+                            listener.resultReady(delivered, result);
+                        }
+                        catch (RuntimeException e) {
+                            result.setError(e);
+                        }
+                    }
+                    delivered++;
+                }
+            }
+        }
+
+        /**
+         * Creates the job of the next image, which gives back its
+         * bytes of the budget once its result is written.
+         */
+        synchronized Job newJob(PipelineResult result, final long bytes) {
+            ImageJob image = new ImageJob(pipeline, result);
+            image.setRelease(new Runnable() {
+                public void run() {
+                    release(bytes);
+                }
+            });
+            Job job = new Job(submitted++, image);
+            unfinished.put(job.index, job);
+            return job;
+        }
+
+        synchronized void release(long bytes) {
+            // The budget of the whole run is given back when it is over
+            if (!over) {
+                reserved -= bytes;
+                budget.release(bytes);
+            }
+        }
+
+        /**
+         * Holds bytes acquired from the budget for the run.
+         *
+         * @return false if the run is over, in which case they are given back
+         */
+        synchronized boolean reserve(long bytes) {
+            if (over) {
+                budget.release(bytes);
+                return false;
+            }
+            reserved += bytes;
+            return true;
+        }
+
+        synchronized void releaseAll() {
+            budget.release(reserved);
+            reserved = 0;
+            over = true;
+        }
+    }
+
+    private void resetMetrics() {
+        for (int i = 0; i < STAGES.length; i++) {
+            busyNanos[i].set(0);
+            depthTotal[i].set(0);
+            depthSamples[i].set(0);
+            maxDepth[i].set(0);
+        }
+        wallNanos = 0;
+    }
+
+    /**
+     * Returns the number of images waiting in front of
+     * a stage, while running.
+     *
+     * @param stage
+     * @return images in the queue
+     */
+    public int getQueueDepth(Stage stage) {
+        List<BlockingQueue<Job>> current = queues;
+        return current.isEmpty() ? 0 : current.get(stage.ordinal()).size();
+    }
+
+    /**
+     * Returns the average number of images found waiting
+     * in front of a stage when an image joined its queue.
+     *
+     * @param stage
+     * @return average queue depth
+     */
+    public double getAverageQueueDepth(Stage stage) {
+        long samples = depthSamples[stage.ordinal()].get();
+        return samples == 0 ? 0 : (double) depthTotal[stage.ordinal()].get() / samples;
+    }
+
+    public int getMaxQueueDepth(Stage stage) {
+        return maxDepth[stage.ordinal()].get();
+    }
+
+    /**
+     * Returns the fraction of the last run's time that the
+     * workers of a stage were busy. A stage close to 1 is the
+     * bottleneck; one close to 0 has too many workers.
+     *
+     * @param stage
+     * @return utilisation, 0 to 1
+     */
+    public double getUtilisation(Stage stage) {
+        if (wallNanos == 0)
+            return 0;
+        return (double) busyNanos[stage.ordinal()].get() / (wallNanos * (double) parallelism[stage.ordinal()]);
+    }
+
+    /**
+     * Prints the workers, queue depths and utilisation
+     * of every stage.
+     *
+     * @param out
+     */
+    public void printMetrics(PrintStream out) {
+        out.printf("%-10s %8s %10s %10s %12s\n", "Stage", "Workers", "Queue avg", "Queue max", "Utilisation");
+        for (Stage stage : STAGES) {
+            out.printf("%-10s %8d %10.2f %10d %11.1f%%\n", stage, getParallelism(stage),
+                    getAverageQueueDepth(stage), getMaxQueueDepth(stage), 100 * getUtilisation(stage));
+        }
+        out.printf("Decoding and encoding on %s threads\n", virtualThreads ? "virtual" : "platform");
+    }
+}
@@ -0,0 +1,331 @@
+package pipeline;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import modules.BinaryMask;
+import modules.BlobDetection;
+import modules.BufferPool;
+import modules.ColorClassifier;
+import modules.RunComponent;
+import modules.RunLabeling;
+import riverObjects.ChainCode;
+import riverObjects.ImageShape;
+
+/**
+ * Finds the river segments of images too large to be
+ * decoded whole, such as orthophotos of a few gigapixels.
+ * The image is read in tiles of full-width strips, each
+ * of which is classified into a mask of one bit per pixel
+ * and labeled as runs, merging the components which cross
+ * from one tile into the next through the last row of the
+ * tile. Once a tile is done, the components which do not
+ * reach its last row are traced from their runs and let
+ * go, so besides the current tile only the runs of the
+ * components still open and the shapes traced are held.
+ * Only the tiles under the boundaries of the largest shapes
+ * are read again to find their colors.
+ *
+ * Classification is done pixel by pixel, and each component
+ * is traced as it would be in the whole mask, so the river
+ * segments found are the same as those of Pipeline.classify()
+ * and detect() on the decoded image.
+ *
+ * Tiles are read with ImageReadParam.setSourceRegion(),
+ * which is cheap for tiled or stripped formats such as
+ * TIFF. Readers of PNG and JPEG decode the image up to the
+ * end of the region each time, which takes time growing
+ * with the square of the height, so the pipeline does not
+ * tile those (see canReadTiles()).
+ */
+public class TiledRiverDetector {
+    // Pixels in a tile when its height is not set
+    public static final int DEFAULT_TILE_PIXELS = 4 * 1024 * 1024;
+    // Number of shapes whose colors are first read together
+    private static final int SAMPLE_BATCH = 8;
+    private int tileHeight = 0;
+    private int minimumArea = 1;
+    private BufferPool bufferPool = BufferPool.getDefault();
+    private boolean verbose = true;
+    private int tilesRead = 0;
+
+    /**
+     * Sets the number of rows in each tile. By default
+     * tiles hold about DEFAULT_TILE_PIXELS pixels, rounded
+     * up to whole tiles of tiled images.
+     *
+     * @param rows - rows per tile, or 0 for the default
+     */
+    public void setTileHeight(int rows) {
+        tileHeight = rows;
+    }
+
+    /**
+     * Sets the minimum area (in pixels) of the blobs to be
+     * traced, by default 1 as in the pipeline.
+     *
+     * @param area - minimum blob area
+     */
+    public void setMinimumArea(int area) {
+        minimumArea = area;
+    }
+
+    /**
+     * Sets the pool tile buffers and masks are borrowed
+     * from, by default the shared pool.
+     *
+     * @param pool
+     */
+    public void setBufferPool(BufferPool pool) {
+        bufferPool = pool;
+    }
+
+    /**
+     * Prints progress messages, which is on by default.
+     *
+     * @param verbose
+     */
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    /**
+     * Returns the number of tiles read so far.
+     *
+     * @return tiles read
+     */
+    public int getTilesRead() {
+        return tilesRead;
+    }
+
+    /**
+     * Finds the largest river segment of an image, along
+     * with the segments related to it.
+     *
+     * @param image - image file
+     * @return river segments
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public List<ImageShape> detect(File image) throws IOException {
+        ImageInputStream stream = ImageIO.createImageInputStream(image);
+        if (stream == null)
+            throw new IOException("Cannot read image: " + image.getName());
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext())
+                throw new IOException("Unsupported image format: " + image.getName());
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                return detect(reader);
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    private List<ImageShape> detect(ImageReader reader) throws IOException {
+        int width = reader.getWidth(0);
+        int height = reader.getHeight(0);
+        int rows = getTileHeight(reader, width);
+        if (verbose)
+            System.out.printf("\tRun color classifier and blob detection on tiles of %d rows\n", rows);
+        RunLabeling components = new RunLabeling();
+        components.setKeepRuns(true);
+        List<ImageShape> shapes = new ArrayList<ImageShape>();
+        for (int y = 0; y < height; y += rows) {
+            int tileRows = Math.min(rows, height - y);
+            BinaryMask classified = classify(readTile(reader, new Rectangle(0, y, width, tileRows)));
+            for (int row = 0; row < tileRows; row++)
+                components.addRow(classified, row, y + row);
+            classified.release(bufferPool);
+            // Components which do not reach the last row of the tile are whole, so they are traced now
+            for (RunComponent component : components.closeComponents(y + tileRows == height)) {
+                if (component.getArea() >= minimumArea)
+                    shapes.addAll(BlobDetection.traceComponent(component));
+            }
+        }
+        if (verbose)
+            System.out.printf("\t%d blobs, %d shapes traced\n", components.getComponentCount(), shapes.size());
+
+        // Put the shapes in the order a scan of the whole mask finds them
+        Collections.sort(shapes, BlobDetection.SCAN_ORDER);
+        BlobDetection blobs = new BlobDetection(shapes, null);
+        blobs.setBoundarySampler(new TileSampler(reader, blobs, rows));
+        try {
+            return blobs.findLargestRelatedShapes();
+        }
+        catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Returns true if tiles of an image can be read without
+     * decoding the image up to each of them, as for tiled
+     * images and TIFF.
+     *
+     * @param image - image file
+     * @return whether the image can be read tile by tile
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public static boolean canReadTiles(File image) throws IOException {
+        ImageInputStream stream = ImageIO.createImageInputStream(image);
+        if (stream == null)
+            throw new IOException("Cannot read image: " + image.getName());
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if (!readers.hasNext())
+                throw new IOException("Unsupported image format: " + image.getName());
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                return reader.isImageTiled(0) || reader.getFormatName().equalsIgnoreCase("tif");
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+        finally {
+            stream.close();
+        }
+    }
+
+    private int getTileHeight(ImageReader reader, int width) throws IOException {
+        int rows = tileHeight > 0 ? tileHeight : Math.max(1, DEFAULT_TILE_PIXELS / width);
+        // Read whole tiles of tiled images, so that no tile is decoded twice
+        if (tileHeight <= 0 && reader.isImageTiled(0)) {
+            int tile = reader.getTileHeight(0);
+            rows = (rows + tile - 1) / tile * tile;
+        }
+        return rows;
+    }
+
+    private BufferedImage readTile(ImageReader reader, Rectangle region) throws IOException {
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(region);
+        tilesRead++;
+        return reader.read(0, param);
+    }
+
+    /**
+     * Classifies a tile pixel by pixel into a mask.
+     */
+    private BinaryMask classify(BufferedImage tile) {
+        ColorClassifier cc = new ColorClassifier(tile);
+        cc.setUseLookupTable(true);
+        cc.setBufferPool(bufferPool);
+        cc.setVerbose(false);
+        return cc.getMask();
+    }
+
+    /**
+     * Reads the colors along the boundaries of shapes from
+     * the image file. The colors of the shapes most likely
+     * to be asked for next are read along with those of the
+     * shape asked for, reading only the tiles under them.
+     */
+    private class TileSampler implements BlobDetection.BoundarySampler {
+        private final ImageReader reader;
+        private final BlobDetection blobs;
+        private final int rows;
+        private final Map<ImageShape, int[]> colors = new IdentityHashMap<ImageShape, int[]>();
+
+        TileSampler(ImageReader reader, BlobDetection blobs, int rows) {
+            this.reader = reader;
+            this.blobs = blobs;
+            this.rows = rows;
+        }
+
+        public int[] getBoundaryRGB(ImageShape shape) {
+            int[] rgb = colors.get(shape);
+            if (rgb == null) {
+                // Shapes are asked for from the largest down, so take the next largest too
+                List<ImageShape> batch = new ArrayList<ImageShape>();
+                batch.add(shape);
+                for (ImageShape next : blobs.findLargestShapes(Math.max(SAMPLE_BATCH, colors.size() * 2))) {
+                    if (next != shape && !colors.containsKey(next))
+                        batch.add(next);
+                }
+                try {
+                    sample(batch);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                rgb = colors.get(shape);
+            }
+            return rgb;
+        }
+
+        private void sample(List<ImageShape> shapes) throws IOException {
+            Rectangle area = null;
+            List<int[]> samples = new ArrayList<int[]>();
+            for (ImageShape shape : shapes) {
+                Rectangle bounds = shape.getBounds();
+                // Bounds of polygons exclude their right and bottom edges
+                bounds = new Rectangle(bounds.x, bounds.y, bounds.width + 1, bounds.height + 1);
+                area = area == null ? bounds : area.union(bounds);
+                samples.add(new int[getPointCount(shape)]);
+            }
+            area = area.intersection(new Rectangle(0, 0, reader.getWidth(0), reader.getHeight(0)));
+
+            for (int y = area.y; y < area.y + area.height; y += rows) {
+                int tileRows = Math.min(rows, area.y + area.height - y);
+                BufferedImage tile = readTile(reader, new Rectangle(area.x, y, area.width, tileRows));
+                for (int i = 0; i < shapes.size(); i++)
+                    sampleTile(shapes.get(i), samples.get(i), tile, area.x, y);
+            }
+            for (int i = 0; i < shapes.size(); i++)
+                colors.put(shapes.get(i), samples.get(i));
+        }
+
+        /**
+         * Takes the colors of the boundary points of a shape
+         * which lie in a tile.
+         */
+        private void sampleTile(ImageShape shape, int[] rgb, BufferedImage tile, int tileX, int tileY) {
+            ChainCode chain = shape.getChainCode();
+            Polygon polygon = chain == null ? shape.getPolygon() : null;
+            int x = chain == null ? 0 : chain.getStartX();
+            int y = chain == null ? 0 : chain.getStartY();
+            for (int i = 0; i < rgb.length; i++) {
+                if (chain == null) {
+                    x = polygon.xpoints[i];
+                    y = polygon.ypoints[i];
+                }
+                else if (i > 0) {
+                    int direction = chain.getDirection(i - 1);
+                    x += ChainCode.DX[direction];
+                    y += ChainCode.DY[direction];
+                }
+                if (y >= tileY && y < tileY + tile.getHeight())
+                    rgb[i] = tile.getRGB(x - tileX, y - tileY);
+            }
+        }
+
+        private int getPointCount(ImageShape shape) {
+            ChainCode chain = shape.getChainCode();
+            return chain == null ? shape.getPolygon().npoints : chain.getPointCount();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package riverObjects;
+
+import java.awt.Polygon;
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ *  Stores a closed boundary as its first point and
+ *  a Freeman chain code: one 3-bit direction for each
+ *  step to the next point, packed 21 to a long.
+ *  Directions are numbered clockwise from 0 (up) to
+ *  7 (up and left). The step from the last point back
+ *  to the first one is implied.
+ *
+ */
+public class ChainCode {
+	// Offsets of each direction, clockwise starting upwards
+	public static final int[] DX = { 0, 1, 1, 1, 0, -1, -1, -1 };
+	public static final int[] DY = { -1, -1, 0, 1, 1, 1, 0, -1 };
+	private static final int CODES_PER_WORD = 21;
+	private static final double DIAGONAL_LENGTH = Math.sqrt( 2 );
+	private int startX;
+	private int startY;
+	private long[] words = new long[1];
+	private int length = 0;
+	// Last point of the boundary
+	private int endX;
+	private int endY;
+	private int minX;
+	private int minY;
+	private int maxX;
+	private int maxY;
+	private int straightSteps = 0;
+	private int diagonalSteps = 0;
+
+	/**
+	 * Creates a chain code of a single point.
+	 *
+	 * @param x - x coordinate of the first point
+	 * @param y - y coordinate of the first point
+	 */
+	public ChainCode(int x, int y) {
+		startX = endX = minX = maxX = x;
+		startY = endY = minY = maxY = y;
+	}
+
+	/**
+	 * Adds a step in the given direction to the
+	 * end of the boundary.
+	 *
+	 * @param direction - 0 to 7
+	 */
+	public void add(int direction) {
+		int word = length / CODES_PER_WORD;
+		if (word == words.length)
+			words = Arrays.copyOf( words, words.length * 2 );
+		words[word] |= (long) direction << (3 * (length % CODES_PER_WORD));
+		length++;
+
+		endX += DX[direction];
+		endY += DY[direction];
+		minX = Math.min( minX, endX );
+		minY = Math.min( minY, endY );
+		maxX = Math.max( maxX, endX );
+		maxY = Math.max( maxY, endY );
+		// Odd directions are diagonal
+		if ((direction & 1) == 0)
+			straightSteps++;
+		else
+			diagonalSteps++;
+	}
+
+	/**
+	 * Releases the unused space at the end of the code,
+	 * once the boundary is complete.
+	 */
+	public void trimToSize() {
+		int used = Math.max( 1, (length + CODES_PER_WORD - 1) / CODES_PER_WORD );
+		if (used < words.length)
+			words = Arrays.copyOf( words, used );
+	}
+
+	public int getStartX() {
+		return startX;
+	}
+
+	public int getStartY() {
+		return startY;
+	}
+
+	/**
+	 * Returns the number of steps stored, not
+	 * counting the closing step.
+	 *
+	 * @return number of steps
+	 */
+	public int getLength() {
+		return length;
+	}
+
+	/**
+	 * Returns the number of points in the boundary.
+	 *
+	 * @return number of points
+	 */
+	public int getPointCount() {
+		return length + 1;
+	}
+
+	/**
+	 * Returns the direction of a step.
+	 *
+	 * @param i - index of the step
+	 * @return direction, 0 to 7
+	 */
+	public int getDirection(int i) {
+		return (int) (words[i / CODES_PER_WORD] >>> (3 * (i % CODES_PER_WORD))) & 7;
+	}
+
+	/**
+	 * Gets the total perimeter of the boundary from
+	 * the number of straight and diagonal steps,
+	 * including the step back to the first point.
+	 *
+	 * @return perimeter
+	 */
+	public float getPerimeter() {
+		int straight = straightSteps;
+		int diagonal = diagonalSteps;
+		int dx = Math.abs( startX - endX );
+		int dy = Math.abs( startY - endY );
+
+		// Add the closing step, which is a single step unless the boundary was cut short
+		if (dx + dy == 1)
+			straight++;
+		else if (dx == 1 && dy == 1)
+			diagonal++;
+		else if (dx + dy > 0)
+			return (float) (straight + diagonal * DIAGONAL_LENGTH + Math.sqrt( dx * dx + dy * dy ));
+		return (float) (straight + diagonal * DIAGONAL_LENGTH);
+	}
+
+	/**
+	 * Gets the bounding box of the boundary points,
+	 * as returned by Polygon.getBounds().
+	 *
+	 * @return bounding box
+	 */
+	public Rectangle getBounds() {
+		return new Rectangle(minX, minY, maxX - minX, maxY - minY);
+	}
+
+	/**
+	 * Creates a polygon with all the points
+	 * of the boundary.
+	 *
+	 * @return boundary polygon
+	 */
+	public Polygon toPolygon() {
+		int[] xpoints = new int[length + 1];
+		int[] ypoints = new int[length + 1];
+		int x = startX;
+		int y = startY;
+		xpoints[0] = x;
+		ypoints[0] = y;
+
+		// Follow the steps from the first point
+		for (int i = 0; i < length; i++) {
+			int direction = getDirection( i );
+			x += DX[direction];
+			y += DY[direction];
+			xpoints[i + 1] = x;
+			ypoints[i + 1] = y;
+		}
+		return new Polygon(xpoints, ypoints, length + 1);
+	}
+}
@@ -2,38 +2,103 @@ package riverObjects;
 
 import java.awt.Color;
 import java.awt.Polygon;
+import java.awt.Rectangle;
 
 /**
  *  Stores the polygon boundary and color of a 
- *  given object in a river image
+ *  given object in a river image. The boundary
+ *  may be stored as a chain code instead, in
+ *  which case the polygon is only created when
+ *  it is first needed.
  *  
  * @author mendesrodr
  *
  */
 public class ImageShape {
 	private Polygon polygon;
+	private ChainCode chain;
 	private Color color;
+	// Perimeter, once computed
+	private float perimeter = -1f;
 	
 	public ImageShape(Polygon boundaries, Color c) {
 		polygon = boundaries;
 		color = c;
 	}
 	
+	public ImageShape(ChainCode boundaries, Color c) {
+		chain = boundaries;
+		color = c;
+	}
+	
 	public Polygon getPolygon() {
+		if (polygon == null)
+			polygon = chain.toPolygon();
 		return polygon;
 	}
 	
+	/**
+	 * Returns the chain code of the boundaries,
+	 * or null if the shape was created from a polygon.
+	 * 
+	 * @return chain code
+	 */
+	public ChainCode getChainCode() {
+		return chain;
+	}
+	
+	/**
+	 * Returns the x coordinate of the first
+	 * boundary point.
+	 * 
+	 * @return x coordinate
+	 */
+	public int getStartX() {
+		if (chain != null)
+			return chain.getStartX();
+		return polygon.xpoints[0];
+	}
+	
+	/**
+	 * Returns the y coordinate of the first
+	 * boundary point.
+	 * 
+	 * @return y coordinate
+	 */
+	public int getStartY() {
+		if (chain != null)
+			return chain.getStartY();
+		return polygon.ypoints[0];
+	}
+	
+	/**
+	 * Gets the bounding box of this image shape.
+	 * 
+	 * @return bounding box
+	 */
+	public Rectangle getBounds() {
+		if (chain != null)
+			return chain.getBounds();
+		return polygon.getBounds();
+	}
+	
 	public Color getColor() {
 		return color;
 	}
 	
 	/**
 	 * Gets the total perimeter for this
-	 * image shape.
+	 * image shape. It is only computed once.
 	 * 
 	 * @return perimeter
 	 */
 	public float getPerimeter() {
+		if (perimeter < 0f)
+			perimeter = chain != null ? chain.getPerimeter() : polygonPerimeter();
+		return perimeter;
+	}
+	
+	private float polygonPerimeter() {
         int[] xpoints = polygon.xpoints;
         int[] ypoints = polygon.ypoints;
         int npoints = polygon.npoints;
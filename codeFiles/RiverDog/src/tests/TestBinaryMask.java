@@ -0,0 +1,101 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+
+import modules.BinaryMask;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the binary mask, which stores
+ * a black and white image with one bit per pixel.
+ */
+public class TestBinaryMask {
+
+    @Test
+    /**
+     * Test that pixels are set and scanned correctly,
+     * including across word boundaries.
+     */
+    public void testSetAndScan() {
+        BinaryMask mask = new BinaryMask(150, 3);
+        mask.set( 3, 1 );
+        mask.set( 64, 1 );
+        mask.set( 149, 1 );
+        mask.set( 0, 2 );
+
+        assertTrue(mask.get( 64, 1 ));
+        assertFalse(mask.get( 63, 1 ));
+        assertEquals(4, mask.cardinality());
+
+        // Scan row 1 for set pixels
+        assertEquals(3, mask.nextSetBit( 0, 1 ));
+        assertEquals(64, mask.nextSetBit( 4, 1 ));
+        assertEquals(149, mask.nextSetBit( 65, 1 ));
+        assertEquals(-1, mask.nextSetBit( 150, 1 ));
+        assertEquals(-1, mask.nextSetBit( 0, 0 ));
+
+        // Scan for clear pixels
+        assertEquals(4, mask.nextClearBit( 3, 1 ));
+        mask.clear( 149, 1 );
+        assertEquals(149, mask.nextClearBit( 149, 1 ));
+        assertEquals(3, mask.cardinality());
+    }
+
+    @Test
+    /**
+     * Test the word-at-a-time logical operations.
+     */
+    public void testLogicalOperations() {
+        BinaryMask a = new BinaryMask(70, 2);
+        BinaryMask b = new BinaryMask(70, 2);
+        a.set( 1, 0 );
+        a.set( 69, 1 );
+        b.set( 69, 1 );
+        b.set( 5, 0 );
+
+        BinaryMask and = a.copy();
+        and.and( b );
+        assertEquals(1, and.cardinality());
+        assertTrue(and.get( 69, 1 ));
+
+        BinaryMask or = a.copy();
+        or.or( b );
+        assertEquals(3, or.cardinality());
+
+        BinaryMask xor = a.copy();
+        xor.xor( b );
+        assertEquals(2, xor.cardinality());
+        assertFalse(xor.get( 69, 1 ));
+
+        a.andNot( b );
+        assertEquals(1, a.cardinality());
+        assertTrue(a.get( 1, 0 ));
+    }
+
+    @Test
+    /**
+     * Test that converting a black and white image
+     * to a mask and back gives the same image.
+     */
+    public void testImageRoundTrip() {
+        BufferedImage img = new BufferedImage(5, 4, BufferedImage.TYPE_INT_RGB);
+        int black = Color.BLACK.getRGB();
+        int white = Color.WHITE.getRGB();
+        for (int x = 0; x < 5; x++) {
+            for (int y = 0; y < 4; y++)
+                img.setRGB( x, y, (x + y) % 3 == 0 ? black : white );
+        }
+
+        BufferedImage result = BinaryMask.fromImage( img, black ).toImage();
+        for (int x = 0; x < 5; x++) {
+            for (int y = 0; y < 4; y++)
+                assertEquals(img.getRGB( x, y ), result.getRGB( x, y ));
+        }
+    }
+}
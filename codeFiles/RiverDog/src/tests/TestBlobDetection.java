@@ -1,16 +1,21 @@
 package tests;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.awt.Point;
+import java.awt.Polygon;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 import javax.imageio.ImageIO;
 
+import modules.BinaryMask;
 import modules.BlobDetection;
 import modules.ColorClassifier;
 
@@ -235,4 +240,196 @@ public class TestBlobDetection {
             fail( "Could not load test image." );
         }
     }
-}
+    
+    @Test
+    /**
+     * Test that detecting shapes on the classifier's
+     * binary mask gives the same shapes as detecting
+     * them on the classified image.
+     */
+    public void testFindImageShapesFromMask() {
+        try {
+            // Read in test image
+            BufferedImage original = ImageIO.read( new File("src/tests/testImage8.png") );
+            
+            // Run color classification, keeping both image and mask
+            ColorClassifier classification = new ColorClassifier(original);
+            BinaryMask mask = classification.getMask();
+            BufferedImage classified = mask.toImage();
+            
+            // Run blob detection on both
+            List<ImageShape> expected = new BlobDetection(classified, original).findImageShapes();
+            List<ImageShape> shapes = new BlobDetection(mask, original).findImageShapes();
+            
+            // Shapes should match point by point
+            assertEquals(expected.size(), shapes.size());
+            for (int i = 0; i < shapes.size(); i++) {
+                Polygon e = expected.get( i ).getPolygon();
+                Polygon p = shapes.get( i ).getPolygon();
+                assertEquals(e.npoints, p.npoints);
+                for (int j = 0; j < p.npoints; j++) {
+                    if (e.xpoints[j] != p.xpoints[j] || e.ypoints[j] != p.ypoints[j])
+                        fail("Mask boundaries don't match the expected at point (" + p.xpoints[j] + ", " + p.ypoints[j] + ")");
+                }
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            fail( "Could not load test image." );
+        }
+    }
+    
+    @Test
+    /**
+     * Test that blobs smaller than the minimum
+     * area are not traced.
+     */
+    public void testMinimumArea() {
+        try {
+            // Read in test image
+            BufferedImage original = ImageIO.read( new File("src/tests/testImage8.png") );
+            
+            // Run color classification
+            ColorClassifier classification = new ColorClassifier(original);
+            BinaryMask mask = classification.getMask();
+            
+            // Run blob detection, skipping the 4 pixel segment
+            BlobDetection detection = new BlobDetection(mask, original);
+            detection.setMinimumArea(5);
+            List<ImageShape> shapes = detection.findImageShapes();
+            
+            // Only the larger segment should be found
+            assertEquals(1, shapes.size());
+            assertEquals(8, shapes.get( 0 ).getPolygon().npoints);
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            fail( "Could not load test image." );
+        }
+    }
+    
+    @Test
+    /**
+     * Test the boundary of a mask shape which is only
+     * joined through a diagonal step and touches the
+     * borders of the picture.
+     */
+    public void testTraceDiagonalMaskShape() {
+        String[] rows = {
+                ".#..",
+                "###.",
+                ".#.#",
+                "..##"
+        };
+        BinaryMask mask = new BinaryMask(4, 4);
+        for (int y = 0; y < rows.length; y++) {
+            for (int x = 0; x < rows[y].length(); x++) {
+                if (rows[y].charAt( x ) == '#')
+                    mask.set( x, y );
+            }
+        }
+        
+        List<ImageShape> shapes = new BlobDetection(mask, null).findImageShapes();
+        assertEquals(1, shapes.size());
+        
+        // The shape should have the following boundary points:
+        Point[] boundaries = {
+                new Point(0, 1),
+                new Point(1, 0),
+                new Point(2, 1),
+                new Point(3, 2),
+                new Point(3, 3),
+                new Point(2, 3),
+                new Point(1, 2)
+        };
+        Polygon p = shapes.get( 0 ).getPolygon();
+        assertEquals(boundaries.length, p.npoints);
+        for (int i = 0; i < boundaries.length; i++) {
+            if (p.xpoints[i] != boundaries[i].x || p.ypoints[i] != boundaries[i].y)
+                fail("Boundaries don't match the expected at point (" + p.xpoints[i] + ", " + p.ypoints[i] + ")");
+        }
+    }
+    
+    @Test
+    /**
+     * Test that the k largest shapes found with a bounded
+     * heap are the head of the fully sorted list.
+     */
+    public void testFindLargestShapes() {
+        try {
+            // Read in test image
+            BufferedImage original = ImageIO.read( new File("src/tests/testImage2.png") );
+            BinaryMask mask = new ColorClassifier(original).getMask();
+            
+            List<ImageShape> sorted = new BlobDetection(mask, original).findImageShapes();
+            for (int k = 0; k <= 12; k += 3) {
+                List<ImageShape> largest = new BlobDetection(mask, original).findLargestShapes( k );
+                assertEquals(Math.min( k, sorted.size() ), largest.size());
+                for (int i = 0; i < largest.size(); i++) {
+                    assertEquals(sorted.get( i ).getStartX(), largest.get( i ).getStartX());
+                    assertEquals(sorted.get( i ).getStartY(), largest.get( i ).getStartY());
+                }
+            }
+            
+            // Perimeters should be in decreasing order
+            for (int i = 1; i < sorted.size(); i++)
+                assertTrue(sorted.get( i ).getPerimeter() <= sorted.get( i - 1 ).getPerimeter());
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            fail( "Could not load test image." );
+        }
+    }
+    
+    @Test
+    /**
+     * Test that the related shapes, selected in batches
+     * with a heap, are the head of the fully sorted list
+     * in the same order.
+     */
+    public void testFindLargestRelatedShapesMatchesSort() {
+        try {
+            BufferedImage original = ImageIO.read( new File("src/tests/testImage1.jpg") );
+            BinaryMask mask = new ColorClassifier(original).getMask();
+            
+            List<ImageShape> related = new BlobDetection(mask, original).findLargestRelatedShapes();
+            List<ImageShape> sorted = new BlobDetection(mask, original).findImageShapes();
+            assertEquals(33, related.size());
+            for (int i = 0; i < related.size(); i++) {
+                assertEquals(sorted.get( i ).getStartX(), related.get( i ).getStartX());
+                assertEquals(sorted.get( i ).getStartY(), related.get( i ).getStartY());
+            }
+        }
+        catch (IOException e) {
+            e.printStackTrace();
+            fail( "Could not load test image." );
+        }
+    }
+    
+    @Test
+    /**
+     * Test that shapes whose perimeters are each less than
+     * half a pixel apart are still sorted by perimeter, and
+     * that shapes of the same perimeter keep the order in
+     * which they were found.
+     */
+    public void testShapeOrderIsTotal() {
+        // Perimeters of 10.0, 10.4 and 10.8 pixels, found in that order
+        ImageShape small = new ImageShape(new Polygon(new int[] {0, 3, 3, 0}, new int[] {0, 0, 2, 2}, 4), null);
+        ImageShape medium = new ImageShape(new Polygon(new int[] {0, 1, 4}, new int[] {0, 2, 3}, 3), null);
+        ImageShape large = new ImageShape(new Polygon(new int[] {0, 1, 4}, new int[] {0, 3, 2}, 3), null);
+        ImageShape same = new ImageShape(new Polygon(new int[] {0, 2, 2, 0}, new int[] {0, 0, 3, 3}, 4), null);
+        
+        List<ImageShape> shapes = new ArrayList<ImageShape>();
+        shapes.add(small);
+        shapes.add(medium);
+        shapes.add(large);
+        shapes.add(same);
+        Collections.sort(shapes, BlobDetection.SHAPE_ORDER);
+        
+        assertTrue(shapes.get(0) == large);
+        assertTrue(shapes.get(1) == medium);
+        assertTrue(shapes.get(2) == small);
+        assertTrue(shapes.get(3) == same);
+    }
+}
\ No newline at end of file
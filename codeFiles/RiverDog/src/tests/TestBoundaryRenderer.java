@@ -10,6 +10,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import modules.BoundaryRenderer;
+import modules.ImageView;
 
 import org.junit.Test;
 
@@ -69,4 +70,32 @@ public class TestBoundaryRenderer {
 		}
 	}
 
-}
+	@Test
+	/**
+	 * Test that the image passed in is left alone
+	 * and the boundaries are drawn on a copy, unless
+	 * the image is handed over as a writable view.
+	 */
+	public void testOriginalUnchanged() {
+		BufferedImage img = new BufferedImage(9,9, BufferedImage.TYPE_INT_RGB);
+		int[] xPoints = {1, 7, 7, 1};
+		int[] yPoints = {1, 1, 7, 7};
+		ArrayList<ImageShape> list = new ArrayList<ImageShape>();
+		list.add(new ImageShape(new Polygon(xPoints, yPoints, 4), Color.RED));
+		
+		BoundaryRenderer b = new BoundaryRenderer(img);
+		b.setOutlineColor(Color.RED);
+		b.setImageShapes(list);
+		BufferedImage result = b.getImage();
+		assertNotSame(img, result);
+		assertEquals(Color.RED.getRGB(), result.getRGB(1, 1));
+		assertEquals(Color.BLACK.getRGB(), img.getRGB(1, 1));
+		
+		// A writable view is drawn on directly
+		b = new BoundaryRenderer(ImageView.writable(img));
+		b.setOutlineColor(Color.RED);
+		b.setImageShapes(list);
+		assertSame(img, b.getImage());
+		assertEquals(Color.RED.getRGB(), img.getRGB(1, 1));
+	}
+}
\ No newline at end of file
@@ -0,0 +1,116 @@
+package tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import modules.BinaryMask;
+import modules.BlobDetection;
+import modules.BufferPool;
+import modules.ColorClassifier;
+
+import org.junit.Test;
+
+import riverObjects.ImageShape;
+
+/**
+ * Unit tests for the buffer pool, which lets modules
+ * reuse their intermediate buffers between images.
+ */
+public class TestBufferPool {
+
+    @Test
+    /**
+     * Test that released arrays are handed out again,
+     * cleared, and that hits and misses are counted.
+     */
+    public void testBorrowAndRelease() {
+        BufferPool pool = new BufferPool(1000);
+        int[] first = pool.borrowInts(10);
+        first[3] = 42;
+        pool.release(first);
+        assertEquals(40, pool.getRetainedBytes());
+
+        // The same length reuses the array, cleared
+        int[] second = pool.borrowInts(10);
+        assertSame(first, second);
+        assertEquals(0, second[3]);
+        assertEquals(0, pool.getRetainedBytes());
+
+        // Another length does not
+        assertNotSame(first, pool.borrowInts(11));
+        assertEquals(1, pool.getHits());
+        assertEquals(2, pool.getMisses());
+    }
+
+    @Test
+    /**
+     * Test that the pool never keeps more bytes
+     * than it is allowed to.
+     */
+    public void testRetainedBytesLimit() {
+        BufferPool pool = new BufferPool(100);
+        pool.release(new long[10]);
+        pool.release(new long[10]);
+        assertEquals(80, pool.getRetainedBytes());
+        assertEquals(1, pool.getDiscarded());
+    }
+
+    @Test
+    /**
+     * Test that detecting shapes with pooled buffers
+     * gives the same shapes on every image, as reused
+     * buffers must not carry anything over.
+     */
+    public void testPooledDetection() {
+        BufferPool pool = new BufferPool(1 << 24);
+        int[] expected = describe(detect(createImage(5), null));
+        // Alternate between two images of the same size
+        for (int run = 0; run < 3; run++) {
+            int[] found = describe(detect(createImage(run % 2 == 0 ? 5 : 9), pool));
+            if (run % 2 == 0)
+                assertArrayEquals(expected, found);
+        }
+        assertTrue(pool.getHits() > 0);
+    }
+
+    private static List<ImageShape> detect(BufferedImage img, BufferPool pool) {
+        ColorClassifier cc = new ColorClassifier(img);
+        cc.setBufferPool(pool);
+        BinaryMask mask = cc.getMask();
+        BlobDetection blobs = new BlobDetection(mask, img);
+        blobs.setBufferPool(pool);
+        List<ImageShape> shapes = blobs.findImageShapes();
+        mask.release(pool);
+        return shapes;
+    }
+
+    private static int[] describe(List<ImageShape> shapes) {
+        int[] result = new int[shapes.size() * 2];
+        for (int i = 0; i < shapes.size(); i++) {
+            result[2 * i] = shapes.get(i).getStartX();
+            result[2 * i + 1] = Math.round(shapes.get(i).getPerimeter());
+        }
+        return result;
+    }
+
+    /**
+     * Creates a grass-coloured image with a blue
+     * stripe of the given width.
+     */
+    private static BufferedImage createImage(int stripe) {
+        BufferedImage img = new BufferedImage(40, 30, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < img.getHeight(); y++) {
+            for (int x = 0; x < img.getWidth(); x++) {
+                boolean river = x >= 10 && x < 10 + stripe;
+                img.setRGB(x, y, river ? 0x1030a0 : 0x40a020);
+            }
+        }
+        return img;
+    }
+}
@@ -0,0 +1,64 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.awt.Polygon;
+import java.awt.Rectangle;
+
+import org.junit.Test;
+
+import riverObjects.ChainCode;
+import riverObjects.ImageShape;
+
+/**
+ * Unit tests for chain code boundaries, which
+ * store each step of a boundary in 3 bits.
+ */
+public class TestChainCode {
+
+    @Test
+    /**
+     * Test that a chain code gives the same points,
+     * perimeter and bounds as the equivalent polygon,
+     * across several packed words.
+     */
+    public void testMatchesPolygon() {
+        // A staircase going right and down, then back left and up
+        ChainCode chain = new ChainCode(3, 5);
+        for (int i = 0; i < 30; i++) {
+            chain.add( 2 );
+            chain.add( 3 );
+        }
+        for (int i = 0; i < 29; i++) {
+            chain.add( 6 );
+            chain.add( 7 );
+        }
+        chain.add( 6 );
+        chain.trimToSize();
+
+        Polygon polygon = chain.toPolygon();
+        assertEquals(120, polygon.npoints);
+        assertEquals(3, polygon.xpoints[0]);
+        assertEquals(5, polygon.ypoints[0]);
+        assertEquals(63, polygon.xpoints[60]);
+        assertEquals(35, polygon.ypoints[60]);
+
+        ImageShape fromChain = new ImageShape(chain, Color.BLACK);
+        ImageShape fromPolygon = new ImageShape(polygon, Color.BLACK);
+        assertEquals(fromPolygon.getPerimeter(), fromChain.getPerimeter(), 1e-3f);
+        assertEquals(fromPolygon.getBounds(), fromChain.getBounds());
+        assertEquals(new Rectangle(3, 5, 60, 30), chain.getBounds());
+    }
+
+    @Test
+    /**
+     * Test that a single point has no perimeter.
+     */
+    public void testSinglePoint() {
+        ChainCode chain = new ChainCode(2, 2);
+        assertEquals(1, chain.getPointCount());
+        assertEquals(0f, chain.getPerimeter(), 0f);
+        assertEquals(1, chain.toPolygon().npoints);
+    }
+}
@@ -1,10 +1,15 @@
 package tests;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import java.awt.Color;
 import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
 
+import modules.BufferPool;
+import modules.CancellationToken;
 import modules.ColorClassifier;
 
 import org.junit.Test;
@@ -99,4 +104,87 @@ public class TestColorClassifier {
             }
         }
     }
+    
+    @Test
+    /**
+     * Tests that classifying through the precomputed
+     * lookup table gives the same result as converting
+     * every pixel to HSB.
+     */
+    public void testGetImageLookupTable() {
+        // Create a new image with random colors
+        int width = 64;
+        int height = 48;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(42);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++)
+                image.setRGB( x, y, random.nextInt() );
+        }
+        
+        // Classify with and without the lookup table
+        BufferedImage direct = new ColorClassifier(image).getImage();
+        ColorClassifier cc = new ColorClassifier(image);
+        cc.setUseLookupTable(true);
+        BufferedImage lookup = cc.getImage();
+        
+        // Check that both results match
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (direct.getRGB( x, y ) != lookup.getRGB( x, y ))
+                    fail( "Lookup table result differs at position " + x + ", " + y + " of the picture." );
+            }
+        }
+    }
+    
+    @Test
+    /**
+     * Tests that a cancelled token stops the
+     * classification before it is done.
+     */
+    public void testCancelled() {
+        BufferedImage image = new BufferedImage(64, 48, BufferedImage.TYPE_INT_RGB);
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        ColorClassifier cc = new ColorClassifier(image);
+        cc.setVerbose(false);
+        cc.setCancellationToken(token);
+        try {
+            cc.getMask();
+            fail( "Classification went on after the token was cancelled." );
+        }
+        catch (CancellationException e) {
+            // Expected
+        }
+    }
+    
+    @Test
+    /**
+     * Tests that the pixels and the mask are given
+     * back to the pool when the classification is
+     * cancelled, once every tile has stopped.
+     */
+    public void testCancelledReleasesBuffers() {
+        // Pixels of a byte image are copied into a borrowed array
+        BufferedImage image = new BufferedImage(1024, 1024, BufferedImage.TYPE_3BYTE_BGR);
+        BufferPool pool = new BufferPool(Long.MAX_VALUE);
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        ColorClassifier cc = new ColorClassifier(image);
+        cc.setVerbose(false);
+        cc.setBufferPool(pool);
+        cc.setCancellationToken(token);
+        try {
+            cc.getMask();
+            fail( "Classification went on after the token was cancelled." );
+        }
+        catch (CancellationException e) {
+            // Expected
+        }
+        
+        // Both arrays are borrowed again on the next run
+        cc.setCancellationToken(null);
+        cc.getMask().release(pool);
+        assertEquals(2, pool.getHits());
+    }
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+package tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.Random;
+
+import modules.BinaryMask;
+import modules.ComponentLabeling;
+import modules.TileScheduler;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for connected component labeling,
+ * which gives every blob in a picture a label
+ * along with its area, bounding box and color.
+ */
+public class TestComponentLabeling {
+
+    /**
+     * Creates a mask from rows of text, where '#'
+     * marks a set pixel.
+     */
+    private BinaryMask createMask(String[] rows) {
+        BinaryMask mask = new BinaryMask(rows[0].length(), rows.length);
+        for (int y = 0; y < rows.length; y++) {
+            for (int x = 0; x < rows[y].length(); x++) {
+                if (rows[y].charAt( x ) == '#')
+                    mask.set( x, y );
+            }
+        }
+        return mask;
+    }
+
+    @Test
+    /**
+     * Test that diagonal neighbors are only joined
+     * with 8-connectivity.
+     */
+    public void testConnectivity() {
+        String[] rows = {
+                "##...",
+                "##...",
+                "..#..",
+                "...##"
+        };
+        BinaryMask mask = createMask(rows);
+
+        ComponentLabeling four = new ComponentLabeling(mask, ComponentLabeling.FOUR_CONNECTED).label();
+        assertEquals(3, four.getComponentCount());
+        ComponentLabeling eight = new ComponentLabeling(mask, ComponentLabeling.EIGHT_CONNECTED).label();
+        assertEquals(1, eight.getComponentCount());
+        assertEquals(7, eight.getArea( 1 ));
+    }
+
+    @Test
+    /**
+     * Test the statistics recorded for each component,
+     * including components that merge late (U shape).
+     */
+    public void testStatistics() {
+        String[] rows = {
+                "#.#...",
+                "#.#..#",
+                "###..#",
+                "......"
+        };
+        ComponentLabeling labeling = new ComponentLabeling(createMask(rows), ComponentLabeling.EIGHT_CONNECTED).label();
+
+        // Components are numbered by their first pixel in row-major order
+        assertEquals(2, labeling.getComponentCount());
+        assertEquals(1, labeling.getLabel( 0, 0 ));
+        assertEquals(1, labeling.getLabel( 2, 0 ));
+        assertEquals(2, labeling.getLabel( 5, 1 ));
+        assertEquals(0, labeling.getLabel( 1, 0 ));
+
+        // U shape
+        assertEquals(7, labeling.getArea( 1 ));
+        assertEquals(new Rectangle(0, 0, 3, 3), labeling.getBounds( 1 ));
+        assertEquals(0, labeling.getStartX( 1 ));
+        assertEquals(2, labeling.getStartY( 1 ));
+        assertEquals(Color.BLACK, labeling.getColor( 1 ));
+
+        // Bar on the right
+        assertEquals(2, labeling.getArea( 2 ));
+        assertEquals(new Rectangle(5, 1, 1, 2), labeling.getBounds( 2 ));
+    }
+
+    @Test
+    /**
+     * Test that touching pixels of different colors
+     * are labeled as different components.
+     */
+    public void testColors() {
+        int white = Color.WHITE.getRGB();
+        int red = Color.RED.getRGB();
+        int green = Color.GREEN.getRGB();
+        int[] pixels = {
+                red,   red,   white,
+                green, green, white,
+                white, white, red
+        };
+        ComponentLabeling labeling = new ComponentLabeling(pixels, 3, 3, white, ComponentLabeling.EIGHT_CONNECTED).label();
+
+        assertEquals(3, labeling.getComponentCount());
+        assertEquals(Color.RED, labeling.getColor( 1 ));
+        assertEquals(Color.GREEN, labeling.getColor( 2 ));
+        assertEquals(2, labeling.getArea( 2 ));
+        assertEquals(1, labeling.getArea( 3 ));
+    }
+
+    @Test
+    /**
+     * Test that labeling strips in parallel gives
+     * exactly the same labels as a single strip.
+     */
+    public void testParallelMatchesSequential() {
+        Random random = new Random(3);
+        int width = 97;
+        int height = 120;
+        TileScheduler scheduler = new TileScheduler(4, width * 3);
+
+        for (int trial = 0; trial < 20; trial++) {
+            // Create a random mask, denser in later trials
+            BinaryMask mask = new BinaryMask(width, height);
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    if (random.nextInt( 20 ) < trial)
+                        mask.set( x, y );
+                }
+            }
+
+            for (int connectivity = 4; connectivity <= 8; connectivity += 4) {
+                ComponentLabeling sequential = new ComponentLabeling(mask, connectivity).label();
+                ComponentLabeling parallel = new ComponentLabeling(mask, connectivity);
+                parallel.setScheduler( scheduler );
+                parallel.label();
+
+                assertEquals(sequential.getComponentCount(), parallel.getComponentCount());
+                assertArrayEquals(sequential.getLabels(), parallel.getLabels());
+                for (int label = 1; label <= sequential.getComponentCount(); label++) {
+                    assertEquals(sequential.getArea( label ), parallel.getArea( label ));
+                    assertEquals(sequential.getBounds( label ), parallel.getBounds( label ));
+                }
+            }
+        }
+    }
+}
\ No newline at end of file
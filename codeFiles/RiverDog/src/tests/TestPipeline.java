@@ -0,0 +1,162 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import pipeline.BatchRunner;
+import pipeline.Pipeline;
+import pipeline.PipelineResult;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the pipeline as a whole, pinning the
+ * results of the sample images so that faster modules
+ * cannot change what is found.
+ */
+public class TestPipeline {
+    private static final String[] IMAGES = {
+        "clientImage1.png", "clientImage2.png", "testImage1.jpg", "testImage2.png",
+        "testImage3.png", "testImage4.png", "testImage5.png", "testImage6.png",
+        "testImage7.png", "testImage8.png"
+    };
+    // Segments found in each image with the default settings
+    private static final int[] SEGMENTS = { 2, 2, 33, 2549, 0, 0, 0, 0, 0, 2 };
+
+    @Test
+    /**
+     * Test that the default settings find the same number
+     * of river segments in the sample images as ever.
+     */
+    public void testSegmentCounts() {
+        Pipeline pipeline = new Pipeline();
+        pipeline.setVerbose(false);
+        assertEquals(1, pipeline.getMinimumSegmentArea());
+        for (int i = 0; i < IMAGES.length; i++) {
+            PipelineResult result = pipeline.process(new File("src/tests/" + IMAGES[i]), null);
+            assertTrue(IMAGES[i], result.isSuccessful());
+            assertEquals(IMAGES[i], SEGMENTS[i], result.getShapes().size());
+        }
+    }
+
+    @Test
+    /**
+     * Test that the minimum segment area is part of the
+     * configuration results are cached under.
+     */
+    public void testMinimumSegmentAreaConfiguration() {
+        Pipeline pipeline = new Pipeline();
+        File output = new File("result.png");
+        String configuration = pipeline.getConfiguration(output);
+        pipeline.setMinimumSegmentArea(Pipeline.SPECKLE_AREA);
+        assertTrue(!configuration.equals(pipeline.getConfiguration(output)));
+    }
+
+    @Test
+    /**
+     * Test that images over the tiled threshold get the
+     * same segments, without a result image being written.
+     */
+    public void testTiledThreshold() throws IOException {
+        // TIFF can be read a tile at a time
+        File input = File.createTempFile("tiled", ".tif");
+        File output = File.createTempFile("tiled", ".png");
+        output.delete();
+        try {
+            ImageIO.write(ImageIO.read(new File("src/tests/testImage1.jpg")), "tiff", input);
+            Pipeline pipeline = new Pipeline();
+            pipeline.setVerbose(false);
+            pipeline.setTiledThreshold(1);
+            PipelineResult result = pipeline.process(input, output);
+            assertTrue(result.isSuccessful());
+            assertTrue(result.isTiled());
+            assertEquals(33, result.getShapes().size());
+            assertFalse(output.exists());
+
+            // Smaller images are still decoded whole
+            pipeline.setTiledThreshold(result.getPixels() + 1);
+            result = pipeline.process(input, null);
+            assertFalse(result.isTiled());
+            assertEquals(33, result.getShapes().size());
+
+            // JPEG would be decoded again for every tile, so it is refused
+            pipeline.setTiledThreshold(1);
+            result = pipeline.process(new File("src/tests/testImage1.jpg"), null);
+            assertFalse(result.isSuccessful());
+            assertTrue(result.getError() instanceof IOException);
+        }
+        finally {
+            input.delete();
+        }
+    }
+
+    @Test
+    /**
+     * Test that results named with the default pattern,
+     * as the batch and the interface write them, are PNG
+     * whatever the format of the image.
+     */
+    public void testResultWrittenAsPng() throws IOException {
+        File directory = Files.createTempDirectory("results").toFile();
+        File output = BatchRunner.getOutputFile(new File("src/tests/testImage1.jpg"), directory,
+                BatchRunner.DEFAULT_OUTPUT_PATTERN);
+        try {
+            assertEquals("testImage1-riverDetected.png", output.getName());
+            Pipeline pipeline = new Pipeline();
+            pipeline.setVerbose(false);
+            assertTrue(pipeline.process(new File("src/tests/testImage1.jpg"), output).isSuccessful());
+            ImageInputStream stream = ImageIO.createImageInputStream(output);
+            try {
+                ImageReader reader = ImageIO.getImageReaders(stream).next();
+                assertEquals("png", reader.getFormatName().toLowerCase());
+            }
+            finally {
+                stream.close();
+            }
+        }
+        finally {
+            output.delete();
+            directory.delete();
+        }
+    }
+
+    @Test
+    /**
+     * Test that listing a directory leaves out the results
+     * of an earlier batch written next to their inputs.
+     */
+    public void testFindInputsSkipsResults() throws IOException {
+        File directory = Files.createTempDirectory("inputs").toFile();
+        File input = new File(directory, "river.png");
+        File result = new File(directory, "river-riverDetected.png");
+        File other = new File(directory, "other.png");
+        try {
+            for (File file : new File[] { input, result, other })
+                Files.copy(new File("src/tests/testImage5.png").toPath(), file.toPath());
+            List<File> found = BatchRunner.findInputs(new String[] { directory.getPath() });
+            assertEquals(Arrays.asList(other, input), found);
+
+            // Results written elsewhere are images like any other
+            found = BatchRunner.findInputs(new String[] { directory.getPath() }, new File("results"),
+                    BatchRunner.DEFAULT_OUTPUT_PATTERN);
+            assertEquals(3, found.size());
+        }
+        finally {
+            input.delete();
+            result.delete();
+            other.delete();
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CancellationException;
+
+import modules.CancellationToken;
+import modules.ColorClassifier;
+import modules.Profiler;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the profiler, which adds up the time,
+ * allocations and pixels of each module.
+ */
+public class TestProfiler {
+
+    @Test
+    /**
+     * Test that every call of a section is added
+     * to its totals.
+     */
+    public void testSectionTotals() {
+        Profiler profiler = new Profiler();
+        for (int i = 0; i < 3; i++) {
+            Profiler.Section section = profiler.start("work", 100);
+            // Allocate something to be measured
+            int[] buffer = new int[1000];
+            buffer[i] = i;
+            section.end();
+        }
+
+        Profiler.Stats stats = profiler.getStats("work");
+        assertEquals(3, stats.getCalls());
+        assertEquals(300, stats.getPixels());
+        assertTrue(stats.getWallNanos() > 0);
+        assertEquals(1, profiler.getAllStats().size());
+    }
+
+    @Test
+    /**
+     * Test that nothing is recorded while the
+     * profiler is off.
+     */
+    public void testDisabled() {
+        Profiler profiler = new Profiler();
+        profiler.setEnabled(false);
+        profiler.start("work", 100).end();
+        assertNull(profiler.getStats("work"));
+    }
+
+    @Test
+    /**
+     * Test that the modules report to the
+     * default profiler.
+     */
+    public void testModuleSection() {
+        Profiler previous = Profiler.getDefault();
+        Profiler profiler = new Profiler();
+        Profiler.setDefault(profiler);
+        try {
+            new ColorClassifier(new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB)).getMask();
+        }
+        finally {
+            Profiler.setDefault(previous);
+        }
+        assertEquals(1, profiler.getStats("ColorClassifier").getCalls());
+        assertEquals(200, profiler.getStats("ColorClassifier").getPixels());
+    }
+
+    @Test
+    /**
+     * Test that a section is still added to the totals
+     * when the module is cancelled part way.
+     */
+    public void testCancelledSection() {
+        Profiler previous = Profiler.getDefault();
+        Profiler profiler = new Profiler();
+        Profiler.setDefault(profiler);
+        try {
+            CancellationToken token = new CancellationToken();
+            token.cancel();
+            ColorClassifier classifier = new ColorClassifier(new BufferedImage(20, 10, BufferedImage.TYPE_INT_RGB));
+            classifier.setCancellationToken(token);
+            classifier.getMask();
+            fail("Expected the classifier to be cancelled");
+        }
+        catch (CancellationException e) {
+            // Expected
+        }
+        finally {
+            Profiler.setDefault(previous);
+        }
+        assertEquals(1, profiler.getStats("ColorClassifier").getCalls());
+    }
+}
@@ -0,0 +1,100 @@
+package tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Polygon;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import benchmarks.SyntheticRiverGenerator;
+import modules.PyramidDetection;
+import pipeline.Pipeline;
+import riverObjects.ImageShape;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for coarse to fine detection, which
+ * must trace the same boundaries as a full resolution
+ * run while classifying fewer pixels.
+ */
+public class TestPyramidDetection {
+
+    private static final String[] IMAGES = {
+        "clientImage1.png", "clientImage2.png", "testImage1.jpg", "testImage2.png",
+        "testImage3.png", "testImage4.png", "testImage5.png", "testImage6.png",
+        "testImage7.png", "testImage8.png"
+    };
+
+    /**
+     * Checks that pyramid detection finds the same segments
+     * as the pipeline, returning the pixels it touched.
+     */
+    private long assertSameShapes(BufferedImage img, int factor, int area) {
+        Pipeline pipeline = new Pipeline();
+        pipeline.setVerbose(false);
+        pipeline.setMinimumSegmentArea(area);
+        List<ImageShape> expected = pipeline.detect(pipeline.classify(img), img);
+
+        PyramidDetection pyramid = new PyramidDetection(img, factor);
+        pyramid.setMinimumArea(area);
+        List<ImageShape> actual = pyramid.findLargestRelatedShapes(pyramid.classifyCoarse());
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Polygon e = expected.get(i).getPolygon();
+            Polygon a = actual.get(i).getPolygon();
+            assertArrayEquals(e.xpoints, a.xpoints);
+            assertArrayEquals(e.ypoints, a.ypoints);
+        }
+        return pyramid.getPixelsTouched();
+    }
+
+    @Test
+    /**
+     * Test that segments are the same on every sample
+     * image, with and without speckle kept.
+     */
+    public void testSampleImages() throws IOException {
+        for (String name : IMAGES) {
+            BufferedImage img = ImageIO.read( new File("src/tests/" + name) );
+            for (int factor : new int[] { 4, 8 }) {
+                assertSameShapes(img, factor, 1);
+                assertSameShapes(img, factor, Pipeline.SPECKLE_AREA);
+            }
+        }
+    }
+
+    @Test
+    /**
+     * Test that a photo whose segments stand out from the
+     * land is found touching a fraction of the pixels.
+     */
+    public void testClientImage() throws IOException {
+        BufferedImage img = ImageIO.read( new File("src/tests/clientImage1.png") );
+        long touched = assertSameShapes(img, 4, Pipeline.SPECKLE_AREA);
+        assertTrue(touched * 4 < (long) img.getWidth() * img.getHeight());
+    }
+
+    @Test
+    /**
+     * Test that a made up river with speckle of river color
+     * is found the same. Speckle between the samples could
+     * be related, so the whole image is classified.
+     */
+    public void testSyntheticRiver() {
+        SyntheticRiverGenerator generator = new SyntheticRiverGenerator(5);
+        generator.setRiverWidth(40);
+        generator.setSegments(4);
+        generator.setSpeckleDensity(0.01);
+        BufferedImage img = generator.generate(1000, 1000);
+        long touched = assertSameShapes(img, 4, Pipeline.SPECKLE_AREA);
+        assertTrue(touched >= 1000 * 1000);
+    }
+}
@@ -0,0 +1,117 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import pipeline.BatchExecutor;
+import pipeline.MemoryBudget;
+import pipeline.Pipeline;
+import pipeline.PipelineResult;
+import pipeline.ResultBus;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the result bus, which hands results
+ * over in memory and writes them in the background.
+ */
+public class TestResultBus {
+
+    @Test
+    /**
+     * Test that a result is published with its segments,
+     * and written the same as without the bus.
+     */
+    public void testPublishAndWrite() throws IOException, InterruptedException {
+        File input = new File("src/tests/testImage2.png");
+        File direct = File.createTempFile("direct", ".png");
+        File published = File.createTempFile("published", ".png");
+        try {
+            Pipeline pipeline = new Pipeline();
+            pipeline.setVerbose(false);
+            assertTrue(pipeline.process(input, direct).isSuccessful());
+
+            final List<PipelineResult> results = new ArrayList<PipelineResult>();
+            final List<IOException> errors = new ArrayList<IOException>();
+            ResultBus bus = new ResultBus();
+            bus.subscribe(new ResultBus.Subscriber() {
+                public void resultPublished(PipelineResult result) {
+                    results.add(result);
+                }
+
+                public void resultWritten(PipelineResult result, IOException error) {
+                    errors.add(error);
+                }
+            });
+            pipeline.setResultBus(bus);
+            PipelineResult result = pipeline.process(input, published);
+            assertTrue(result.isSuccessful());
+            assertEquals(1, results.size());
+            assertSame(result, results.get(0));
+            assertTrue(!result.getShapes().isEmpty());
+
+            bus.flush();
+            assertEquals(0, bus.getPendingWrites());
+            assertEquals(1, errors.size());
+            assertNull(errors.get(0));
+            BufferedImage expected = ImageIO.read(direct);
+            BufferedImage actual = ImageIO.read(published);
+            assertEquals(expected.getWidth(), actual.getWidth());
+            assertEquals(expected.getHeight(), actual.getHeight());
+            for (int y = 0; y < expected.getHeight(); y++) {
+                for (int x = 0; x < expected.getWidth(); x++)
+                    assertEquals(expected.getRGB(x, y), actual.getRGB(x, y));
+            }
+        }
+        finally {
+            direct.delete();
+            published.delete();
+        }
+    }
+
+    @Test
+    /**
+     * Test that an image which cannot be written fails,
+     * and that its memory is held until the bus is done
+     * with it.
+     */
+    public void testWriteFailure() throws InterruptedException {
+        final MemoryBudget budget = new MemoryBudget(Long.MAX_VALUE);
+        final List<Long> usedWhenWritten = new ArrayList<Long>();
+        ResultBus bus = new ResultBus();
+        bus.subscribe(new ResultBus.Subscriber() {
+            public void resultPublished(PipelineResult result) {
+            }
+
+            public void resultWritten(PipelineResult result, IOException error) {
+                usedWhenWritten.add(budget.getUsed());
+            }
+        });
+        Pipeline pipeline = new Pipeline();
+        pipeline.setVerbose(false);
+        pipeline.setResultBus(bus);
+        File output = new File("src/tests/missing/result.png");
+        List<PipelineResult> results = new BatchExecutor(pipeline, 1, budget).run(
+                Arrays.asList(new File("src/tests/testImage8.png")), Arrays.asList(output), null);
+
+        bus.flush();
+        assertFalse(results.get(0).isSuccessful());
+        assertTrue(results.get(0).getError() instanceof IOException);
+        assertFalse(output.exists());
+        assertEquals(1, usedWhenWritten.size());
+        assertTrue(usedWhenWritten.get(0) > 0);
+        assertEquals(0, budget.getUsed());
+    }
+}
@@ -0,0 +1,123 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import modules.BinaryMask;
+import modules.RunComponent;
+import modules.RunLabeling;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for labeling a mask row by row as
+ * runs of set pixels.
+ */
+public class TestRunLabeling {
+
+    /**
+     * Creates a mask from rows of text, where '#'
+     * marks a set pixel.
+     */
+    private BinaryMask createMask(String[] rows) {
+        BinaryMask mask = new BinaryMask(rows[0].length(), rows.length);
+        for (int y = 0; y < rows.length; y++) {
+            for (int x = 0; x < rows[y].length(); x++) {
+                if (rows[y].charAt( x ) == '#')
+                    mask.set( x, y );
+            }
+        }
+        return mask;
+    }
+
+    @Test
+    /**
+     * Test that runs are joined diagonally and that a
+     * U shape, whose arms only meet at the bottom, is a
+     * single component.
+     */
+    public void testComponentCount() {
+        String[] rows = {
+                "#...#..##",
+                "#...#....",
+                "#####.#..",
+                ".......#."
+        };
+        RunLabeling labeling = RunLabeling.label(createMask(rows));
+        assertEquals(3, labeling.getComponentCount());
+    }
+
+    @Test
+    /**
+     * Test that only the components smaller than the
+     * minimum area are cleared.
+     */
+    public void testClearSmall() {
+        String[] rows = {
+                "#...#..##",
+                "#...#....",
+                "#####.#..",
+                ".......#."
+        };
+        BinaryMask mask = createMask(rows);
+        RunLabeling.label(mask).clearSmall(mask, 3);
+        assertEquals(9, mask.cardinality());
+        assertTrue(mask.get( 4, 0 ));
+        assertFalse(mask.get( 7, 0 ));
+        assertFalse(mask.get( 7, 3 ));
+    }
+
+    @Test
+    /**
+     * Test that components are closed once a row no longer
+     * reaches them, with all their pixels, while the U shape
+     * stays open until its arms meet.
+     */
+    public void testCloseComponents() {
+        String[] rows = {
+                "#...#..##",
+                "#...#....",
+                "#####.#..",
+                ".......#."
+        };
+        BinaryMask mask = createMask(rows);
+        RunLabeling labeling = new RunLabeling();
+        labeling.setKeepRuns(true);
+        List<RunComponent> closed = new ArrayList<RunComponent>();
+        List<Integer> closedAfter = new ArrayList<Integer>();
+        for (int y = 0; y < rows.length; y++) {
+            // Add each row from a mask of its own, as from a tile
+            BinaryMask row = createMask(new String[] { rows[y] });
+            labeling.addRow(row, 0, y);
+            for (RunComponent component : labeling.closeComponents(y == rows.length - 1)) {
+                closed.add(component);
+                closedAfter.add(y);
+            }
+        }
+
+        assertEquals(3, closed.size());
+        // The pair at the top right is closed by the second row
+        assertEquals(2, closed.get(0).getArea());
+        assertEquals(1, (int) closedAfter.get(0));
+        // The U shape and the diagonal pair are closed by the last row
+        assertEquals(9, closed.get(1).getArea());
+        assertEquals(2, closed.get(2).getArea());
+        assertEquals(3, (int) closedAfter.get(2));
+        int pixels = 0;
+        for (RunComponent component : closed) {
+            for (int y = component.getTop(); y <= component.getBottom(); y++) {
+                for (int x = component.getLeft(); x <= component.getRight(); x++) {
+                    if (component.get(x, y)) {
+                        assertTrue(mask.get(x, y));
+                        pixels++;
+                    }
+                }
+            }
+        }
+        assertEquals(mask.cardinality(), pixels);
+    }
+}
@@ -0,0 +1,132 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import pipeline.BatchExecutor;
+import pipeline.MemoryBudget;
+import pipeline.Pipeline;
+import pipeline.PipelineResult;
+import pipeline.Stage;
+import pipeline.StagedPipeline;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the staged pipeline, which must give the
+ * same results as the pipeline run one image at a time.
+ */
+public class TestStagedPipeline {
+
+    @Test
+    /**
+     * Test that the results come back in order with the
+     * same segments as Pipeline.process().
+     */
+    public void testSameAsProcess() throws InterruptedException {
+        Pipeline pipeline = new Pipeline();
+        pipeline.setVerbose(false);
+        List<File> inputs = Arrays.asList(new File("src/tests/testImage8.png"),
+                new File("src/tests/missing.png"), new File("src/tests/clientImage1.png"));
+        List<PipelineResult> results = new StagedPipeline(pipeline).run(inputs, null, null);
+        assertEquals(inputs.size(), results.size());
+        for (int i = 0; i < inputs.size(); i++) {
+            PipelineResult expected = pipeline.process(inputs.get(i), null);
+            assertSame(inputs.get(i), results.get(i).getInput());
+            assertEquals(expected.isSuccessful(), results.get(i).isSuccessful());
+            if (expected.isSuccessful())
+                assertEquals(expected.getShapes().size(), results.get(i).getShapes().size());
+        }
+    }
+
+    @Test
+    /**
+     * Test that a listener throwing does not stop the run,
+     * and that its error is kept in the result it was given.
+     */
+    public void testListenerError() throws InterruptedException {
+        Pipeline pipeline = new Pipeline();
+        pipeline.setVerbose(false);
+        List<File> inputs = Arrays.asList(new File("src/tests/testImage8.png"),
+                new File("src/tests/testImage3.png"));
+        final IllegalStateException error = new IllegalStateException("listener");
+        List<PipelineResult> results = new StagedPipeline(pipeline).run(inputs, null, new BatchExecutor.ResultListener() {
+            public void resultReady(int index, PipelineResult result) {
+                if (index == 0)
+                    throw error;
+            }
+        });
+        assertSame(error, results.get(0).getError());
+        assertTrue(results.get(1).isSuccessful());
+    }
+
+    @Test
+    /**
+     * Test that a worker interrupted while passing an image on
+     * cancels the run, leaving every image with a result and
+     * the memory budget given back.
+     */
+    public void testInterruptedWorker() throws InterruptedException {
+        Pipeline pipeline = new Pipeline();
+        pipeline.setVerbose(false);
+        final AtomicBoolean interrupted = new AtomicBoolean();
+        pipeline.setStageListener(new Pipeline.StageListener() {
+            public void stageStarted(Stage stage) {
+                if (stage == Stage.RENDER && interrupted.compareAndSet(false, true))
+                    Thread.currentThread().interrupt();
+            }
+        });
+        List<File> inputs = new ArrayList<File>();
+        for (int i = 0; i < 8; i++)
+            inputs.add(new File("src/tests/testImage8.png"));
+        MemoryBudget budget = new MemoryBudget(1L << 40);
+        List<PipelineResult> results = new StagedPipeline(pipeline, budget).run(inputs, null, null);
+
+        assertEquals(inputs.size(), results.size());
+        int cancelled = 0;
+        for (PipelineResult result : results) {
+            assertNotNull(result);
+            if (!result.isSuccessful()) {
+                assertTrue(result.getError() instanceof CancellationException);
+                cancelled++;
+            }
+        }
+        assertTrue(cancelled > 0);
+        assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    /**
+     * Test that images submitted one at a time are handed
+     * over in the order they were submitted.
+     */
+    public void testSubmit() throws InterruptedException {
+        Pipeline pipeline = new Pipeline();
+        pipeline.setVerbose(false);
+        final List<Integer> indices = new ArrayList<Integer>();
+        final List<File> inputs = new ArrayList<File>();
+        StagedPipeline staged = new StagedPipeline(pipeline);
+        staged.start(new BatchExecutor.ResultListener() {
+            public void resultReady(int index, PipelineResult result) {
+                indices.add(index);
+                inputs.add(result.getInput());
+            }
+        });
+        File first = new File("src/tests/clientImage1.png");
+        File second = new File("src/tests/testImage8.png");
+        staged.submit(first, null);
+        staged.submit(second, null);
+        staged.finish();
+        assertEquals(Arrays.asList(0, 1), indices);
+        assertEquals(Arrays.asList(first, second), inputs);
+    }
+}
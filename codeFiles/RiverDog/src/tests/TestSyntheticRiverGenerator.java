@@ -0,0 +1,61 @@
+package tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.util.List;
+
+import modules.BlobDetection;
+import modules.ColorClassifier;
+import modules.RasterAccess;
+
+import org.junit.Test;
+
+import riverObjects.ImageShape;
+import benchmarks.SyntheticRiverGenerator;
+
+/**
+ * Unit tests for the synthetic river generator, which
+ * makes up river scenes for the benchmarks.
+ */
+public class TestSyntheticRiverGenerator {
+
+    @Test
+    /**
+     * Test that the same seed always gives
+     * the same image.
+     */
+    public void testDeterministic() {
+        int[] first = RasterAccess.readPixels(createGenerator().generate(120, 80));
+        int[] second = RasterAccess.readPixels(createGenerator().generate(120, 80));
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    /**
+     * Test that the river is found as the requested
+     * number of disconnected segments.
+     */
+    public void testSegments() {
+        SyntheticRiverGenerator generator = new SyntheticRiverGenerator(3);
+        generator.setRiverWidth(10);
+        generator.setSegments(4);
+        generator.setSpeckleDensity(0);
+        BufferedImage image = generator.generate(200, 100);
+
+        BlobDetection blobs = new BlobDetection(new ColorClassifier(image).getMask(), image);
+        blobs.setMinimumArea(16);
+        List<ImageShape> shapes = blobs.findImageShapes();
+        assertEquals(4, generator.getSegmentCount(200));
+        assertEquals(4, shapes.size());
+    }
+
+    private static SyntheticRiverGenerator createGenerator() {
+        SyntheticRiverGenerator generator = new SyntheticRiverGenerator(7);
+        generator.setSegments(3);
+        generator.setSpeckleDensity(0.01);
+        generator.setColorDrift(0.1f);
+        return generator;
+    }
+}
@@ -0,0 +1,85 @@
+package tests;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import modules.ColorClassifier;
+import modules.TileScheduler;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the tile scheduler, which splits
+ * an image in tiles of whole rows and processes them
+ * in parallel, merging the results of every tile.
+ */
+public class TestTileScheduler {
+
+    @Test
+    /**
+     * Test that every row is processed exactly
+     * once and that tile results are all merged.
+     */
+    public void testRunCoversAllRows() {
+        int width = 10;
+        int height = 1000;
+        final int[] counts = new int[height];
+
+        // Use tiny tiles so the work is split many times
+        TileScheduler scheduler = new TileScheduler(4, 30);
+        int total = scheduler.run(width, height, new TileScheduler.TileTask<Integer>() {
+            public Integer processTile(int firstRow, int lastRow) {
+                for (int y = firstRow; y < lastRow; y++)
+                    counts[y]++;
+                return lastRow - firstRow;
+            }
+
+            public Integer merge(Integer first, Integer second) {
+                return first + second;
+            }
+        });
+
+        // All rows should be counted once
+        assertEquals(height, total);
+        for (int y = 0; y < height; y++) {
+            if (counts[y] != 1)
+                fail("Row " + y + " was processed " + counts[y] + " times.");
+        }
+    }
+
+    @Test
+    /**
+     * Test that classifying an image in parallel
+     * gives the same result as a single tile.
+     */
+    public void testParallelClassification() {
+        // Create an image with random colors
+        int width = 50;
+        int height = 80;
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(7);
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++)
+                image.setRGB( x, y, random.nextInt() );
+        }
+
+        // Classify in a single tile and in many tiles
+        ColorClassifier single = new ColorClassifier(image);
+        single.setScheduler(new TileScheduler(1, width * height));
+        BufferedImage expected = single.getImage();
+        ColorClassifier tiled = new ColorClassifier(image);
+        tiled.setScheduler(new TileScheduler(4, width));
+        BufferedImage result = tiled.getImage();
+
+        // Check that both results match
+        for (int x = 0; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                if (expected.getRGB( x, y ) != result.getRGB( x, y ))
+                    fail( "Tiled result differs at position " + x + ", " + y + " of the picture." );
+            }
+        }
+    }
+}
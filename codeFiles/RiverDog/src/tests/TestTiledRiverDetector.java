@@ -0,0 +1,91 @@
+package tests;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Polygon;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import javax.imageio.ImageIO;
+
+import benchmarks.SyntheticRiverGenerator;
+import pipeline.Pipeline;
+import pipeline.TiledRiverDetector;
+import riverObjects.ImageShape;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the tiled river detector, which must
+ * find the same river segments as the pipeline does on
+ * the whole image.
+ */
+public class TestTiledRiverDetector {
+
+    /**
+     * Checks that the tiled detector finds the same
+     * segments as the pipeline, with the given tile height
+     * and minimum segment area.
+     */
+    private void assertSameShapes(File file, int tileHeight, int minimumArea) throws IOException {
+        Pipeline pipeline = new Pipeline();
+        pipeline.setVerbose(false);
+        pipeline.setMinimumSegmentArea(minimumArea);
+        BufferedImage img = pipeline.decode(file);
+        List<ImageShape> expected = pipeline.detect(pipeline.classify(img), img);
+
+        TiledRiverDetector detector = new TiledRiverDetector();
+        detector.setVerbose(false);
+        detector.setTileHeight(tileHeight);
+        detector.setMinimumArea(minimumArea);
+        List<ImageShape> actual = detector.detect(file);
+        assertTrue(detector.getTilesRead() >= (img.getHeight() + tileHeight - 1) / tileHeight);
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Polygon e = expected.get(i).getPolygon();
+            Polygon a = actual.get(i).getPolygon();
+            assertEquals(e.npoints, a.npoints);
+            assertArrayEquals(e.xpoints, a.xpoints);
+            assertArrayEquals(e.ypoints, a.ypoints);
+        }
+    }
+
+    @Test
+    /**
+     * Test that segments crossing many tiles come out the
+     * same as from the whole image.
+     */
+    public void testSameAsWholeImage() throws IOException {
+        assertSameShapes(new File("src/tests/testImage8.png"), 7, 1);
+        assertSameShapes(new File("src/tests/testImage2.png"), 16, 1);
+        assertSameShapes(new File("src/tests/testImage2.png"), 16, Pipeline.SPECKLE_AREA);
+        assertSameShapes(new File("src/tests/testImage1.jpg"), 33, 1);
+    }
+
+    @Test
+    /**
+     * Test a made up river cut into segments, with
+     * speckles which are too small to be traced.
+     */
+    public void testSyntheticRiver() throws IOException {
+        SyntheticRiverGenerator generator = new SyntheticRiverGenerator(3);
+        generator.setRiverWidth(12);
+        generator.setSegments(5);
+        generator.setSpeckleDensity(0.01);
+        File file = File.createTempFile("tiled", ".png");
+        try {
+            ImageIO.write(generator.generate(400, 300), "png", file);
+            assertSameShapes(file, 1, Pipeline.SPECKLE_AREA);
+            assertSameShapes(file, 13, Pipeline.SPECKLE_AREA);
+            assertSameShapes(file, 300, Pipeline.SPECKLE_AREA);
+        }
+        finally {
+            file.delete();
+        }
+    }
+}
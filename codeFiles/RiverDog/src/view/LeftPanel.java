@@ -15,14 +15,24 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import javax.imageio.ImageIO;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Future;
 import javax.swing.JComponent;
+import javax.swing.JOptionPane;
+import javax.swing.JProgressBar;
 import javax.swing.JScrollPane;
+import javax.swing.JToggleButton;
 import org.jdesktop.swingx.JXButton;
 import org.jdesktop.swingx.JXList;
 import org.jdesktop.swingx.JXPanel;
 import org.jdesktop.swingx.painter.ImagePainter;
+import pipeline.BatchExecutor;
+import pipeline.BatchRunner;
+import pipeline.DirectoryWatcher;
 import pipeline.Pipeline;
+import pipeline.PipelineResult;
+import pipeline.ResultCache;
 
 /**
  *
@@ -35,6 +45,16 @@ public class LeftPanel extends JXPanel{
     File[] fileList;
     
     JXPanel imageContainer;
+    DirectoryWatcher watcher;
+    
+    // Run in progress, or null
+    PipelineWorker worker;
+    JXButton run;
+    JProgressBar progress;
+    
+    // Image last asked to be shown, and its preview while loading
+    File shownImage;
+    Future<?> pendingPreview;
     
     int prefWidth = 340;
     int prefHeight = 700;
@@ -105,21 +125,110 @@ public class LeftPanel extends JXPanel{
      * @param botPane 
      */
     private void addBotComponents(JComponent botPane){
-        JXButton run = new JXButton("Run");
+        run = new JXButton("Run");
         
         run.addActionListener(new ActionListener(){
             @Override
             public void actionPerformed(ActionEvent ae) {
-                runProgram();
+                if(worker == null){
+                    runProgram();
+                }
+                else{
+                    // The button comes back once the images in flight have given up
+                    worker.stop();
+                    run.setEnabled(false);
+                    run.setText("Stopping");
+                }
             }
             
         });
         
         botPane.add(run);
+        
+        progress = new JProgressBar(0, 100);
+        progress.setStringPainted(true);
+        progress.setString("");
+        botPane.add(progress);
+        
+        // Process images as they arrive in the images folder
+        final JToggleButton watch = new JToggleButton("Watch");
+        watch.addActionListener(new ActionListener(){
+            @Override
+            public void actionPerformed(ActionEvent ae) {
+                if(watch.isSelected()){
+                    watch.setSelected(startWatching());
+                }
+                else{
+                    stopWatching();
+                }
+            }
+            
+        });
+        
+        botPane.add(watch);
     }
     
     /**
+     * Starts processing new or changed images as they
+     * arrive, adding each result to the right panel.
      * 
+     * @return true if watching started
+     */
+    private boolean startWatching(){
+        watcher = new DirectoryWatcher(createPipeline(), new File(parent.getOrigin()),
+                new File(parent.getResults()), BatchRunner.DEFAULT_OUTPUT_PATTERN);
+        watcher.setListener(new BatchExecutor.ResultListener(){
+            @Override
+            public void resultReady(int index, PipelineResult result) {
+                // Successful results reach the right panel through the result bus
+                if(!result.isSuccessful()){
+                    System.out.printf("Failed to process image: '%s' (%s)\n",
+                            result.getInput().getName(), result.getError());
+                }
+            }
+        });
+        try{
+            watcher.start();
+            return true;
+        }catch(IOException e){
+            JOptionPane.showMessageDialog(this, "Could not watch '" + parent.getOrigin() + "': " + e.getMessage(),
+                    "River Detection", JOptionPane.WARNING_MESSAGE);
+            watcher = null;
+            return false;
+        }
+    }
+    
+    private void stopWatching(){
+        if(watcher != null){
+            watcher.stop();
+            watcher = null;
+        }
+    }
+    
+    /**
+     * Creates a pipeline which keeps results between runs,
+     * so that unchanged images are not processed again, and
+     * hands each result to the right panel as soon as it is
+     * rendered, writing it in the background.
+     * 
+     * @return pipeline
+     */
+    private Pipeline createPipeline(){
+        Pipeline pipeline = new Pipeline();
+        pipeline.setResultBus(parent.getResultBus());
+        try{
+            pipeline.setResultCache(new ResultCache(ResultCache.DEFAULT_DIRECTORY, ResultCache.DEFAULT_MAX_BYTES));
+        }catch(IOException e){
+            System.out.printf("Result cache disabled: %s\n", e.getMessage());
+        }
+        return pipeline;
+    }
+    
+    /**
+     * Runs the pipeline over all the images in the
+     * background, the results reaching the right panel
+     * through the result bus. The run button stops the run
+     * while it is going.
      */
     private void runProgram(){
         /*
@@ -130,46 +239,124 @@ public class LeftPanel extends JXPanel{
          */
         
         
-        Pipeline pipe = new Pipeline();
+        // Process the images in parallel, writing each result to the results folder as a PNG
+        List<File> inputs = Arrays.asList(fileList);
+        List<File> outputs = new ArrayList<File>();
         for(File file: fileList){
-            BufferedImage image = pipe.startPipeline(file);
-            saveImage(image, parent.getResults(), file.getName());
+            outputs.add(BatchRunner.getOutputFile(file, new File(parent.getResults()),
+                    BatchRunner.DEFAULT_OUTPUT_PATTERN));
         }
+        final StringBuilder failures = new StringBuilder();
+        worker = new PipelineWorker(createPipeline(), inputs, outputs){
+            @Override
+            protected void process(List<PipelineWorker.Progress> chunks){
+                for(PipelineWorker.Progress step : chunks){
+                    PipelineResult result = step.getResult();
+                    if(result == null){
+                        continue;
+                    }
+                    if(!result.isSuccessful() && !PipelineWorker.isStopped(result)){
+                        System.out.printf("Failed to process image: '%s' (%s)\n",
+                                result.getInput().getName(), result.getError());
+                        failures.append(result.getInput().getName()).append(": ")
+                                .append(result.getError().getMessage()).append('\n');
+                    }
+                }
+                PipelineWorker.Progress last = chunks.get(chunks.size() - 1);
+                progress.setValue(getProgress());
+                progress.setString(last.getStage() == null ? last.toString()
+                        : last.getStage().name().toLowerCase() + " - " + last);
+            }
+            
+            @Override
+            protected void done(){
+                worker = null;
+                run.setText("Run");
+                run.setEnabled(true);
+                progress.setString(isStopped() ? "Stopped" : "Done");
+                // Let the user know which images could not be read or saved
+                if(failures.length() > 0){
+                    JOptionPane.showMessageDialog(LeftPanel.this, "Some images could not be processed:\n" + failures,
+                            "River Detection", JOptionPane.WARNING_MESSAGE);
+                }
+            }
+        };
+        run.setText("Stop");
+        progress.setValue(0);
+        progress.setString("Starting");
+        worker.execute();
     }
     
     /**
      * need to later add a check if file is an image or not!
      * just put that somewhere
      * 
+     * The preview is decoded at the size of the image
+     * container in the background, and the next image in
+     * the list is loaded after it, ready to be shown.
+     * 
      * @param index 
      */
     private void updateImage(int index){
         String imageName = files.get(index);
-        BufferedImage image = null;
+        File image = null;
         for (File file : fileList){
             if(imageName.equals(file.getName())){
-                try{
-                image = ImageIO.read(file);
+                image = file;
                 break;
-                }catch(IOException e){System.out.println("images broke");}
             }
         }
+        if(image == null){
+            return;
+        }
         
-        if(image != null){
-            ImagePainter paint = new ImagePainter(image);
-            paint.setScaleToFit(true);
-            imageContainer.setBackgroundPainter(paint);
+        // Only the image asked for last is shown
+        if(pendingPreview != null){
+            pendingPreview.cancel(false);
+        }
+        shownImage = image;
+        Dimension size = getPreviewSize();
+        PreviewLoader loader = PreviewLoader.getDefault();
+        pendingPreview = loader.load(image, size, new PreviewLoader.PreviewListener(){
+            @Override
+            public void previewReady(File file, BufferedImage preview) {
+                if(file.equals(shownImage)){
+                    ImagePainter paint = new ImagePainter(preview);
+                    paint.setScaleToFit(true);
+                    imageContainer.setBackgroundPainter(paint);
+                }
+            }
+
+            @Override
+            public void previewFailed(File file, IOException e) {
+                if(file.equals(shownImage)){
+                    JOptionPane.showMessageDialog(LeftPanel.this, "Could not read image '" + file.getName() + "': " + e.getMessage(),
+                            "River Detection", JOptionPane.WARNING_MESSAGE);
+                }
+            }
+        });
+        if(index + 1 < files.size()){
+            for (File file : fileList){
+                if(files.get(index + 1).equals(file.getName())){
+                    loader.prefetch(file, size);
+                    break;
+                }
+            }
         }
     }
     
     /**
-     *  needs to write image to file in specified location
-     * @param img 
+     * Returns the size previews are decoded at, which is
+     * the size of the image container once it is shown.
+     * 
+     * @return preview size
      */
-    private void saveImage(BufferedImage img, String result, String fname){
-        try{
-            ImageIO.write(img, "png", new File(result+"/"+fname));
-        }catch(IOException i){}
+    private Dimension getPreviewSize(){
+        Dimension size = imageContainer.getSize();
+        if(size.width <= 0 || size.height <= 0){
+            size = imageContainer.getMinimumSize();
+        }
+        return size;
     }
     
     /**
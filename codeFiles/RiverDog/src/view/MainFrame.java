@@ -13,6 +13,7 @@ import java.io.File;
 import javax.swing.JFrame;
 import org.jdesktop.swingx.JXButton;
 import pipeline.Pipeline;
+import pipeline.ResultBus;
 
 /**
  *
@@ -29,6 +30,9 @@ public class MainFrame extends Frame {
     LeftPanel leftPanel;
     RightPanel rightPanel;
     
+    // Hands results to the right panel without reading them back from disk
+    ResultBus resultBus = new ResultBus();
+    
     /**
      * 
      * @param locations 
@@ -51,6 +55,7 @@ public class MainFrame extends Frame {
         
         leftPanel = new LeftPanel(fileList, this);
         rightPanel = new RightPanel(res);
+        rightPanel.subscribe(resultBus);
        
         mainFrame.add("West", leftPanel);
         
@@ -103,6 +108,24 @@ public class MainFrame extends Frame {
         return result;
     }
     
+    /**
+     * 
+     * @return 
+     */
+    public RightPanel getRightPanel(){
+        return rightPanel;
+    }
+    
+    /**
+     * Returns the bus the pipelines of the GUI publish
+     * their results on.
+     * 
+     * @return result bus
+     */
+    public ResultBus getResultBus(){
+        return resultBus;
+    }
+    
     /**
      * 
      * @param pane 
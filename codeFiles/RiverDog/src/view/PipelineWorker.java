@@ -0,0 +1,202 @@
+package view;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import javax.swing.SwingWorker;
+import modules.CancellationToken;
+import pipeline.BatchExecutor;
+import pipeline.Pipeline;
+import pipeline.PipelineResult;
+import pipeline.ResultBus;
+import pipeline.Stage;
+
+/**
+ * Runs a batch of images through the pipeline away from
+ * the event dispatch thread. Progress is published each
+ * time an image enters a stage or is finished, and the
+ * panels pick it up by overriding process() and done().
+ * Stopping the worker cancels the token of the pipeline,
+ * so the images in flight give up between rows or shapes
+ * instead of being finished.
+ *
+ * With a result bus, the run is only done once the bus has
+ * written its images, and an image which could not be
+ * written is published again, now with the error.
+ */
+public class PipelineWorker extends SwingWorker<List<PipelineResult>, PipelineWorker.Progress> {
+    private final Pipeline pipeline;
+    private final List<File> inputs;
+    private final List<File> outputs;
+    private final CancellationToken token = new CancellationToken();
+    private long start;
+    private int done = 0;
+    private long pixels = 0;
+
+    /**
+     * The state of the run at one moment.
+     */
+    public static class Progress {
+        private final int done;
+        private final int total;
+        private final Stage stage;
+        private final long nanos;
+        private final long pixels;
+        private final PipelineResult result;
+
+        Progress(int done, int total, Stage stage, long nanos, long pixels, PipelineResult result){
+            this.done = done;
+            this.total = total;
+            this.stage = stage;
+            this.nanos = nanos;
+            this.pixels = pixels;
+            this.result = result;
+        }
+
+        public int getDone(){
+            return done;
+        }
+
+        public int getTotal(){
+            return total;
+        }
+
+        /**
+         * Returns the stage an image entered last, or null
+         * if the progress is for a finished image.
+         *
+         * @return stage
+         */
+        public Stage getStage(){
+            return stage;
+        }
+
+        /**
+         * Returns the image which was just finished, or null
+         * if the progress is for an image entering a stage.
+         *
+         * @return result
+         */
+        public PipelineResult getResult(){
+            return result;
+        }
+
+        public double getImagesPerSecond(){
+            return nanos == 0 ? 0 : done * 1e9 / nanos;
+        }
+
+        public double getMegapixelsPerSecond(){
+            return nanos == 0 ? 0 : pixels * 1e3 / nanos;
+        }
+
+        @Override
+        public String toString(){
+            return String.format("%d of %d images, %.1f images/s, %.1f MP/s",
+                    done, total, getImagesPerSecond(), getMegapixelsPerSecond());
+        }
+    }
+
+    /**
+     * @param pipeline - pipeline to run the images through, which the worker gives its token
+     * @param inputs - image files
+     * @param outputs - file to write each result to
+     */
+    public PipelineWorker(Pipeline pipeline, List<File> inputs, List<File> outputs){
+        this.pipeline = pipeline;
+        this.inputs = inputs;
+        this.outputs = outputs;
+    }
+
+    /**
+     * Stops the run. Images already finished are kept, and
+     * the rest give up at their next check of the token. The
+     * worker is not cancelled, so done() is only called once
+     * the background thread has returned and nothing of the
+     * run is still going.
+     */
+    public void stop(){
+        token.cancel();
+    }
+
+    /**
+     * Returns true if stop() has been called.
+     *
+     * @return whether the run was stopped
+     */
+    public boolean isStopped(){
+        return token.isCancelled();
+    }
+
+    /**
+     * Returns true if the image could not be processed
+     * because the run was stopped.
+     *
+     * @param result
+     * @return whether the image was cancelled
+     */
+    public static boolean isStopped(PipelineResult result){
+        return result.getError() instanceof CancellationException;
+    }
+
+    @Override
+    protected List<PipelineResult> doInBackground() throws Exception {
+        start = System.nanoTime();
+        pipeline.setCancellationToken(token);
+        pipeline.setStageListener(new Pipeline.StageListener(){
+            @Override
+            public void stageStarted(Stage stage) {
+                publishProgress(stage, null);
+            }
+        });
+        final List<PipelineResult> processed = new ArrayList<PipelineResult>();
+        List<PipelineResult> results;
+        try{
+            BatchExecutor executor = new BatchExecutor(pipeline);
+            results = executor.run(inputs, outputs, new BatchExecutor.ResultListener(){
+                @Override
+                public void resultReady(int index, PipelineResult result) {
+                    if(result.isSuccessful()){
+                        processed.add(result);
+                    }
+                    publishProgress(null, result);
+                }
+            });
+        }finally{
+            pipeline.setStageListener(null);
+        }
+
+        // Wait for the results to be written, reporting those which could not be
+        ResultBus bus = pipeline.getResultBus();
+        if(bus != null){
+            bus.flush();
+            for(PipelineResult result : processed){
+                if(!result.isSuccessful()){
+                    publishWriteFailure(result);
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Publishes an image which was processed but could not
+     * be written, without counting it again.
+     */
+    private synchronized void publishWriteFailure(PipelineResult result){
+        publish(new Progress(done, inputs.size(), null, System.nanoTime() - start, pixels, result));
+    }
+
+    /**
+     * Publishes the progress so far, counting the image
+     * just finished if there is one.
+     */
+    private synchronized void publishProgress(Stage stage, PipelineResult result){
+        if(result != null){
+            done++;
+            pixels += result.getPixels();
+            setProgress(inputs.isEmpty() ? 100 : done * 100 / inputs.size());
+        }
+        publish(new Progress(done, inputs.size(), stage, System.nanoTime() - start, pixels, result));
+    }
+}
@@ -0,0 +1,355 @@
+package view;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.Polygon;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.swing.SwingUtilities;
+import riverObjects.ImageShape;
+
+/**
+ * Loads previews of images for the panels, scaled down to
+ * the size they are shown at. Images are decoded on a
+ * background thread, skipping rows and columns as they are
+ * read so that large images are never decoded in full, and
+ * the previews are kept in a cache of limited size, dropping
+ * the least recently shown first.
+ * 
+ * Results handed over in memory are shown by drawing their
+ * river segments over the preview of the input, so that
+ * the result image does not have to be read.
+ */
+public class PreviewLoader {
+    // Bytes of previews kept by the shared loader
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    private static final PreviewLoader defaultLoader = new PreviewLoader(DEFAULT_MAX_BYTES);
+    private final long maxBytes;
+    private long bytes = 0;
+    // Previews by file and size, in order of use
+    private final LinkedHashMap<String, Preview> cache = new LinkedHashMap<String, Preview>(16, 0.75f, true);
+    private final ExecutorService executor;
+    private int hits = 0;
+    private int misses = 0;
+
+    /**
+     * A scaled image along with the size of the image it
+     * was read from.
+     */
+    private static class Preview {
+        final BufferedImage image;
+        final int sourceWidth;
+        final int sourceHeight;
+
+        Preview(BufferedImage image, int sourceWidth, int sourceHeight){
+            this.image = image;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+        }
+
+        /**
+         * Draws the boundaries of river segments found in the
+         * source over a copy of the preview.
+         *
+         * @param shapes - segments, or null to return the preview itself
+         * @param outline - color of the boundaries
+         * @return preview with the boundaries drawn on
+         */
+        BufferedImage draw(List<ImageShape> shapes, Color outline){
+            if(shapes == null){
+                return image;
+            }
+            BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+            Graphics2D g = copy.createGraphics();
+            g.drawImage(image, 0, 0, null);
+            g.setColor(outline);
+            double scaleX = image.getWidth() / (double) sourceWidth;
+            double scaleY = image.getHeight() / (double) sourceHeight;
+            for(ImageShape shape : shapes){
+                Polygon polygon = shape.getPolygon();
+                int[] x = new int[polygon.npoints];
+                int[] y = new int[polygon.npoints];
+                for(int i = 0; i < polygon.npoints; i++){
+                    x[i] = (int) (polygon.xpoints[i] * scaleX);
+                    y[i] = (int) (polygon.ypoints[i] * scaleY);
+                }
+                g.drawPolygon(x, y, polygon.npoints);
+            }
+            g.dispose();
+            return copy;
+        }
+    }
+
+    /**
+     * Receives previews on the event dispatch thread.
+     */
+    public interface PreviewListener {
+
+        /**
+         * Called once the preview of a file is ready.
+         *
+         * @param file - image file
+         * @param preview - image scaled to fit the requested size
+         */
+        void previewReady(File file, BufferedImage preview);
+
+        /**
+         * Called if the file could not be read.
+         *
+         * @param file - image file
+         * @param e - reason
+         */
+        void previewFailed(File file, IOException e);
+    }
+
+    /**
+     * Creates a loader keeping previews up to the
+     * given number of bytes.
+     *
+     * @param maxBytes
+     */
+    public PreviewLoader(long maxBytes){
+        this.maxBytes = maxBytes;
+        executor = Executors.newSingleThreadExecutor(new ThreadFactory(){
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Preview loader");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Returns the loader shared by the panels.
+     *
+     * @return shared loader
+     */
+    public static PreviewLoader getDefault(){
+        return defaultLoader;
+    }
+
+    /**
+     * Loads the preview of an image scaled to fit the given
+     * size. A cached preview is given to the listener at
+     * once; otherwise the image is decoded in the background.
+     * Must be called on the event dispatch thread.
+     *
+     * @param file - image file
+     * @param size - size the preview is shown at
+     * @param listener - receives the preview
+     * @return the background task, which may be cancelled, or null if cached
+     */
+    public Future<?> load(File file, Dimension size, PreviewListener listener){
+        return load(file, null, null, size, listener);
+    }
+
+    /**
+     * Loads the preview of an image with the boundaries of
+     * river segments drawn on, as the pipeline would draw
+     * them. The preview of the image itself is cached, and
+     * the boundaries are drawn over a copy of it.
+     *
+     * @param file - image file the segments were found in
+     * @param shapes - river segments, in the pixels of the image
+     * @param outline - color of the boundaries
+     * @param size - size the preview is shown at
+     * @param listener - receives the preview
+     * @return the background task, which may be cancelled, or null if cached
+     */
+    public Future<?> load(final File file, final List<ImageShape> shapes, final Color outline,
+            final Dimension size, final PreviewListener listener){
+        final String key = getKey(file, size);
+        Preview preview = get(key);
+        if(preview != null){
+            listener.previewReady(file, preview.draw(shapes, outline));
+            return null;
+        }
+        return executor.submit(new Runnable(){
+            @Override
+            public void run() {
+                try{
+                    // It may have been loaded while waiting
+                    Preview preview = get(key);
+                    if(preview == null){
+                        preview = read(file, size);
+                        put(key, preview);
+                    }
+                    final BufferedImage result = preview.draw(shapes, outline);
+                    SwingUtilities.invokeLater(new Runnable(){
+                        @Override
+                        public void run() {
+                            listener.previewReady(file, result);
+                        }
+                    });
+                }catch(final IOException e){
+                    SwingUtilities.invokeLater(new Runnable(){
+                        @Override
+                        public void run() {
+                            listener.previewFailed(file, e);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    /**
+     * Loads the preview of an image into the cache in the
+     * background, so that it is ready once it is shown.
+     *
+     * @param file - image file
+     * @param size - size the preview is shown at
+     * @return the background task, which may be cancelled, or null if cached
+     */
+    public Future<?> prefetch(final File file, final Dimension size){
+        final String key = getKey(file, size);
+        if(contains(key)){
+            return null;
+        }
+        return executor.submit(new Runnable(){
+            @Override
+            public void run() {
+                try{
+                    if(!contains(key)){
+                        put(key, read(file, size));
+                    }
+                }catch(IOException e){
+                    // The error is reported if the image is shown
+                }
+            }
+        });
+    }
+
+    /**
+     * Decodes an image scaled to fit a size. Whole rows and
+     * columns are skipped while reading, keeping the decoded
+     * image at least as large as the size, and the rest of the
+     * way is done by smooth scaling.
+     *
+     * @param file - image file
+     * @param size - size to fit
+     * @return scaled image
+     * @throws IOException if the file cannot be read or is not a supported image
+     */
+    public static BufferedImage decode(File file, Dimension size) throws IOException {
+        return read(file, size).image;
+    }
+
+    private static Preview read(File file, Dimension size) throws IOException {
+        ImageInputStream stream = ImageIO.createImageInputStream(file);
+        if(stream == null){
+            throw new IOException("Cannot read image: " + file.getName());
+        }
+        BufferedImage image;
+        int sourceWidth;
+        int sourceHeight;
+        try{
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if(!readers.hasNext()){
+                throw new IOException("Unsupported image format: " + file.getName());
+            }
+            ImageReader reader = readers.next();
+            try{
+                reader.setInput(stream, true, true);
+                sourceWidth = reader.getWidth(0);
+                sourceHeight = reader.getHeight(0);
+                int step = Math.max(1, Math.min(sourceWidth / Math.max(1, size.width), sourceHeight / Math.max(1, size.height)));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(step, step, 0, 0);
+                image = reader.read(0, param);
+            }finally{
+                reader.dispose();
+            }
+        }finally{
+            stream.close();
+        }
+
+        // Scale the rest of the way, keeping the aspect ratio
+        double scale = Math.min(1.0, Math.min(size.width / (double) image.getWidth(),
+                size.height / (double) image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+        if(width == image.getWidth() && height == image.getHeight()){
+            return new Preview(image, sourceWidth, sourceHeight);
+        }
+        BufferedImage scaled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = scaled.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return new Preview(scaled, sourceWidth, sourceHeight);
+    }
+
+    /**
+     * Makes the cache key of a preview. The modification time
+     * and length are part of it, so a changed file is loaded
+     * again.
+     */
+    private static String getKey(File file, Dimension size){
+        return file.getAbsolutePath() + '|' + file.lastModified() + '|' + file.length()
+                + '|' + size.width + 'x' + size.height;
+    }
+
+    private synchronized boolean contains(String key){
+        return cache.containsKey(key);
+    }
+
+    private synchronized Preview get(String key){
+        Preview preview = cache.get(key);
+        if(preview != null){
+            hits++;
+        }else{
+            misses++;
+        }
+        return preview;
+    }
+
+    private synchronized void put(String key, Preview preview){
+        Preview old = cache.put(key, preview);
+        if(old != null){
+            bytes -= getBytes(old.image);
+        }
+        bytes += getBytes(preview.image);
+        // Drop the least recently shown previews, but always keep the newest
+        Iterator<Map.Entry<String, Preview>> entries = cache.entrySet().iterator();
+        while(bytes > maxBytes && cache.size() > 1){
+            Map.Entry<String, Preview> eldest = entries.next();
+            bytes -= getBytes(eldest.getValue().image);
+            entries.remove();
+        }
+    }
+
+    private static long getBytes(BufferedImage image){
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+
+    public synchronized long getBytes(){
+        return bytes;
+    }
+
+    public synchronized int getCount(){
+        return cache.size();
+    }
+
+    @Override
+    public synchronized String toString(){
+        return String.format("Preview cache: %d previews, %.1f of %.1f MB, %d hits, %d misses",
+                cache.size(), bytes / 1048576.0, maxBytes / 1048576.0, hits, misses);
+    }
+}
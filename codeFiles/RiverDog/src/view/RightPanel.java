@@ -13,12 +13,17 @@ import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import javax.imageio.ImageIO;
+import java.util.concurrent.Future;
+import javax.swing.DefaultListModel;
 import javax.swing.JComponent;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
 import org.jdesktop.swingx.JXList;
 import org.jdesktop.swingx.JXPanel;
 import org.jdesktop.swingx.painter.ImagePainter;
+import pipeline.Pipeline;
+import pipeline.PipelineResult;
+import pipeline.ResultBus;
 
 /**
  *
@@ -27,11 +32,18 @@ import org.jdesktop.swingx.painter.ImagePainter;
 public class RightPanel extends JXPanel{
     File results;
     ArrayList<String> files;
-    File[] resultList;
+    ArrayList<File> resultList;
+    // Results handed over in memory, or null for those found in the results folder
+    ArrayList<PipelineResult> published;
     
+    DefaultListModel<String> listModel = new DefaultListModel<String>();
     JXList resultLister;    
     JXPanel imageContainer;
     
+    // Result last asked to be shown, and its preview while loading
+    File shownImage;
+    Future<?> pendingPreview;
+    
     int prefWidth = 500;
     int prefHeight = 800;
     
@@ -43,7 +55,6 @@ public class RightPanel extends JXPanel{
         this.results = results;
         
         
-        this.resultList = results.listFiles();
         fileUpdate();
         
         this.setMinimumSize(new Dimension(prefWidth, prefHeight));
@@ -71,7 +82,7 @@ public class RightPanel extends JXPanel{
      * @param ContainerPane 
      */
     private void addTopComponents(JComponent ContainerPane){
-        resultLister = new JXList(files.toArray());
+        resultLister = new JXList(listModel);
         JScrollPane scroll = new JScrollPane(resultLister);
         
         int listHeight = prefHeight/3;
@@ -87,44 +98,130 @@ public class RightPanel extends JXPanel{
     
        
     public void updateResults(){
-        resultList = results.listFiles();
-        resultLister.setListData(resultList);
         fileUpdate();
-        resultLister.updateUI();
     }
     
-    private void fileUpdate(){
-        files = new ArrayList<String>();
+    /**
+     * Adds a single result to the list, without rescanning
+     * the results folder. A result which is already listed
+     * is left where it is. Must be called on the event
+     * dispatch thread.
+     * 
+     * @param file - result image
+     */
+    public void addResult(File file){
+        int index = files.indexOf(file.getName());
+        if(index >= 0){
+            resultList.set(index, file);
+            return;
+        }
+        files.add(file.getName());
+        resultList.add(file);
+        published.add(null);
+        listModel.addElement(file.getName());
+    }
+    
+    /**
+     * Adds a result handed over in memory. It is shown by
+     * drawing its river segments over the input, so it can
+     * be shown before its file is written. Must be called
+     * on the event dispatch thread.
+     * 
+     * @param result - successful result with an output file
+     */
+    public void addResult(PipelineResult result){
+        addResult(result.getOutput());
+        published.set(files.indexOf(result.getOutput().getName()), result);
+    }
+    
+    /**
+     * Shows the results published on a bus as they arrive.
+     * 
+     * @param bus 
+     */
+    public void subscribe(ResultBus bus){
+        bus.subscribe(new ResultBus.Subscriber(){
+            @Override
+            public void resultPublished(final PipelineResult result) {
+                SwingUtilities.invokeLater(new Runnable(){
+                    @Override
+                    public void run() {
+                        addResult(result);
+                    }
+                });
+            }
 
-            for(File file : resultList){
-                files.add(file.getName());
+            @Override
+            public void resultWritten(PipelineResult result, IOException error) {
+                if(error != null){
+                    System.out.printf("Failed to save result: '%s' (%s)\n",
+                            result.getOutput().getName(), error);
+                }
             }
+        });
+    }
+    
+    private void fileUpdate(){
+        files = new ArrayList<String>();
+        resultList = new ArrayList<File>();
+        published = new ArrayList<PipelineResult>();
+        listModel.clear();
+        File[] found = results.listFiles();
+        if(found == null){
+            return;
+        }
+        for(File file : found){
+            addResult(file);
+        }
     }
     
     /**
      * need to later add a check if file is an image or not!
      * just put that somewhere
      * 
+     * The preview is decoded at the size of the image
+     * container in the background. Results handed over in
+     * memory are drawn over the preview of their input
+     * instead of reading the result image.
+     * 
      * @param index 
      */
     private void updateImage(int index){
-        String imageName = files.get(index);
-        BufferedImage image = null;
-        for (File file : resultList){
-            if(imageName.equals(file.getName())){
-                try{
-                image = ImageIO.read(file);
-                break;
-                }catch(IOException e){System.out.println("images broke");}
+        File image = resultList.get(index);
+        PipelineResult result = published.get(index);
+        boolean inMemory = result != null && result.getShapes() != null;
+        
+        // Only the image asked for last is shown
+        if(pendingPreview != null){
+            pendingPreview.cancel(false);
+        }
+        shownImage = inMemory ? result.getInput() : image;
+        Dimension size = imageContainer.getSize();
+        if(size.width <= 0 || size.height <= 0){
+            size = imageContainer.getMinimumSize();
+        }
+        PreviewLoader.PreviewListener listener = new PreviewLoader.PreviewListener(){
+            @Override
+            public void previewReady(File file, BufferedImage preview) {
+                if(file.equals(shownImage)){
+                    ImagePainter paint = new ImagePainter(preview);
+                    paint.setScaleToFit(true);
+                    imageContainer.setBackgroundPainter(paint);
+                }
             }
+
+            @Override
+            public void previewFailed(File file, IOException e) {
+                System.out.println("images broke");
+            }
+        };
+        if(inMemory){
+            pendingPreview = PreviewLoader.getDefault().load(result.getInput(), result.getShapes(),
+                    Pipeline.OUTLINE_COLOR, size, listener);
         }
-        
-        if(image != null){
-            ImagePainter paint = new ImagePainter(image);
-            paint.setScaleToFit(true);
-            imageContainer.setBackgroundPainter(paint);
+        else{
+            pendingPreview = PreviewLoader.getDefault().load(image, size, listener);
         }
-        
     }
     
   /**